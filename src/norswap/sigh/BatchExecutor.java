@@ -0,0 +1,445 @@
+package norswap.sigh;
+
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.ExecutionContext;
+import norswap.sigh.interpreter.Program;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a function of a program over many inputs (argument tuples), on a fixed pool of worker
+ * threads.
+ *
+ * <p>Each worker thread creates its own function instance the first time it runs (see {@link
+ * #interpreted} and {@link #compiled}), which it then reuses for every input of every batch. With
+ * the interpreter, this means one {@link ExecutionContext} per thread, whose top-level code runs
+ * once, and which is reset after each input: the result for an input does not depend on the
+ * inputs processed before it by the same thread.
+ *
+ * <p>The inputs are read lazily, and at most {@code window} of them are in flight (submitted but
+ * whose output has not been delivered yet), latencies are recorded in a fixed-size histogram, and
+ * only the first {@link #KEPT_FAILURES} failures are kept, so that arbitrarily large batches run in
+ * bounded memory. Outputs are delivered on the calling thread, in input order or, if the batch is
+ * unordered, as soon as they are computed.
+ */
+public final class BatchExecutor implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of failures kept in a {@link Report} (the others are only counted). */
+    public static final int KEPT_FAILURES = 100;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ExecutorService pool;
+    private final int window;
+    private final ThreadLocal<Function<Object[], Object>> function;
+
+    /** Run by {@link #close} once the worker threads have stopped. */
+    private final Runnable onClose;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an executor with {@code threads} worker threads, each of which gets a function
+     * from {@code factory}, and that keeps at most {@code window} inputs in flight.
+     */
+    public BatchExecutor (int threads, int window, Supplier<Function<Object[], Object>> factory) {
+        this(threads, window, factory, () -> {});
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private BatchExecutor (int threads, int window, Supplier<Function<Object[], Object>> factory,
+                           Runnable onClose)
+    {
+        if (threads < 1 || window < 1)
+            throw new IllegalArgumentException("threads and window must be positive");
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "sigh-batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.window = window;
+        this.function = ThreadLocal.withInitial(factory);
+        this.onClose = onClose;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an executor that calls the top-level function with the given name of the program
+     * (see {@link ExecutionContext#call}), with one execution context per worker thread, and
+     * {@code 64} inputs in flight per thread. The context is {@link ExecutionContext#reset reset}
+     * to the state following the run of the top-level code after each input, and {@link
+     * ExecutionContext#close closed} when the executor is.
+     */
+    public static BatchExecutor interpreted (Program program, String name, int threads)
+    {
+        ConcurrentLinkedQueue<ExecutionContext> contexts = new ConcurrentLinkedQueue<>();
+        return new BatchExecutor(threads, 64 * threads, () -> {
+            ExecutionContext context = program.newContext();
+            contexts.add(context);
+            context.run();
+            context.snapshot();
+            return args -> {
+                try {
+                    return context.call(name, args);
+                } finally {
+                    context.reset();
+                }
+            };
+        }, () -> contexts.forEach(ExecutionContext::close));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an executor that calls the compiled top-level function with the given name (see
+     * {@link CompilationResult#function}) and {@code 64} inputs in flight per thread. Unlike with
+     * the interpreter, all threads share the top-level variables (static fields of the loaded
+     * class).
+     */
+    public static BatchExecutor compiled (
+            CompilationResult result, Class<?> mainClass, String name, int threads)
+    {
+        MethodHandle function = result.function(mainClass, name);
+        MethodHandle spread = function
+            .asSpreader(Object[].class, function.type().parameterCount())
+            .asType(MethodType.methodType(Object.class, Object[].class));
+
+        return new BatchExecutor(threads, 64 * threads, () -> args -> {
+            try {
+                return (Object) spread.invokeExact(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** An input for which the function threw an exception. */
+    public static final class Failure
+    {
+        /** Index of the input in the batch. */
+        public final long index;
+        public final Object[] arguments;
+        public final Throwable error;
+
+        Failure (long index, Object[] arguments, Throwable error) {
+            this.index = index;
+            this.arguments = arguments;
+            this.error = error;
+        }
+
+        @Override public String toString () {
+            return "input " + index + " " + Arrays.toString(arguments) + ": " + error;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Statistics and failures for a batch. */
+    public static final class Report
+    {
+        /** Number of inputs in the batch. */
+        public final long count;
+
+        /** Wall-clock duration of the batch, in nanoseconds. */
+        public final long elapsedNanos;
+
+        /** Number of failed inputs. No output is delivered for them. */
+        public final long failureCount;
+
+        /**
+         * The failed inputs with the lowest indices (at most {@link #KEPT_FAILURES}), in input
+         * order.
+         */
+        public final List<Failure> failures;
+
+        /** Per-input latencies (time spent in the function) in nanoseconds. */
+        private final Histogram latencies;
+
+        Report (long count, long elapsedNanos, long failureCount, List<Failure> failures,
+                Histogram latencies) {
+            this.count = count;
+            this.elapsedNanos = elapsedNanos;
+            this.failureCount = failureCount;
+            this.failures = failures;
+            this.latencies = latencies;
+        }
+
+        /** Returns the number of inputs processed per second. */
+        public double throughput () {
+            return elapsedNanos == 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the latency in nanoseconds below which the given percentile (between 0 and 100)
+         * of the inputs fall, or 0 for an empty batch. The latency is exact up to {@code 127}
+         * nanoseconds, and otherwise within 1/64th (about 1.6%) of the exact latency.
+         */
+        public long latencyPercentile (double percentile)
+        {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("percentile not in [0, 100]: " + percentile);
+            return latencies.percentile(percentile);
+        }
+
+        @Override public String toString () {
+            return String.format(
+                "%d inputs in %.3f ms (%.0f/s), p50 %d ns, p99 %d ns, %d failures",
+                count, elapsedNanos / 1e6, throughput(),
+                latencyPercentile(50), latencyPercentile(99), failureCount);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A log-linear histogram of non-negative values: values below {@code 128} have their own
+     * bucket, and each power of two above is split into {@code 64} buckets, so that a value is
+     * recorded within 1/64th of its magnitude, in a fixed amount of memory.
+     */
+    private static final class Histogram
+    {
+        private static final int SUB_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        /** One block of {@link #SUB_BUCKETS} buckets for each exponent between 6 and 62. */
+        private final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+        private long count = 0;
+        private long max = 0;
+
+        void record (long value)
+        {
+            value = Math.max(value, 0); // in case the clock went backwards
+            ++counts[index(value)];
+            ++count;
+            max = Math.max(max, value);
+        }
+
+        /** Returns the index of the bucket containing {@code value}. */
+        private static int index (long value)
+        {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        /** Returns the highest value of the bucket with the given index. */
+        private static long highest (int index)
+        {
+            if (index < 2 * SUB_BUCKETS)
+                return index;
+            int shift = (index >>> SUB_BITS) - 1;
+            long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        /** Returns the highest value of the bucket in which the given percentile falls. */
+        long percentile (double percentile)
+        {
+            if (count == 0)
+                return 0;
+            long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highest(i), max);
+            }
+            return max;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The result of the function for one input. */
+    private static final class Outcome
+    {
+        final long index;
+        final Object[] arguments;
+        final Object value;
+        final Throwable error;
+        final long latency;
+
+        Outcome (long index, Object[] arguments, Object value, Throwable error, long latency) {
+            this.index = index;
+            this.arguments = arguments;
+            this.value = value;
+            this.error = error;
+            this.latency = latency;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the function over every input, and passes each output to {@code output}, on the calling
+     * thread. If {@code ordered} is true, outputs are delivered in input order, otherwise in the
+     * order in which they are computed. Returns a report once all outputs have been delivered.
+     */
+    public Report run (Iterable<Object[]> inputs, boolean ordered, Consumer<Object> output) {
+        return run(inputs.spliterator(), ordered, output);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #run(Iterable, boolean, Consumer)}, with inputs supplied by a spliterator.
+     */
+    public Report run (Spliterator<Object[]> inputs, boolean ordered, Consumer<Object> output)
+    {
+        long start = System.nanoTime();
+        Batch batch = new Batch(ordered, output);
+        long[] submitted = { 0 };
+
+        try {
+            while (inputs.tryAdvance(args -> {
+                batch.awaitPermit();
+                long index = submitted[0]++;
+                pool.execute(() -> batch.completions.add(compute(index, args)));
+            }));
+            while (batch.delivered < submitted[0])
+                batch.deliver(batch.completions.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while running a batch", e);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        ArrayList<Failure> failures = new ArrayList<>(batch.failures);
+        failures.sort((a, b) -> Long.compare(a.index, b.index));
+        return new Report(submitted[0], elapsed, batch.failureCount,
+            Collections.unmodifiableList(failures), batch.latencies);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Outcome compute (long index, Object[] args)
+    {
+        long start = System.nanoTime();
+        try {
+            Object value = function.get().apply(args);
+            return new Outcome(index, args, value, null, System.nanoTime() - start);
+        } catch (Throwable t) {
+            return new Outcome(index, args, null, t, System.nanoTime() - start);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** State of a batch, only accessed by the calling thread (except for the queue). */
+    private final class Batch
+    {
+        final boolean ordered;
+        final Consumer<Object> output;
+        final Semaphore permits = new Semaphore(window);
+        final LinkedBlockingQueue<Outcome> completions = new LinkedBlockingQueue<>();
+
+        /** In ordered mode, outcomes that can't be delivered until earlier outcomes are. */
+        final HashMap<Long, Outcome> pending = new HashMap<>();
+
+        /** The failures with the lowest indices, the highest index first. */
+        final PriorityQueue<Failure> failures =
+            new PriorityQueue<>((a, b) -> Long.compare(b.index, a.index));
+        long failureCount = 0;
+        final Histogram latencies = new Histogram();
+        long delivered = 0;
+
+        Batch (boolean ordered, Consumer<Object> output) {
+            this.ordered = ordered;
+            this.output = output;
+        }
+
+        /** Waits until a new input can be submitted, delivering outputs in the meantime. */
+        void awaitPermit ()
+        {
+            try {
+                while (!permits.tryAcquire())
+                    deliver(completions.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while running a batch", e);
+            }
+        }
+
+        /** Delivers the outcome, or buffers it if earlier outcomes have not been delivered. */
+        void deliver (Outcome outcome)
+        {
+            if (!ordered) {
+                accept(outcome);
+                return;
+            }
+            pending.put(outcome.index, outcome);
+            for (Outcome next; (next = pending.remove(delivered)) != null; )
+                accept(next);
+        }
+
+        private void accept (Outcome outcome)
+        {
+            latencies.record(outcome.latency);
+            ++delivered;
+            permits.release();
+
+            if (outcome.error != null)
+                fail(outcome);
+            else
+                output.accept(outcome.value);
+        }
+
+        /** Counts the failure, and keeps it if it is among the first {@link #KEPT_FAILURES}. */
+        private void fail (Outcome outcome)
+        {
+            ++failureCount;
+            if (failures.size() == KEPT_FAILURES) {
+                if (failures.peek().index < outcome.index)
+                    return;
+                failures.poll();
+            }
+            failures.add(new Failure(outcome.index, outcome.arguments, outcome.error));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Shuts down the worker threads, then waits for them to stop before closing the execution
+     * contexts of an {@link #interpreted} executor.
+     */
+    @Override public void close ()
+    {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // the workers may still use the contexts
+        }
+        onClose.run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,284 @@
+package norswap.sigh;
+
+import sun.misc.Unsafe;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * The runtime representation of the {@code BigInts} and {@code BigFloats} types: arrays of 64-bit
+ * values stored outside of the Java heap, and indexed by {@code long} values, so that their length
+ * is not limited to 2^31 elements. Shared by the interpreter and the compiled code.
+ *
+ * <p>The memory of an array is allocated (and zeroed) when it is created, and is freed when it is
+ * {@link #release released}. Programs release arrays with the {@code releaseInts} and {@code
+ * releaseFloats} built-in functions, and hosts with {@link #release} or a try-with-resources
+ * statement. The garbage collector never frees this memory, since it can't tell when the last
+ * access to it happens. Instead, the arrays allocated while an {@link Owner} is entered can be
+ * released together: this is how execution contexts free the arrays that their program did not
+ * release (e.g. because of an exception). Using an array after its release throws an {@link
+ * IllegalStateException}, and accessing an index outside of the array throws an {@link
+ * ArrayIndexOutOfBoundsException}.
+ *
+ * <p>Like Java arrays, big arrays are not synchronized. In particular, an array must not be
+ * released while another thread is using it.
+ */
+public abstract class BigArray implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    static final Unsafe UNSAFE = findUnsafe();
+
+    private static Unsafe findUnsafe () {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The owner of the arrays allocated by each thread, if any (see {@link Owner#enter}). */
+    private static final ThreadLocal<Owner> OWNER = new ThreadLocal<>();
+
+    /**
+     * A set of big arrays that can be released together: the arrays allocated by a thread while
+     * the owner is {@link #enter entered}. For instance, an {@link
+     * norswap.sigh.interpreter.ExecutionContext} owns the arrays allocated by its program, and
+     * releases those it still owns when it is reset or closed.
+     *
+     * <p>An owner is not synchronized: it must only be used by one thread at a time.
+     */
+    public static final class Owner
+    {
+        private final ArrayList<BigArray> arrays = new ArrayList<>();
+
+        /** Size of {@link #arrays} above which the released arrays are removed from it. */
+        private int pruneSize = 16;
+
+        /**
+         * Makes this the owner of the arrays that the current thread allocates, until {@link
+         * #exit} is called with the returned value: the previous owner of the thread, or null.
+         */
+        public Owner enter () {
+            Owner previous = OWNER.get();
+            OWNER.set(this);
+            return previous;
+        }
+
+        /** Restores the owner returned by {@link #enter}. */
+        public static void exit (Owner previous) {
+            if (previous == null) OWNER.remove();
+            else OWNER.set(previous);
+        }
+
+        private void add (BigArray array)
+        {
+            if (arrays.size() >= pruneSize) {
+                arrays.removeIf(BigArray::released);
+                pruneSize = Math.max(16, 2 * arrays.size());
+            }
+            arrays.add(array);
+        }
+
+        /**
+         * Stops owning {@code value} if it is a big array, or the big arrays it contains if it is
+         * an array of objects (recursively), and returns it. Used for values handed to the host,
+         * which then becomes responsible for releasing them.
+         */
+        public Object disown (Object value)
+        {
+            if (value instanceof BigArray)
+                arrays.remove(value);
+            else if (value instanceof Object[])
+                for (Object element: (Object[]) value)
+                    disown(element);
+            return value;
+        }
+
+        /** Releases all the arrays owned, which are no longer owned afterwards. */
+        public void releaseAll ()
+        {
+            for (BigArray array: arrays)
+                array.release();
+            arrays.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of elements printed by {@link #toString}. */
+    private static final int PRINTED = 100;
+
+    private final long length;
+
+    /** Address of the first element, or 0 once the array has been released. */
+    private long address;
+
+    // ---------------------------------------------------------------------------------------------
+
+    BigArray (long length)
+    {
+        if (length < 0 || length > Long.MAX_VALUE / 8)
+            throw new IllegalArgumentException("invalid big array length: " + length);
+        this.length = length;
+        this.address = UNSAFE.allocateMemory(Math.max(8 * length, 8)); // never 0
+        UNSAFE.setMemory(address, 8 * length, (byte) 0);
+        Owner owner = OWNER.get();
+        if (owner != null)
+            owner.add(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of elements in the array. */
+    public final long length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the memory of the array has been released. */
+    public final boolean released () {
+        return address == 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Frees the memory of the array. Releasing an array again has no effect. */
+    public final void release ()
+    {
+        if (address != 0) {
+            UNSAFE.freeMemory(address);
+            address = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Same as {@link #release}. */
+    @Override public final void close () {
+        release();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the address of the first element, throwing an {@link IllegalStateException} if the
+     * array has been released.
+     */
+    final long base ()
+    {
+        if (address == 0)
+            throw new IllegalStateException("using a released big array");
+        return address;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the address of the element at the given index, after checking it. */
+    final long address (long index)
+    {
+        long base = base();
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + length);
+        return base + 8 * index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given address as a {@code double}. */
+    abstract double doubleAt (long address);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of two arrays with the same length, as a {@code double}. */
+    public static double dot (BigArray left, BigArray right)
+    {
+        checkLengths(left, right);
+        long l = left.base(), r = right.base();
+        double result = 0;
+        for (long offset = 0; offset < 8 * left.length; offset += 8)
+            result += left.doubleAt(l + offset) * right.doubleAt(r + offset);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void checkLengths (BigArray left, BigArray right)
+    {
+        if (left.length != right.length)
+            throw new IllegalArgumentException(String.format(
+                "Trying to dot product a big array of size [%d] with a big array of size [%d]",
+                left.length, right.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of {@code array} multiplied by the factor. */
+    public static BigFloats times (BigArray array, double factor)
+    {
+        long base = array.base();
+        BigFloats result = new BigFloats(array.length);
+        long target = result.base();
+        for (long offset = 0; offset < 8 * array.length; offset += 8)
+            UNSAFE.putDouble(target + offset, array.doubleAt(base + offset) * factor);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of {@code array} divided by the divisor. */
+    public static BigFloats divide (BigArray array, double divisor)
+    {
+        long base = array.base();
+        BigFloats result = new BigFloats(array.length);
+        long target = result.base();
+        for (long offset = 0; offset < 8 * array.length; offset += 8)
+            UNSAFE.putDouble(target + offset, array.doubleAt(base + offset) / divisor);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the dividend divided by each element of {@code array}. */
+    public static BigFloats divide (double dividend, BigArray array)
+    {
+        long base = array.base();
+        BigFloats result = new BigFloats(array.length);
+        long target = result.base();
+        for (long offset = 0; offset < 8 * array.length; offset += 8)
+            UNSAFE.putDouble(target + offset, dividend / array.doubleAt(base + offset));
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Appends the element at the given address to the builder. */
+    abstract void appendAt (StringBuilder builder, long address);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the elements of the array in the format of {@link java.util.Arrays#toString}, or only
+     * the first hundred elements followed by {@code ...} if there are more.
+     */
+    @Override public final String toString ()
+    {
+        if (address == 0)
+            return "[released]";
+        StringBuilder builder = new StringBuilder("[");
+        for (long i = 0; i < Math.min(length, PRINTED); ++i) {
+            if (i > 0) builder.append(", ");
+            appendAt(builder, address + 8 * i);
+        }
+        if (length > PRINTED)
+            builder.append(", ...");
+        return builder.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
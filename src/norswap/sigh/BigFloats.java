@@ -0,0 +1,57 @@
+package norswap.sigh;
+
+/**
+ * The runtime representation of {@code BigFloats}: an off-heap array of {@code double} (see {@link
+ * BigArray}).
+ */
+public final class BigFloats extends BigArray
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Allocates an array of {@code length} zeroes. */
+    public BigFloats (long length) {
+        super(length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public double get (long index) {
+        return UNSAFE.getDouble(address(index));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index, and returns it. */
+    public double set (long index, double value) {
+        UNSAFE.putDouble(address(index), value);
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override double doubleAt (long address) {
+        return UNSAFE.getDouble(address);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override void appendAt (StringBuilder builder, long address) {
+        builder.append(UNSAFE.getDouble(address));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Implementation of the {@code bigFloats} built-in function. */
+    public static BigFloats bigFloats (long length) {
+        return new BigFloats(length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Implementation of the {@code releaseFloats} built-in function. */
+    public static void releaseFloats (BigFloats array) {
+        array.release();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
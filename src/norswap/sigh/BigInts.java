@@ -0,0 +1,83 @@
+package norswap.sigh;
+
+/**
+ * The runtime representation of {@code BigInts}: an off-heap array of {@code long} (see {@link
+ * BigArray}).
+ */
+public final class BigInts extends BigArray
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Allocates an array of {@code length} zeroes. */
+    public BigInts (long length) {
+        super(length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public long get (long index) {
+        return UNSAFE.getLong(address(index));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index, and returns it. */
+    public long set (long index, long value) {
+        UNSAFE.putLong(address(index), value);
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override double doubleAt (long address) {
+        return UNSAFE.getLong(address);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override void appendAt (StringBuilder builder, long address) {
+        builder.append(UNSAFE.getLong(address));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of two arrays with the same length. */
+    public static long dot (BigInts left, BigInts right)
+    {
+        checkLengths(left, right);
+        long l = left.base(), r = right.base();
+        long result = 0;
+        for (long offset = 0; offset < 8 * left.length(); offset += 8)
+            result += UNSAFE.getLong(l + offset) * UNSAFE.getLong(r + offset);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of {@code array} multiplied by the factor. */
+    public static BigInts times (BigInts array, long factor)
+    {
+        long base = array.base();
+        BigInts result = new BigInts(array.length());
+        long target = result.base();
+        for (long offset = 0; offset < 8 * array.length(); offset += 8)
+            UNSAFE.putLong(target + offset, UNSAFE.getLong(base + offset) * factor);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Implementation of the {@code bigInts} built-in function. */
+    public static BigInts bigInts (long length) {
+        return new BigInts(length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Implementation of the {@code releaseInts} built-in function. */
+    public static void releaseInts (BigInts array) {
+        array.release();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,66 @@
+package norswap.sigh;
+
+import java.util.Arrays;
+
+/**
+ * The runtime representation of {@code List<Float>}: a growable list of {@code double} (see {@link
+ * SighList}).
+ */
+public final class FloatList extends SighList
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public double[] data = new double[INITIAL_CAPACITY];
+
+    // ---------------------------------------------------------------------------------------------
+
+    public double get (long index) {
+        return data[index(index)];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index, and returns it. */
+    public double set (long index, double value) {
+        return data[index(index)] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Appends the value at the end of the list. */
+    public void push (double value)
+    {
+        if (size == data.length)
+            grow();
+        data[size++] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Removes the last element of the list and returns it. */
+    public double pop ()
+    {
+        return data[popIndex()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the list. */
+    public double[] toArray () {
+        return Arrays.copyOf(data, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void grow () {
+        data = Arrays.copyOf(data, grownCapacity(data.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override void appendAt (StringBuilder builder, int index) {
+        builder.append(data[index]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
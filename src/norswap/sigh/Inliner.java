@@ -0,0 +1,886 @@
+package norswap.sigh;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.ast.*;
+import norswap.sigh.ast.base.TupleLiteralNode;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static norswap.sigh.ast.BinaryOperator.*;
+
+/**
+ * An AST-level inliner, which substitutes the bodies of small non-recursive functions at their
+ * call sites. It runs after semantic analysis and produces a new tree (sharing the unchanged
+ * subtrees of the original one), which must be analyzed again before being interpreted or
+ * compiled. Since inlining happens on the AST, both the interpreter and the bytecode compiler
+ * benefit from it.
+ *
+ * <p>Functions are processed bottom-up in the call graph: calls in the body of a function are
+ * inlined before deciding whether the function itself can be inlined, so that a function calling
+ * other small functions can in turn become small enough to be inlined.
+ *
+ * <p>A function can be inlined if:
+ * <ul>
+ *     <li>It is not a template function, and is not recursive (it cannot reach itself in the call
+ *     graph).</li>
+ *     <li>Its body consists of a single {@code return} statement (besides the declarations of
+ *     nested functions, which are not needed once the calls to them have been inlined).</li>
+ *     <li>The returned expression is pure: it consists only of literals, references to the
+ *     function's parameters, unary and binary operators, array accesses and field accesses. Its
+ *     size is at most {@link #MAX_BODY_SIZE} nodes and its type is the declared return type.</li>
+ * </ul>
+ *
+ * <p>A call to such a function is inlined if its arguments have the exact types of the parameters
+ * (so that no implicit conversion is lost), and if substituting them does not change the
+ * evaluation order. Literals and variable references can always be substituted. Other arguments
+ * must be pure, and their parameters must be used exactly once, in declaration order, outside
+ * the right operand of {@code &&} and {@code ||}, and before any operation that can throw. Each
+ * function (and the top-level code) can grow by at most {@link #MAX_CALLER_GROWTH} nodes.
+ *
+ * <p>Calls whose result is unused (expression statements) are not inlined. Every direct call to a
+ * user-defined function yields a {@link Decision} in the report.
+ */
+public final class Inliner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum size (in AST nodes) of the returned expression of an inlined function. */
+    public static final int MAX_BODY_SIZE = 24;
+
+    /** Maximum number of AST nodes that inlining can add to a single function. */
+    public static final int MAX_CALLER_GROWTH = 256;
+
+    /** Name used for the top-level code in the decisions. */
+    public static final String TOP_LEVEL = "<top-level>";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The decision taken for a call to a user-defined function.
+     */
+    public static final class Decision
+    {
+        /** Name of the function containing the call, or {@link #TOP_LEVEL}. */
+        public final String caller;
+
+        /** Name of the called function. */
+        public final String callee;
+
+        /** Span of the call in the source. */
+        public final Span span;
+
+        /** Whether the call was inlined. */
+        public final boolean inlined;
+
+        /** Reason for the decision. */
+        public final String reason;
+
+        Decision (String caller, String callee, Span span, boolean inlined, String reason) {
+            this.caller = caller;
+            this.callee = callee;
+            this.span = span;
+            this.inlined = inlined;
+            this.reason = reason;
+        }
+
+        @Override public String toString () {
+            return String.format("%s -> %s at %s: %s (%s)",
+                caller, callee, span, inlined ? "inlined" : "not inlined", reason);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The result of inlining: the new tree and the decisions taken.
+     */
+    public static final class Result
+    {
+        public final RootNode root;
+        public final List<Decision> decisions;
+
+        Result (RootNode root, List<Decision> decisions) {
+            this.root = root;
+            this.decisions = decisions;
+        }
+
+        /** Whether at least one call was inlined (otherwise {@link #root} is the original tree). */
+        public boolean changed () {
+            return decisions.stream().anyMatch(it -> it.inlined);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+
+    /** Maps the nodes created by the inliner to the analyzed node they stand for. */
+    private final IdentityHashMap<SighNode, SighNode> origins = new IdentityHashMap<>();
+
+    /** Maps functions to the functions they call directly. */
+    private final IdentityHashMap<FunDeclarationNode, Set<FunDeclarationNode>> callGraph
+        = new IdentityHashMap<>();
+
+    /** Maps functions to their declaration after inlining in their body. Functions being
+     * processed are mapped to null. */
+    private final IdentityHashMap<FunDeclarationNode, FunDeclarationNode> processed
+        = new IdentityHashMap<>();
+
+    /** Maps inlinable functions to their returned expression (after inlining). */
+    private final IdentityHashMap<FunDeclarationNode, ExpressionNode> bodies
+        = new IdentityHashMap<>();
+
+    /** Maps functions that cannot be inlined to the reason why. */
+    private final IdentityHashMap<FunDeclarationNode, String> rejections = new IdentityHashMap<>();
+
+    /** Number of nodes added to each function (keyed by null for the top-level code). */
+    private final IdentityHashMap<FunDeclarationNode, Integer> growth = new IdentityHashMap<>();
+
+    private final List<Decision> decisions = new ArrayList<>();
+
+    private Inliner (Reactor reactor) {
+        this.reactor = reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Inlines the eligible calls in the given tree, which must have been analyzed with {@code
+     * reactor} (without errors).
+     */
+    public static Result inline (RootNode root, Reactor reactor)
+    {
+        Inliner inliner = new Inliner(reactor);
+        inliner.buildCallGraph(root, null);
+        List<StatementNode> statements = inliner.statements(root.statements, null);
+        RootNode result = statements == root.statements
+            ? root
+            : new RootNode(root.span, statements);
+        return new Result(result, Collections.unmodifiableList(inliner.decisions));
+    }
+
+    // =============================================================================================
+    // region [Call Graph]
+    // =============================================================================================
+
+    /**
+     * Adds the direct calls made in {@code node} (which is part of {@code function}, null for the
+     * top-level code) to the call graph.
+     */
+    private void buildCallGraph (Object node, FunDeclarationNode function)
+    {
+        if (node instanceof List) {
+            for (Object it: (List<?>) node) buildCallGraph(it, function);
+            return;
+        }
+        if (!(node instanceof SighNode)) return;
+
+        if (node instanceof FunDeclarationNode) {
+            FunDeclarationNode decl = (FunDeclarationNode) node;
+            callGraph.put(decl, Collections.newSetFromMap(new IdentityHashMap<>()));
+            buildCallGraph(decl.block, decl);
+            return;
+        }
+
+        if (node instanceof FunCallNode && function != null) {
+            FunDeclarationNode callee = callee((FunCallNode) node);
+            if (callee != null) callGraph.get(function).add(callee);
+        }
+
+        for (Object child: children((SighNode) node))
+            buildCallGraph(child, function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Object> children (SighNode node)
+    {
+        if (node instanceof RootNode)
+            return Collections.singletonList(((RootNode) node).statements);
+        if (node instanceof BlockNode)
+            return Collections.singletonList(((BlockNode) node).statements);
+        if (node instanceof IfNode) {
+            IfNode it = (IfNode) node;
+            return Arrays.asList(it.condition, it.trueStatement, it.falseStatement);
+        }
+        if (node instanceof WhileNode)
+            return Arrays.asList(((WhileNode) node).condition, ((WhileNode) node).body);
+        if (node instanceof ReturnNode)
+            return Collections.singletonList(((ReturnNode) node).expression);
+        if (node instanceof ExpressionStatementNode)
+            return Collections.singletonList(((ExpressionStatementNode) node).expression);
+        if (node instanceof VarDeclarationNode)
+            return Collections.singletonList(((VarDeclarationNode) node).initializer);
+        if (node instanceof FunCallNode)
+            return Arrays.asList(
+                ((FunCallNode) node).function, ((FunCallNode) node).arguments);
+        if (node instanceof BinaryExpressionNode)
+            return Arrays.asList(
+                ((BinaryExpressionNode) node).left, ((BinaryExpressionNode) node).right);
+        if (node instanceof UnaryExpressionNode)
+            return Collections.singletonList(((UnaryExpressionNode) node).operand);
+        if (node instanceof ParenthesizedNode)
+            return Collections.singletonList(((ParenthesizedNode) node).expression);
+        if (node instanceof ArrayAccessNode)
+            return Arrays.asList(
+                ((ArrayAccessNode) node).array, ((ArrayAccessNode) node).index);
+        if (node instanceof SliceNode)
+            return Arrays.asList(
+                ((SliceNode) node).array, ((SliceNode) node).from, ((SliceNode) node).to);
+        if (node instanceof FieldAccessNode)
+            return Collections.singletonList(((FieldAccessNode) node).stem);
+        if (node instanceof AssignmentNode)
+            return Arrays.asList(
+                ((AssignmentNode) node).left, ((AssignmentNode) node).right);
+        if (node instanceof ArrayLiteralNode)
+            return Collections.singletonList(((ArrayLiteralNode) node).components);
+        if (node instanceof TupleLiteralNode)
+            return Collections.singletonList(((TupleLiteralNode) node).components);
+        return Collections.emptyList();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the function can reach itself in the call graph. */
+    private boolean isRecursive (FunDeclarationNode function)
+    {
+        Set<FunDeclarationNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<FunDeclarationNode> stack = new ArrayList<>(callGraph.get(function));
+        while (!stack.isEmpty()) {
+            FunDeclarationNode next = stack.remove(stack.size() - 1);
+            if (next == function) return true;
+            if (visited.add(next)) stack.addAll(callGraph.get(next));
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the user-defined function called directly by the call, or null. */
+    private FunDeclarationNode callee (FunCallNode call)
+    {
+        if (!(call.function instanceof ReferenceNode)) return null;
+        Object decl = reactor.get(origin(call.function), "decl");
+        return decl instanceof FunDeclarationNode ? (FunDeclarationNode) decl : null;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Functions]
+    // =============================================================================================
+
+    /**
+     * Returns the declaration of the function after inlining the calls in its body, and decides
+     * whether the function itself can be inlined.
+     */
+    private FunDeclarationNode process (FunDeclarationNode function)
+    {
+        if (processed.containsKey(function)) {
+            FunDeclarationNode result = processed.get(function);
+            return result != null ? result : function;
+        }
+
+        if (!function.templateParameters.isEmpty()) {
+            // Template functions are type-checked per call, leave them alone.
+            processed.put(function, function);
+            rejections.put(function, "template function");
+            return function;
+        }
+
+        processed.put(function, null); // in progress
+        List<StatementNode> statements = statements(function.block.statements, function);
+        FunDeclarationNode result = statements == function.block.statements
+            ? function
+            : new FunDeclarationNode(function.span, function.name, function.parameters,
+                function.returnType, new BlockNode(function.block.span, statements));
+        processed.put(function, result);
+
+        String rejection = rejection(function, result);
+        if (rejection == null)
+            bodies.put(function, returnedExpression(result));
+        else
+            rejections.put(function, rejection);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the reason why the function (whose declaration after inlining is {@code result})
+     * cannot be inlined, or null if it can.
+     */
+    private String rejection (FunDeclarationNode function, FunDeclarationNode result)
+    {
+        if (isRecursive(function))
+            return "recursive";
+
+        ExpressionNode body = returnedExpression(result);
+        if (body == null)
+            return "body is not a single return";
+
+        if (!isPureBody(body, function))
+            return "impure body";
+
+        int size = size(body);
+        if (size > MAX_BODY_SIZE)
+            return "body too large (" + size + " > " + MAX_BODY_SIZE + ")";
+
+        FunType type = reactor.get(function, "type");
+        if (!Objects.equals(type(body), type.returnType))
+            return "implicit return conversion";
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the expression returned by the function if its body consists of a single return
+     * statement (and declarations of nested functions), null otherwise.
+     */
+    private static ExpressionNode returnedExpression (FunDeclarationNode function)
+    {
+        ExpressionNode result = null;
+        for (StatementNode statement: function.block.statements) {
+            if (statement instanceof FunDeclarationNode) continue;
+            if (result != null || !(statement instanceof ReturnNode)) return null;
+            result = ((ReturnNode) statement).expression;
+            if (result == null) return null;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the expression only consists of literals, references to the parameters of {@code
+     * function}, operators, array accesses and field accesses.
+     */
+    private boolean isPureBody (ExpressionNode node, FunDeclarationNode function)
+    {
+        if (node instanceof ReferenceNode)
+            return containsIdentical(function.parameters, reactor.get(origin(node), "decl"));
+        return isPure(node, it -> isPureBody(it, function));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the expression only consists of literals, variable references, operators, array
+     * accesses and field accesses.
+     */
+    private boolean isPureArgument (ExpressionNode node)
+    {
+        if (node instanceof ReferenceNode) {
+            Object decl = reactor.get(origin(node), "decl");
+            return decl instanceof VarDeclarationNode || decl instanceof ParameterNode;
+        }
+        return isPure(node, this::isPureArgument);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isPure (ExpressionNode node, Predicate<ExpressionNode> pure)
+    {
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return pure.test(((ParenthesizedNode) node).expression);
+        if (node instanceof UnaryExpressionNode)
+            return pure.test(((UnaryExpressionNode) node).operand);
+        if (node instanceof BinaryExpressionNode)
+            return pure.test(((BinaryExpressionNode) node).left)
+                && pure.test(((BinaryExpressionNode) node).right);
+        if (node instanceof ArrayAccessNode)
+            return pure.test(((ArrayAccessNode) node).array)
+                && pure.test(((ArrayAccessNode) node).index);
+        if (node instanceof FieldAccessNode)
+            return pure.test(((FieldAccessNode) node).stem);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the list contains the object (nodes use structural equality). */
+    private static boolean containsIdentical (List<?> list, Object object) {
+        for (Object it: list) if (it == object) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of AST nodes in the expression. */
+    private static int size (Object node)
+    {
+        if (node instanceof List)
+            return ((List<?>) node).stream().mapToInt(Inliner::size).sum();
+        if (!(node instanceof SighNode))
+            return 0;
+        return 1 + children((SighNode) node).stream().mapToInt(Inliner::size).sum();
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Rewriting]
+    // =============================================================================================
+
+    private SighNode origin (SighNode node) {
+        return origins.getOrDefault(node, node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Type type (ExpressionNode node) {
+        return reactor.get(origin(node), "type");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Registers {@code copy} as standing for {@code original}, and returns it. */
+    private <T extends SighNode> T copied (T copy, SighNode original) {
+        origins.put(copy, origin(original));
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rewrites the statements, which are part of {@code caller} (null for top-level code). Returns
+     * the original list if nothing changed.
+     */
+    private List<StatementNode> statements (List<StatementNode> statements, FunDeclarationNode caller)
+    {
+        List<StatementNode> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (StatementNode statement: statements) {
+            StatementNode rewritten = statement(statement, caller);
+            changed |= rewritten != statement;
+            result.add(rewritten);
+        }
+        return changed ? result : statements;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StatementNode statement (StatementNode node, FunDeclarationNode caller)
+    {
+        if (node == null)
+            return null;
+
+        if (node instanceof FunDeclarationNode)
+            return process((FunDeclarationNode) node);
+
+        if (node instanceof BlockNode) {
+            BlockNode block = (BlockNode) node;
+            List<StatementNode> statements = statements(block.statements, caller);
+            return statements == block.statements ? block : new BlockNode(block.span, statements);
+        }
+
+        if (node instanceof IfNode) {
+            IfNode it = (IfNode) node;
+            ExpressionNode condition = expression(it.condition, caller);
+            StatementNode trueStatement = statement(it.trueStatement, caller);
+            StatementNode falseStatement = statement(it.falseStatement, caller);
+            return condition == it.condition
+                    && trueStatement == it.trueStatement
+                    && falseStatement == it.falseStatement
+                ? it
+                : new IfNode(it.span, condition, trueStatement, falseStatement);
+        }
+
+        if (node instanceof WhileNode) {
+            WhileNode it = (WhileNode) node;
+            ExpressionNode condition = expression(it.condition, caller);
+            StatementNode body = statement(it.body, caller);
+            return condition == it.condition && body == it.body
+                ? it
+                : new WhileNode(it.span, condition, body);
+        }
+
+        if (node instanceof ReturnNode) {
+            ReturnNode it = (ReturnNode) node;
+            ExpressionNode expression = expression(it.expression, caller);
+            return expression == it.expression ? it : new ReturnNode(it.span, expression);
+        }
+
+        if (node instanceof ExpressionStatementNode) {
+            ExpressionStatementNode it = (ExpressionStatementNode) node;
+            // The result of a call used as a statement is unused: do not inline it.
+            ExpressionNode expression = it.expression instanceof FunCallNode
+                ? call((FunCallNode) it.expression, caller, false)
+                : expression(it.expression, caller);
+            return expression == it.expression
+                ? it
+                : new ExpressionStatementNode(it.span, expression);
+        }
+
+        if (node instanceof VarDeclarationNode) {
+            VarDeclarationNode it = (VarDeclarationNode) node;
+            ExpressionNode initializer = expression(it.initializer, caller);
+            return initializer == it.initializer
+                ? it
+                : copied(new VarDeclarationNode(it.span, it.name, it.type, initializer), it);
+        }
+
+        return node; // struct and extern function declarations
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rewrites the expressions, which are part of {@code caller} (null for top-level code).
+     * Returns the original list if nothing changed.
+     */
+    private List<ExpressionNode> expressions (List<ExpressionNode> nodes, FunDeclarationNode caller)
+    {
+        List<ExpressionNode> result = new ArrayList<>(nodes.size());
+        boolean changed = false;
+        for (ExpressionNode node: nodes) {
+            ExpressionNode rewritten = expression(node, caller);
+            changed |= rewritten != node;
+            result.add(rewritten);
+        }
+        return changed ? result : nodes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionNode expression (ExpressionNode node, FunDeclarationNode caller)
+    {
+        if (node == null)
+            return null;
+
+        if (node instanceof FunCallNode)
+            return call((FunCallNode) node, caller, true);
+
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode it = (BinaryExpressionNode) node;
+            ExpressionNode left = expression(it.left, caller);
+            ExpressionNode right = expression(it.right, caller);
+            return left == it.left && right == it.right
+                ? it
+                : copied(new BinaryExpressionNode(it.span, left, it.operator, right), it);
+        }
+
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode it = (UnaryExpressionNode) node;
+            ExpressionNode operand = expression(it.operand, caller);
+            return operand == it.operand
+                ? it
+                : copied(new UnaryExpressionNode(it.span, it.operator, operand), it);
+        }
+
+        if (node instanceof ParenthesizedNode) {
+            ParenthesizedNode it = (ParenthesizedNode) node;
+            ExpressionNode expression = expression(it.expression, caller);
+            return expression == it.expression
+                ? it
+                : copied(new ParenthesizedNode(it.span, expression), it);
+        }
+
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode it = (ArrayAccessNode) node;
+            ExpressionNode array = expression(it.array, caller);
+            ExpressionNode index = expression(it.index, caller);
+            return array == it.array && index == it.index
+                ? it
+                : copied(new ArrayAccessNode(it.span, array, index), it);
+        }
+
+        if (node instanceof SliceNode) {
+            SliceNode it = (SliceNode) node;
+            ExpressionNode array = expression(it.array, caller);
+            ExpressionNode from = expression(it.from, caller);
+            ExpressionNode to = expression(it.to, caller);
+            return array == it.array && from == it.from && to == it.to
+                ? it
+                : copied(new SliceNode(it.span, array, from, to), it);
+        }
+
+        if (node instanceof FieldAccessNode) {
+            FieldAccessNode it = (FieldAccessNode) node;
+            ExpressionNode stem = expression(it.stem, caller);
+            return stem == it.stem
+                ? it
+                : copied(new FieldAccessNode(it.span, stem, it.fieldName), it);
+        }
+
+        if (node instanceof AssignmentNode) {
+            AssignmentNode it = (AssignmentNode) node;
+            ExpressionNode left = expression(it.left, caller);
+            ExpressionNode right = expression(it.right, caller);
+            return left == it.left && right == it.right
+                ? it
+                : copied(new AssignmentNode(it.span, left, right), it);
+        }
+
+        if (node instanceof ArrayLiteralNode) {
+            ArrayLiteralNode it = (ArrayLiteralNode) node;
+            List<ExpressionNode> components = expressions(it.components, caller);
+            return components == it.components
+                ? it
+                : copied(new ArrayLiteralNode(it.span, components), it);
+        }
+
+        if (node instanceof TupleLiteralNode) {
+            TupleLiteralNode it = (TupleLiteralNode) node;
+            List<ExpressionNode> components = expressions(it.components, caller);
+            return components == it.components
+                ? it
+                : copied(new TupleLiteralNode(it.span, components), it);
+        }
+
+        return node; // literals, references, constructors
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rewrites the call, inlining it if possible and {@code allowed}.
+     */
+    private ExpressionNode call (FunCallNode node, FunDeclarationNode caller, boolean allowed)
+    {
+        ExpressionNode function = expression(node.function, caller);
+        List<ExpressionNode> arguments = expressions(node.arguments, caller);
+        FunCallNode call = function == node.function && arguments == node.arguments
+            ? node
+            : copied(node.template_arguments == null
+                ? new FunCallNode(node.span, function, arguments)
+                : new FunCallNode(node.span, function, arguments, node.template_arguments),
+                node);
+
+        FunDeclarationNode callee = callee(node);
+        if (callee == null)
+            return call;
+
+        if (!processed.containsKey(callee))
+            process(callee);
+
+        String callerName = caller == null ? TOP_LEVEL : caller.name;
+        String rejection = rejections.get(callee);
+
+        if (!allowed)
+            rejection = "result unused";
+        else if (rejection == null && !bodies.containsKey(callee))
+            rejection = "recursive"; // still being processed
+        else if (rejection == null && node.template_arguments != null
+                && !node.template_arguments.isEmpty())
+            rejection = "template arguments";
+        else if (rejection == null)
+            rejection = argumentsRejection(callee, arguments);
+
+        int size = rejection == null ? size(bodies.get(callee)) : 0;
+        int grown = growth.getOrDefault(caller, 0);
+        if (rejection == null && grown + size > MAX_CALLER_GROWTH)
+            rejection = "caller budget exhausted";
+
+        if (rejection != null) {
+            decisions.add(new Decision(callerName, callee.name, node.span, false, rejection));
+            return call;
+        }
+
+        growth.put(caller, grown + size);
+        decisions.add(new Decision(callerName, callee.name, node.span, true, "size " + size));
+
+        Map<DeclarationNode, ExpressionNode> substitutions = new IdentityHashMap<>();
+        for (int i = 0; i < arguments.size(); ++i)
+            substitutions.put(callee.parameters.get(i), arguments.get(i));
+        ExpressionNode body = substitute(bodies.get(callee), substitutions);
+        return copied(new ParenthesizedNode(node.span, body), node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the reason why the arguments prevent inlining the call, or null if they don't.
+     */
+    private String argumentsRejection (FunDeclarationNode callee, List<ExpressionNode> arguments)
+    {
+        List<ParameterNode> complex = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); ++i) {
+            ExpressionNode argument = arguments.get(i);
+            ParameterNode parameter = callee.parameters.get(i);
+            if (!Objects.equals(type(argument), reactor.get(parameter, "type")))
+                return "implicit argument conversion";
+            if (isTrivial(argument)) continue;
+            if (!isPureArgument(argument))
+                return "impure argument";
+            complex.add(parameter);
+        }
+
+        if (complex.isEmpty())
+            return null;
+
+        // The complex arguments must be evaluated in the same order and before anything that
+        // could throw, and each of them exactly once.
+        List<Object> events = new ArrayList<>();
+        if (!evaluationOrder(bodies.get(callee), complex, false, events))
+            return "argument evaluation order";
+
+        int next = 0;
+        for (Object event: events) {
+            if (next == complex.size()) break;
+            if (event != complex.get(next)) return "argument evaluation order";
+            ++next;
+        }
+        if (next != complex.size()
+                || events.stream().filter(it -> containsIdentical(complex, it)).count() != next)
+            return "argument evaluation order";
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Marker for the evaluation of an operation that can throw. */
+    private static final Object THROWS = new Object();
+
+    /**
+     * Appends to {@code events} the uses of the {@code tracked} parameters and the operations that
+     * can throw, in evaluation order. Returns false if a tracked parameter is used in a
+     * conditionally evaluated position.
+     */
+    private boolean evaluationOrder (ExpressionNode node, List<ParameterNode> tracked,
+                                     boolean conditional, List<Object> events)
+    {
+        if (node instanceof ReferenceNode) {
+            Object decl = reactor.get(origin(node), "decl");
+            if (!containsIdentical(tracked, decl)) return true;
+            events.add(decl);
+            return !conditional;
+        }
+        if (node instanceof ParenthesizedNode)
+            return evaluationOrder(((ParenthesizedNode) node).expression, tracked, conditional, events);
+        if (node instanceof UnaryExpressionNode)
+            return evaluationOrder(((UnaryExpressionNode) node).operand, tracked, conditional, events);
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode it = (BinaryExpressionNode) node;
+            boolean shortCircuit = it.operator == AND || it.operator == OR;
+            boolean ok = evaluationOrder(it.left, tracked, conditional, events)
+                && evaluationOrder(it.right, tracked, conditional || shortCircuit, events);
+            // element-wise array operations throw on length mismatch
+            if (it.operator == DIVIDE || it.operator == REMAINDER || it.operator == DOT_PRODUCT
+                    || type(it) instanceof ArrayType)
+                events.add(THROWS);
+            return ok;
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode it = (ArrayAccessNode) node;
+            boolean ok = evaluationOrder(it.array, tracked, conditional, events)
+                && evaluationOrder(it.index, tracked, conditional, events);
+            events.add(THROWS);
+            return ok;
+        }
+        if (node instanceof SliceNode) {
+            SliceNode it = (SliceNode) node;
+            boolean ok = evaluationOrder(it.array, tracked, conditional, events)
+                && evaluationOrder(it.from, tracked, conditional, events)
+                && evaluationOrder(it.to, tracked, conditional, events);
+            events.add(THROWS);
+            return ok;
+        }
+        if (node instanceof FieldAccessNode) {
+            boolean ok = evaluationOrder(((FieldAccessNode) node).stem, tracked, conditional, events);
+            events.add(THROWS);
+            return ok;
+        }
+        return true; // literals
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the expression is a literal or a variable reference. */
+    private boolean isTrivial (ExpressionNode node)
+    {
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode)
+            return true;
+        if (!(node instanceof ReferenceNode))
+            return false;
+        Object decl = reactor.get(origin(node), "decl");
+        return decl instanceof VarDeclarationNode || decl instanceof ParameterNode;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the (pure) expression, where references to the parameters are replaced
+     * by the corresponding arguments. Trivial arguments are copied, other arguments are used at
+     * most once and are used as-is.
+     */
+    private ExpressionNode substitute (ExpressionNode node,
+                                       Map<DeclarationNode, ExpressionNode> substitutions)
+    {
+        if (node instanceof ReferenceNode) {
+            ExpressionNode argument = substitutions.get(reactor.<DeclarationNode>get(origin(node), "decl"));
+            return isTrivial(argument) ? copy(argument) : argument;
+        }
+        if (node instanceof ParenthesizedNode) {
+            ParenthesizedNode it = (ParenthesizedNode) node;
+            return copied(new ParenthesizedNode(it.span,
+                substitute(it.expression, substitutions)), it);
+        }
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode it = (UnaryExpressionNode) node;
+            return copied(new UnaryExpressionNode(it.span, it.operator,
+                substitute(it.operand, substitutions)), it);
+        }
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode it = (BinaryExpressionNode) node;
+            return copied(new BinaryExpressionNode(it.span,
+                substitute(it.left, substitutions), it.operator,
+                substitute(it.right, substitutions)), it);
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode it = (ArrayAccessNode) node;
+            return copied(new ArrayAccessNode(it.span,
+                substitute(it.array, substitutions),
+                substitute(it.index, substitutions)), it);
+        }
+        if (node instanceof SliceNode) {
+            SliceNode it = (SliceNode) node;
+            return copied(new SliceNode(it.span,
+                substitute(it.array, substitutions),
+                substitute(it.from, substitutions),
+                substitute(it.to, substitutions)), it);
+        }
+        if (node instanceof FieldAccessNode) {
+            FieldAccessNode it = (FieldAccessNode) node;
+            return copied(new FieldAccessNode(it.span,
+                substitute(it.stem, substitutions), it.fieldName), it);
+        }
+        return copy(node); // literals
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a fresh copy of a literal or reference. */
+    private ExpressionNode copy (ExpressionNode node)
+    {
+        if (node instanceof IntLiteralNode)
+            return copied(new IntLiteralNode(node.span, ((IntLiteralNode) node).value), node);
+        if (node instanceof FloatLiteralNode)
+            return copied(new FloatLiteralNode(node.span, ((FloatLiteralNode) node).value), node);
+        if (node instanceof StringLiteralNode)
+            return copied(new StringLiteralNode(node.span, ((StringLiteralNode) node).value), node);
+        if (node instanceof ReferenceNode)
+            return copied(new ReferenceNode(node.span, ((ReferenceNode) node).name), node);
+        throw new Error("unreachable");
+    }
+
+    // endregion
+    // =============================================================================================
+}
@@ -0,0 +1,66 @@
+package norswap.sigh;
+
+import java.util.Arrays;
+
+/**
+ * The runtime representation of {@code List<Int>}: a growable list of {@code long} (see {@link
+ * SighList}).
+ */
+public final class IntList extends SighList
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public long[] data = new long[INITIAL_CAPACITY];
+
+    // ---------------------------------------------------------------------------------------------
+
+    public long get (long index) {
+        return data[index(index)];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index, and returns it. */
+    public long set (long index, long value) {
+        return data[index(index)] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Appends the value at the end of the list. */
+    public void push (long value)
+    {
+        if (size == data.length)
+            grow();
+        data[size++] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Removes the last element of the list and returns it. */
+    public long pop ()
+    {
+        return data[popIndex()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the list. */
+    public long[] toArray () {
+        return Arrays.copyOf(data, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void grow () {
+        data = Arrays.copyOf(data, grownCapacity(data.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override void appendAt (StringBuilder builder, int index) {
+        builder.append(data[index]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,146 @@
+package norswap.sigh;
+
+/**
+ * The runtime representation of the {@code Range} type: the arithmetic progression {@code start,
+ * start + step, ...} of the values lower than {@code end} (greater than {@code end} if {@code step}
+ * is negative). Shared by the interpreter and the compiled code.
+ *
+ * <p>A range is read like an {@code Int[]} (indexing, {@code length}, dot product with an array),
+ * but its elements are computed from their index and never stored, so that a range takes constant
+ * memory whatever its length. Ranges are immutable.
+ */
+public final class Range
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of elements printed by {@link #toString}. */
+    private static final int PRINTED = 100;
+
+    public final long start, end, step;
+    private final long length;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a range, throwing an {@link IllegalArgumentException} if {@code step} is 0 or if
+     * its length does not fit in a {@code long}.
+     */
+    public Range (long start, long end, long step)
+    {
+        if (step == 0)
+            throw new IllegalArgumentException("range step is 0");
+        this.start = start;
+        this.end = end;
+        this.step = step;
+
+        // the differences are computed as unsigned values, which cannot overflow
+        if (step > 0)
+            length = start >= end ? 0 : Long.divideUnsigned(end - start - 1, step) + 1;
+        else
+            length = start <= end ? 0 : Long.divideUnsigned(start - end - 1, -step) + 1;
+        if (length < 0)
+            throw new IllegalArgumentException(
+                String.format("range too long: range(%d, %d, %d)", start, end, step));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Implementation of the {@code range} built-in function. */
+    public static Range range (long start, long end, long step) {
+        return new Range(start, end, step);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public long length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index: {@code start + index * step}. */
+    public long get (long index)
+    {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + length);
+        return start + index * step;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** {@code kind} describes the right operand, e.g. "an array". */
+    private static void checkLengths (long left, long right, String kind)
+    {
+        if (left != right)
+            throw new IllegalArgumentException(String.format(
+                "Trying to dot product a range of size [%d] with %s of size [%d]",
+                left, kind, right));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of the range with an array of the same length. */
+    public static long dot (Range range, long[] array)
+    {
+        checkLengths(range.length, array.length, "an array");
+        long result = 0;
+        long value = range.start;
+        for (long element: array) {
+            result += value * element;
+            value += range.step;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of the range with an array of the same length. */
+    public static double dot (Range range, double[] array)
+    {
+        checkLengths(range.length, array.length, "an array");
+        double result = 0;
+        long value = range.start;
+        for (double element: array) {
+            result += value * element;
+            value += range.step;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of two ranges with the same length. */
+    public static long dot (Range left, Range right)
+    {
+        checkLengths(left.length, right.length, "a range");
+        long result = 0;
+        long l = left.start, r = right.start;
+        for (long i = 0; i < left.length; ++i) {
+            result += l * r;
+            l += left.step;
+            r += right.step;
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the elements of the range in the format of {@link java.util.Arrays#toString}, or
+     * only the first hundred elements followed by {@code ...} if there are more.
+     */
+    @Override public String toString ()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (long i = 0; i < Math.min(length, PRINTED); ++i) {
+            if (i > 0) builder.append(", ");
+            builder.append(start + i * step);
+        }
+        if (length > PRINTED)
+            builder.append(", ...");
+        return builder.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
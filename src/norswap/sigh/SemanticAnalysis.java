@@ -5,6 +5,9 @@ import norswap.sigh.ast.*;
 
 import norswap.sigh.ast.base.TemplateTypeDeclarationNode;
 import norswap.sigh.ast.base.TemplateTypeNode;
+import norswap.sigh.builtins.Builtin;
+import norswap.sigh.builtins.BuiltinRegistry;
+import norswap.sigh.bytecode.TypeUtils;
 import norswap.sigh.scopes.DeclarationContext;
 import norswap.sigh.scopes.DeclarationKind;
 import norswap.sigh.scopes.RootScope;
@@ -15,8 +18,11 @@ import norswap.uranium.Attribute;
 import norswap.uranium.Reactor;
 import norswap.uranium.Rule;
 import norswap.uranium.SemanticError;
+import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.Walker;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.sql.Array;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -34,7 +40,8 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  * Holds the logic implementing semantic analyzis for the language, including typing and name
  * resolution.
  *
- * <p>The entry point into this class is {@link #createWalker(Reactor)}.
+ * <p>The entry point into this class is {@link #createWalker(Reactor)}, or {@link
+ * #createWalker(Reactor, BuiltinRegistry)} to make other built-in functions available.
  *
  * <h2>Big Principles
  * <ul>
@@ -65,10 +72,28 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     <li>Every {@link TypeNode} instance must have its {@code value} set to the {@link Type} it
  *     denotes.</li>
  *
+ *     <li>Every {@link VarDeclarationNode} and {@link ParameterNode} must have its {@code captured}
+ *     attribute set to a boolean indicating whether it is used inside a function nested in the
+ *     function (or top-level code) that declares it. Every {@link FunDeclarationNode} must have
+ *     its {@code captures} attribute set to the list of such variables it needs to access (either
+ *     directly or through the functions it references), in a stable order. Variables declared in
+ *     the root scope are never captured.</li>
+ *
  *     <li>Every {@link ReturnNode}, {@link BlockNode} and {@link IfNode} must have its {@code
  *     returns} attribute set to a boolean to indicate whether its execution causes
  *     unconditional exit from the surrounding function or main script.</li>
  *
+ *     <li>Every {@link ExternFunDeclarationNode} must have its {@code builtin} attribute set to a
+ *     {@link Builtin} whose target is the Java method it binds to. The method is looked up (and
+ *     its signature checked against the declared one) during the analysis, and its class must be
+ *     allowed by the {@link BuiltinRegistry}.</li>
+ *
+ *     <li>Every {@link ReturnNode} inside a function must have its {@code tailCall} attribute set
+ *     to a boolean indicating whether it returns the result of a direct call to the function
+ *     itself (e.g. {@code return f(x - 1, acc * x)} inside {@code f}). Such calls can reuse the
+ *     current frame: both backends execute them by rebinding the parameters and restarting the
+ *     function body. Template functions are never marked.</li>
+ *
  *     <li>The rules check typing constraints: assignment of values to variables, of arguments to
  *     parameters, checking that if/while conditions are booleans, and array indices are
  *     integers.</li>
@@ -85,6 +110,9 @@ public final class SemanticAnalysis
 
     private final Reactor R;
 
+    /** Built-in functions declared in the root scope. */
+    private final BuiltinRegistry builtins;
+
     /** Current scope. */
     private Scope scope;
 
@@ -94,10 +122,24 @@ public final class SemanticAnalysis
     /** Index of the current function argument. */
     private int argumentIndex;
 
+    /** (reference, scope of the reference) pairs for references occuring inside functions. */
+    private final List<Pair<ReferenceNode, Scope>> functionReferences = new ArrayList<>();
+
+    /** All variable and parameter declarations, in walk order. */
+    private final List<DeclarationNode> variables = new ArrayList<>();
+
+    /** All function declarations, in walk order. */
+    private final List<FunDeclarationNode> functions = new ArrayList<>();
+
+    /** The field accesses that are called (e.g. {@code list.push} in {@code list.push(1)}). */
+    private final Set<FieldAccessNode> calledFields =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
     // ---------------------------------------------------------------------------------------------
 
-    private SemanticAnalysis(Reactor reactor) {
+    private SemanticAnalysis(Reactor reactor, BuiltinRegistry builtins) {
         this.R = reactor;
+        this.builtins = builtins;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -106,12 +148,22 @@ public final class SemanticAnalysis
      * Call this method to create a tree walker that will instantiate the typing rules defined
      * in this class when used on an AST, using the given {@code reactor}.
      */
-    public static Walker<SighNode> createWalker (Reactor reactor)
+    public static Walker<SighNode> createWalker (Reactor reactor) {
+        return createWalker(reactor, BuiltinRegistry.standard());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #createWalker(Reactor)}, but the root scope declares the functions from the
+     * given registry instead of the standard built-in functions.
+     */
+    public static Walker<SighNode> createWalker (Reactor reactor, BuiltinRegistry builtins)
     {
         ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(
             SighNode.class, PRE_VISIT, POST_VISIT);
 
-        SemanticAnalysis analysis = new SemanticAnalysis(reactor);
+        SemanticAnalysis analysis = new SemanticAnalysis(reactor, builtins);
 
         // expressions
         walker.register(IntLiteralNode.class,           PRE_VISIT,  analysis::intLiteral);
@@ -123,6 +175,8 @@ public final class SemanticAnalysis
         walker.register(ParenthesizedNode.class,        PRE_VISIT,  analysis::parenthesized);
         walker.register(FieldAccessNode.class,          PRE_VISIT,  analysis::fieldAccess);
         walker.register(ArrayAccessNode.class,          PRE_VISIT,  analysis::arrayAccess);
+        walker.register(SliceNode.class,                PRE_VISIT,  analysis::slice);
+        walker.register(ListConstructorNode.class,      PRE_VISIT,  analysis::listConstructor);
         walker.register(FunCallNode.class,              PRE_VISIT,  analysis::funCall);
         walker.register(UnaryExpressionNode.class,      PRE_VISIT,  analysis::unaryExpression);
         walker.register(BinaryExpressionNode.class,     PRE_VISIT,  analysis::binaryExpression);
@@ -131,6 +185,9 @@ public final class SemanticAnalysis
         // types
         walker.register(SimpleTypeNode.class,           PRE_VISIT,  analysis::simpleType);
         walker.register(ArrayTypeNode.class,            PRE_VISIT,  analysis::arrayType);
+        walker.register(SliceTypeNode.class,            PRE_VISIT,  analysis::sliceType);
+        walker.register(ListTypeNode.class,             PRE_VISIT,  analysis::listType);
+        walker.register(FunTypeNode.class,              PRE_VISIT,  analysis::funType);
         walker.register(TemplateTypeNode.class,         PRE_VISIT,  analysis::templateType);
 
         // declarations & scopes
@@ -142,10 +199,12 @@ public final class SemanticAnalysis
         walker.register(ParameterNode.class,            PRE_VISIT,  analysis::parameter);
         walker.register(FunDeclarationNode.class,       PRE_VISIT,  analysis::funDecl);
         walker.register(StructDeclarationNode.class,    PRE_VISIT,  analysis::structDecl);
+        walker.register(ExternFunDeclarationNode.class, PRE_VISIT,  analysis::externFunDecl);
 
-        walker.register(RootNode.class,                 POST_VISIT, analysis::popScope);
+        walker.register(RootNode.class,                 POST_VISIT, analysis::rootExit);
         walker.register(BlockNode.class,                POST_VISIT, analysis::popScope);
         walker.register(FunDeclarationNode.class,       POST_VISIT, analysis::popScope);
+        walker.register(ExternFunDeclarationNode.class, POST_VISIT, analysis::popScope);
 
         // statements
         walker.register(ExpressionStatementNode.class,  PRE_VISIT,  node -> {});
@@ -219,6 +278,13 @@ public final class SemanticAnalysis
                 continue;
             }
 
+            // Slice
+            if (n instanceof SliceNode) {
+                referencesToCheck.add(((SliceNode) n).array);
+
+                continue;
+            }
+
             // ReferenceNode
             if (n instanceof ReferenceNode) {
 
@@ -300,12 +366,16 @@ public final class SemanticAnalysis
     {
         final Scope scope = this.scope;
 
+        if (currentFunction() != null)
+            functionReferences.add(new Pair<>(node, scope));
+
         // Try to lookup immediately. This must succeed for variables, but not necessarily for
         // functions or types. By looking up now, we can report looked up variables later
-        // as being used before being defined.
+        // as being used before being defined. Built-in functions are looked up later, so that
+        // they are shadowed by user functions declared further down.
         DeclarationContext maybeCtx = scope.lookup(node.name);
 
-        if (maybeCtx != null) {
+        if (maybeCtx != null && !isBuiltinFunction(maybeCtx.declaration)) {
             R.set(node, "decl",  maybeCtx.declaration);
             R.set(node, "scope", maybeCtx.scope);
 
@@ -453,7 +523,13 @@ public final class SemanticAnalysis
         .by(r -> {
             Type type = r.get(0);
 
-            if (type instanceof ArrayType) {
+            if (type instanceof ListType) {
+                listField(r, node, (ListType) type);
+                return;
+            }
+
+            if (type instanceof ArrayType || type instanceof BigArrayType
+                    || type instanceof RangeType || type instanceof SliceType) {
                 if (node.fieldName.equals("length"))
                     R.rule(node, "type")
                     .by(rr -> rr.set(0, IntType.INSTANCE));
@@ -491,6 +567,45 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Types the fields of lists: {@code length}, and the methods {@code push}, {@code pop} and
+     * {@code toArray}, which can only be called directly.
+     */
+    private void listField (Rule r, FieldAccessNode node, ListType type)
+    {
+        Type component = type.componentType;
+        FunType method;
+
+        switch (node.fieldName) {
+            case "length":
+                R.rule(node, "type")
+                .by(rr -> rr.set(0, IntType.INSTANCE));
+                return;
+            case "push":
+                method = new FunType(VoidType.INSTANCE, component);
+                break;
+            case "pop":
+                method = new FunType(component);
+                break;
+            case "toArray":
+                method = new FunType(new ArrayType(component));
+                break;
+            default:
+                r.errorFor("Trying to access missing field " + node.fieldName + " on a list",
+                    node, node.attr("type"));
+                return;
+        }
+
+        if (calledFields.contains(node))
+            R.rule(node, "type")
+            .by(rr -> rr.set(0, method));
+        else
+            r.errorFor("List method " + node.fieldName + " can only be called directly",
+                node, node.attr("type"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void arrayAccess (ArrayAccessNode node)
     {
         R.rule()
@@ -523,6 +638,14 @@ public final class SemanticAnalysis
 
                 if (type instanceof ArrayType)
                     r.set(0, ((ArrayType) type).componentType);
+                else if (type instanceof BigArrayType)
+                    r.set(0, ((BigArrayType) type).componentType);
+                else if (type instanceof RangeType)
+                    r.set(0, IntType.INSTANCE);
+                else if (type instanceof SliceType)
+                    r.set(0, ((SliceType) type).componentType);
+                else if (type instanceof ListType)
+                    r.set(0, ((ListType) type).componentType);
                 else
                     r.error("Trying to index a non-array expression of type " + type, node);
             }
@@ -531,10 +654,40 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    private void slice (SliceNode node)
+    {
+        R.rule()
+        .using(node.from.attr("type"), node.to.attr("type"))
+        .by(r -> {
+            if (!(r.get(0) instanceof IntType))
+                r.error("Slicing an array using a non-Int-valued start index", node.from);
+            if (!(r.get(1) instanceof IntType))
+                r.error("Slicing an array using a non-Int-valued end index", node.to);
+        });
+
+        R.rule(node, "type")
+        .using(node.array, "type")
+        .by(r -> {
+            Type type = r.get(0);
+            if (type instanceof SliceType)
+                r.set(0, type);
+            else if (type instanceof ArrayType && isArrayLegalForDotProduct((ArrayType) type))
+                r.set(0, new SliceType(((ArrayType) type).componentType));
+            else
+                r.error("Trying to slice an expression of type " + type
+                    + " (only Int[] and Float[] arrays can be sliced)", node);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void funCall (FunCallNode node)
     {
         this.inferenceContext = node;
 
+        if (node.function instanceof FieldAccessNode)
+            calledFields.add((FieldAccessNode) node.function);
+
         // TODO check template arguments
         int depsSize = node.arguments.size() + 1 + (node.template_arguments != null ? node.template_arguments.size() + 1 : 0);
         Attribute[] dependencies = new Attribute[depsSize];
@@ -780,7 +933,9 @@ public final class SemanticAnalysis
     }
 
     private boolean isArrayArithmetic (BinaryOperator op, Type left, Type right) {
-        boolean arrayInvolved = left instanceof ArrayType || right instanceof ArrayType;
+        boolean arrayInvolved = left instanceof ArrayType || right instanceof ArrayType
+            || left instanceof BigArrayType || right instanceof BigArrayType
+            || left instanceof SliceType || right instanceof SliceType;
         return op == DOT_PRODUCT || (op == MULTIPLY && arrayInvolved) || (op == DIVIDE && arrayInvolved);
     }
 
@@ -865,6 +1020,21 @@ public final class SemanticAnalysis
 
     private void binaryArrayArithmetic (Rule r, BinaryExpressionNode node, Type left, Type right)
     {
+        if (left instanceof BigArrayType || right instanceof BigArrayType) {
+            bigArrayArithmetic(r, node, left, right);
+            return;
+        }
+
+        if (left instanceof RangeType || right instanceof RangeType) {
+            rangeDotProduct(r, node, left, right);
+            return;
+        }
+
+        if (left instanceof SliceType || right instanceof SliceType) {
+            sliceArithmetic(r, node, left, right);
+            return;
+        }
+
         switch (node.operator) {
             case DOT_PRODUCT:
             {
@@ -929,8 +1099,131 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Types the dot product of two big arrays ({@code Int} if both are {@code BigInts}, {@code
+     * Float} otherwise), and the product or division of a big array by a scalar (a new {@code
+     * BigInts} for the product of {@code BigInts} by an {@code Int}, a new {@code BigFloats}
+     * otherwise).
+     */
+    private void bigArrayArithmetic (Rule r, BinaryExpressionNode node, Type left, Type right)
+    {
+        if (node.operator == DOT_PRODUCT) {
+            if (left instanceof BigArrayType && right instanceof BigArrayType)
+                r.set(0, left == BigArrayType.INTS && right == BigArrayType.INTS
+                    ? IntType.INSTANCE
+                    : FloatType.INSTANCE);
+            else
+                r.error(arithmeticError(node, left, right), node);
+            return;
+        }
+
+        boolean arrayLeft = left instanceof BigArrayType;
+        Type array  = arrayLeft ? left : right;
+        Type scalar = arrayLeft ? right : left;
+        if (!(scalar instanceof IntType || scalar instanceof FloatType))
+            r.error(arithmeticError(node, left, right), node);
+        else if (node.operator == MULTIPLY && array == BigArrayType.INTS && scalar instanceof IntType)
+            r.set(0, BigArrayType.INTS);
+        else
+            r.set(0, BigArrayType.FLOATS);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Types the dot product of a range with an {@code Int[]} or {@code Float[]} array, or with
+     * another range. It is a {@code Float} if the array is a {@code Float[]}, an {@code Int}
+     * otherwise.
+     */
+    private void rangeDotProduct (Rule r, BinaryExpressionNode node, Type left, Type right)
+    {
+        Type other = left instanceof RangeType ? right : left;
+        if (node.operator != DOT_PRODUCT)
+            r.error(arithmeticError(node, left, right), node);
+        else if (other instanceof RangeType)
+            r.set(0, IntType.INSTANCE);
+        else if (other instanceof ArrayType && isArrayLegalForDotProduct((ArrayType) other))
+            r.set(0, ((ArrayType) other).componentType);
+        else
+            r.error(arithmeticError(node, left, right), node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the component type of a slice or of an {@code Int[]} or {@code Float[]} array, or
+     * null for any other type.
+     */
+    private Type vectorComponentType (Type type)
+    {
+        if (type instanceof SliceType)
+            return ((SliceType) type).componentType;
+        if (type instanceof ArrayType && isArrayLegalForDotProduct((ArrayType) type))
+            return ((ArrayType) type).componentType;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Types the dot product of a slice with another slice or with an {@code Int[]} or {@code
+     * Float[]} array ({@code Float} if either side has {@code Float} elements, {@code Int}
+     * otherwise), and the product or division of a slice by a scalar (a new {@code Int[]} for the
+     * product of an {@code Int[:]} by an {@code Int}, a new {@code Float[]} otherwise).
+     */
+    private void sliceArithmetic (Rule r, BinaryExpressionNode node, Type left, Type right)
+    {
+        if (node.operator == DOT_PRODUCT) {
+            Type leftComponent  = vectorComponentType(left);
+            Type rightComponent = vectorComponentType(right);
+            if (leftComponent == null || rightComponent == null)
+                r.error(arithmeticError(node, left, right), node);
+            else if (leftComponent instanceof FloatType || rightComponent instanceof FloatType)
+                r.set(0, FloatType.INSTANCE);
+            else
+                r.set(0, IntType.INSTANCE);
+            return;
+        }
+
+        boolean sliceLeft = left instanceof SliceType;
+        Type slice  = sliceLeft ? left : right;
+        Type scalar = sliceLeft ? right : left;
+        if (!(scalar instanceof IntType || scalar instanceof FloatType))
+            r.error(arithmeticError(node, left, right), node);
+        else if (node.operator == MULTIPLY && scalar instanceof IntType
+                && ((SliceType) slice).componentType instanceof IntType)
+            r.set(0, new ArrayType(IntType.INSTANCE));
+        else
+            r.set(0, new ArrayType(FloatType.INSTANCE));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void listConstructor (ListConstructorNode node)
+    {
+        R.rule(node, "type")
+        .using(node.componentType, "value")
+        .by(r -> {
+            Type type = r.get(0);
+            if (isListComponent(type))
+                r.set(0, new ListType(type));
+            else
+                r.error(listComponentError(type), node);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void assignment (AssignmentNode node)
     {
+        if (node.left instanceof ArrayAccessNode)
+            R.rule()
+            .using(((ArrayAccessNode) node.left).array, "type")
+            .by(r -> {
+                if (r.get(0) instanceof RangeType)
+                    r.error("Trying to assign to an element of a range", node);
+            });
+
         R.rule(node, "type")
         .using(node.left.attr("type"), node.right.attr("type"))
         .by(r -> {
@@ -995,6 +1288,68 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    private void sliceType (SliceTypeNode node)
+    {
+        R.rule(node, "value")
+        .using(node.componentType, "value")
+        .by(r -> {
+            Type type = r.get(0);
+            if (type instanceof IntType || type instanceof FloatType)
+                r.set(0, new SliceType(type));
+            else
+                r.error("Only Int[:] and Float[:] slice types are allowed, not " + type + "[:]",
+                    node);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void listType (ListTypeNode node)
+    {
+        R.rule(node, "value")
+        .using(node.componentType, "value")
+        .by(r -> {
+            Type type = r.get(0);
+            if (isListComponent(type))
+                r.set(0, new ListType(type));
+            else
+                r.error(listComponentError(type), node);
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether lists can contain elements of the given type. */
+    private static boolean isListComponent (Type type) {
+        return type instanceof IntType || type instanceof FloatType || type instanceof StringType;
+    }
+
+    private static String listComponentError (Type type) {
+        return "Only List<Int>, List<Float> and List<String> lists are allowed, not List<"
+            + type + ">";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void funType (FunTypeNode node)
+    {
+        Attribute[] dependencies = new Attribute[node.parameterTypes.size() + 1];
+        dependencies[0] = node.returnType.attr("value");
+        forEachIndexed(node.parameterTypes, (i, param) ->
+            dependencies[i + 1] = param.attr("value"));
+
+        R.rule(node, "value")
+        .using(dependencies)
+        .by(r -> {
+            Type[] paramTypes = IntStream.range(1, dependencies.length)
+                .mapToObj(i -> (Type) r.get(i))
+                .toArray(Type[]::new);
+            r.set(0, new FunType(r.get(0), paramTypes));
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void templateType(TemplateTypeNode node) {
         final Scope scope = this.scope;
 
@@ -1025,6 +1380,13 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    private static boolean isBuiltinFunction (DeclarationNode decl) {
+        return decl instanceof SyntheticDeclarationNode
+            && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.FUNCTION;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private static boolean isTypeDecl (DeclarationNode decl)
     {
         // Taking into account template type nodes
@@ -1104,12 +1466,19 @@ public final class SemanticAnalysis
 
     private void root (RootNode node) {
         assert scope == null;
-        scope = new RootScope(node, R);
+        scope = new RootScope(node, R, builtins);
         R.set(node, "scope", scope);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    private void rootExit (RootNode node) {
+        captures();
+        popScope(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void block (BlockNode node) {
         scope = new Scope(node, scope);
         R.set(node, "scope", scope);
@@ -1128,6 +1497,7 @@ public final class SemanticAnalysis
 
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
+        variables.add(node);
 
         R.rule(node, "type")
         .using(node.type, "value")
@@ -1152,28 +1522,27 @@ public final class SemanticAnalysis
                 // Getting function node
                 DeclarationContext declarationContext = scope.lookup(referenceNode.name);
 
-                // Function not found
-                if (declarationContext == null) {
-                    // TODO throw error
-                    return;
-                }
+                // Function not found (reported elsewhere), built-in function, or called through a
+                // function value: the type of the call is checked below.
+                if (declarationContext != null
+                        && declarationContext.declaration instanceof FunDeclarationNode) {
 
-                // Getting return type
-                FunDeclarationNode funDeclarationNode = (FunDeclarationNode) declarationContext.declaration;
-                TypeNode returnType = funDeclarationNode.returnType;
-                boolean isReturnTemplateType = funDeclarationNode.isTemplateType(returnType);
+                    // Getting return type
+                    FunDeclarationNode funDeclarationNode = (FunDeclarationNode) declarationContext.declaration;
+                    TypeNode returnType = funDeclarationNode.returnType;
+                    boolean isReturnTemplateType = funDeclarationNode.isTemplateType(returnType);
 
-                // Skip if not template type
-                if (isReturnTemplateType) {
+                    // Skip if not template type
+                    if (isReturnTemplateType) {
 
-                    // Getting inferred return type in this context
-                    TypeNode typeNode = funDeclarationNode.getInferredTemplateParameterTypeNode(returnType.contents(), funCallNode.template_arguments);
+                        // Getting inferred return type in this context
+                        TypeNode typeNode = funDeclarationNode.getInferredTemplateParameterTypeNode(returnType.contents(), funCallNode.template_arguments);
 
-                    if (typeNode != null) {
-                        actualAttribute = new Attribute(typeNode, "value");
+                        if (typeNode != null) {
+                            actualAttribute = new Attribute(typeNode, "value");
+                        }
                     }
                 }
-
             }
 
         }
@@ -1216,6 +1585,7 @@ public final class SemanticAnalysis
     {
         R.set(node, "scope", scope);
         scope.declare(node.name, node); // scope pushed by FunDeclarationNode
+        variables.add(node);
 
         R.rule(node, "type")
         .using(node.type, "value")
@@ -1229,6 +1599,7 @@ public final class SemanticAnalysis
         // Preparing scope
         scope.declare(node.name, node);
         scope = new Scope(node, scope);
+        functions.add(node);
 
         // Setting scope
         R.set(node, "scope", scope);
@@ -1299,6 +1670,85 @@ public final class SemanticAnalysis
         R.set(node, "declared", new StructType(node));
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    private void externFunDecl (ExternFunDeclarationNode node)
+    {
+        scope.declare(node.name, node);
+        scope = new Scope(node, scope);
+        R.set(node, "scope", scope);
+
+        Attribute[] dependencies = new Attribute[node.parameters.size() + 1];
+        dependencies[0] = node.returnType.attr("value");
+        forEachIndexed(node.parameters, (i, param) ->
+            dependencies[i + 1] = param.attr("type"));
+
+        R.rule(node.attr("type"), node.attr("builtin"))
+        .using(dependencies)
+        .by(r -> {
+            Type[] paramTypes = new Type[node.parameters.size()];
+            for (int i = 0; i < paramTypes.length; ++i)
+                paramTypes[i] = r.get(i + 1);
+            FunType type = new FunType(r.get(0), paramTypes);
+            r.set(0, type);
+
+            for (int i = 0; i < dependencies.length; ++i) {
+                Type depType = r.get(i);
+                if (!Builtin.isConvertible(depType)) {
+                    r.errorFor("Unsupported type in extern function: " + depType,
+                        i == 0 ? node.returnType : node.parameters.get(i - 1),
+                        node.attr("builtin"));
+                    return;
+                }
+            }
+
+            try {
+                r.set(1, new Builtin(node.name, type, externTarget(node.target, type)));
+            } catch (IllegalArgumentException e) {
+                r.errorFor(e.getMessage(), node, node.attr("builtin"));
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the public static method with the fully qualified name {@code target} whose
+     * signature represents {@code type}, throwing an {@link IllegalArgumentException} if there is
+     * none, or if the built-in registry does not allow binding to its class.
+     */
+    private Method externTarget (String target, FunType type)
+    {
+        int dot = target.lastIndexOf('.');
+        if (dot <= 0 || dot == target.length() - 1)
+            throw new IllegalArgumentException(
+                "Extern function target is not a qualified method name: " + target);
+
+        String className = target.substring(0, dot);
+        String methodName = target.substring(dot + 1);
+        if (!builtins.allowsExtern(className))
+            throw new IllegalArgumentException(
+                "Extern functions are not allowed to bind to class: " + className);
+
+        Class<?> klass;
+        try {
+            klass = Class.forName(className, false, SemanticAnalysis.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Could not find class: " + className);
+        }
+
+        String descriptor = TypeUtils.methodDescriptor(type);
+        for (Method method: klass.getMethods())
+            if (method.getName().equals(methodName)
+                    && Modifier.isStatic(method.getModifiers())
+                    && org.objectweb.asm.Type.getMethodDescriptor(method).equals(descriptor))
+                return method;
+
+        throw new IllegalArgumentException(format(
+            "No public static method %s with descriptor %s (for type %s) in class %s",
+            methodName, descriptor, type, className));
+    }
+
     // endregion
     // =============================================================================================
     // region [Other Statements]
@@ -1345,6 +1795,8 @@ public final class SemanticAnalysis
         if (function == null) // top-level return
             return;
 
+        tailCall(node, function);
+
         // Checking if any template parameters involved here
         boolean check = involvesUninitializedTemplateParameter(node, scope);
 
@@ -1384,6 +1836,34 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Computes the {@code tailCall} attribute of a return statement in {@code function} (see class
+     * documentation).
+     */
+    private void tailCall (ReturnNode node, FunDeclarationNode function)
+    {
+        if (!(node.expression instanceof FunCallNode)
+                || !function.templateParameters.isEmpty()) {
+            R.set(node, "tailCall", false);
+            return;
+        }
+
+        FunCallNode call = (FunCallNode) node.expression;
+        if (!(call.function instanceof ReferenceNode) || call.template_arguments != null) {
+            R.set(node, "tailCall", false);
+            return;
+        }
+
+        R.rule(node, "tailCall")
+        .using(call.function, "decl")
+        .by(r -> {
+            DeclarationNode decl = r.get(0);
+            r.set(0, decl == function && call.arguments.size() == function.parameters.size());
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private FunDeclarationNode currentFunction()
     {
         Scope scope = this.scope;
@@ -1398,6 +1878,123 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the function whose body (or parameter list) contains the given scope, or null for
+     * top-level code.
+     */
+    private static FunDeclarationNode functionOf (Scope scope)
+    {
+        while (scope != null) {
+            if (scope.node instanceof FunDeclarationNode)
+                return (FunDeclarationNode) scope.node;
+            scope = scope.parent;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the {@code captured} and {@code captures} attributes (see class documentation),
+     * once all scopes have been built.
+     *
+     * <p>A function captures the variables from enclosing functions it uses directly, as well as
+     * the captures of the functions it references that are declared outside of it, since it will
+     * need to forward them. The second part is iterated until a fixpoint is reached.
+     */
+    private void captures ()
+    {
+        Map<FunDeclarationNode, List<DeclarationNode>> captures = new IdentityHashMap<>();
+        Set<DeclarationNode> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Pair<Scope, FunDeclarationNode>> functionUses = new ArrayList<>();
+        functions.forEach(it -> captures.put(it, new ArrayList<>()));
+
+        for (Pair<ReferenceNode, Scope> pair: functionReferences) {
+            DeclarationContext ctx = pair.b.lookup(pair.a.name);
+            if (ctx == null) continue; // reported elsewhere
+            DeclarationNode decl = ctx.declaration;
+
+            if (decl instanceof FunDeclarationNode)
+                functionUses.add(new Pair<>(pair.b, (FunDeclarationNode) decl));
+            else if ((decl instanceof VarDeclarationNode || decl instanceof ParameterNode)
+                    && !(ctx.scope instanceof RootScope)
+                    && functionOf(ctx.scope) != functionOf(pair.b)) {
+                captured.add(decl);
+                addCapture(captures, pair.b, decl);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Pair<Scope, FunDeclarationNode> use: functionUses)
+                for (DeclarationNode decl: new ArrayList<>(captures.get(use.b)))
+                    changed |= addCapture(captures, use.a, decl);
+        }
+
+        for (DeclarationNode variable: variables)
+            R.set(variable, "captured", captured.contains(variable));
+        for (FunDeclarationNode function: functions)
+            R.set(function, "captures", captures.get(function));
+
+        // A function can't be used before the variables it captures are declared, since their
+        // boxes are created by their declarations.
+        for (Pair<ReferenceNode, Scope> pair: functionReferences) {
+            DeclarationContext ctx = pair.b.lookup(pair.a.name);
+            if (ctx == null || !(ctx.declaration instanceof FunDeclarationNode)) continue;
+            for (DeclarationNode decl: captures.get((FunDeclarationNode) ctx.declaration)) {
+                if (declaredAfter(decl, pair.a, pair.b)) {
+                    R.error(new SemanticError(format(
+                        "Variable used before declaration: %s (captured by %s)",
+                        decl.name(), pair.a.name), null, pair.a));
+                    break;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code decl} is declared after {@code reference} (which appears in {@code scope}) in
+     * the same function, i.e. whether the variable does not exist yet when the reference is
+     * evaluated. Variables of enclosing functions are passed along (boxed) and always exist.
+     */
+    private static boolean declaredAfter (DeclarationNode decl, ReferenceNode reference,
+                                          Scope scope)
+    {
+        Scope declaring = scope;
+        while (declaring != null && declaring.lookupLocal(decl.name()) != decl)
+            declaring = declaring.parent;
+        return declaring != null
+            && functionOf(declaring) == functionOf(scope)
+            && decl.span.start > reference.span.start;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds {@code decl} to the captures of all functions between {@code scope} (inclusive) and the
+     * scope declaring {@code decl} (exclusive). Returns true if any capture was added.
+     */
+    private static boolean addCapture (
+            Map<FunDeclarationNode, List<DeclarationNode>> captures,
+            Scope scope, DeclarationNode decl) {
+
+        boolean added = false;
+        for (; scope != null && scope.lookupLocal(decl.name()) != decl; scope = scope.parent) {
+            if (!(scope.node instanceof FunDeclarationNode)) continue;
+            List<DeclarationNode> list = captures.get(scope.node);
+            if (list.stream().noneMatch(it -> it == decl)) {
+                list.add(decl);
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private boolean isReturnContainer (SighNode node) {
         return node instanceof BlockNode
             || node instanceof IfNode
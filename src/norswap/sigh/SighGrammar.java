@@ -53,6 +53,7 @@ public class SighGrammar extends Grammar
     public rule DOT             = word(".");
     public rule DOLLAR          = word("$");
     public rule COMMA           = word(",");
+    public rule ARROW           = word("->");
 
     public rule AT              = word("@");
 
@@ -61,6 +62,7 @@ public class SighGrammar extends Grammar
     public rule _var            = reserved("var");
     public rule _template       = reserved("template");
     public rule _fun            = reserved("fun");
+    public rule _extern         = reserved("extern");
     public rule _struct         = reserved("struct");
     public rule _if             = reserved("if");
     public rule _else           = reserved("else");
@@ -131,10 +133,23 @@ public class SighGrammar extends Grammar
         seq(LSQUARE, expressions, RSQUARE)
         .push($ -> new ArrayLiteralNode($.span(), $.$[0]));
 
+    public rule fun_type = lazy(() ->
+        seq(LPAREN, this.type.sep(0, COMMA).as_list(TypeNode.class), RPAREN, ARROW, this.type)
+        .push($ -> new FunTypeNode($.span(), $.$[0], $.$[1])));
+
+    public rule paren_type = lazy(() ->
+        seq(LPAREN, this.type, RPAREN));
+
+    public rule list_type = lazy(() ->
+        seq(word("List"), LANGLE, this.type, RANGLE)
+        .push($ -> new ListTypeNode($.span(), $.$[0])));
+
     public rule array_type = left_expression()
-        .left(simple_type)
+        .left(choice(list_type, simple_type, fun_type, paren_type))
         .suffix(seq(LSQUARE, RSQUARE),
-            $ -> new ArrayTypeNode($.span(), $.$[0]));
+            $ -> new ArrayTypeNode($.span(), $.$[0]))
+        .suffix(seq(LSQUARE, COLON, RSQUARE),
+            $ -> new SliceTypeNode($.span(), $.$[0]));
 
     public rule type =
         seq(array_type);
@@ -143,8 +158,13 @@ public class SighGrammar extends Grammar
         seq(LPAREN, expressions, RPAREN)
             .push($ -> new TupleLiteralNode($.span(), $.$[0]));
 
+    public rule list_constructor = lazy(() ->
+        seq(word("List"), LANGLE, this.type, RANGLE, LPAREN, RPAREN)
+        .push($ -> new ListConstructorNode($.span(), $.$[0])));
+
     public rule basic_expression = choice(
         constructor,
+        list_constructor,
         reference,
         floating,
         integer,
@@ -166,6 +186,9 @@ public class SighGrammar extends Grammar
         .left(basic_expression)
         .suffix(seq(DOT, identifier),
             $ -> new FieldAccessNode($.span(), $.$[0], $.$[1]))
+        .suffix(seq(LSQUARE, lazy(() -> this.expression), COLON, lazy(() -> this.expression),
+                RSQUARE),
+            $ -> new SliceNode($.span(), $.$[0], $.$[1], $.$[2]))
         .suffix(seq(LSQUARE, lazy(() -> this.expression), RSQUARE),
             $ -> new ArrayAccessNode($.span(), $.$[0], $.$[1]))
         .suffix(function_args,
@@ -247,6 +270,7 @@ public class SighGrammar extends Grammar
         this.block,
         this.var_decl,
         this.fun_decl,
+        this.extern_fun_decl,
         this.struct_decl,
         this.if_stmt,
         this.while_stmt,
@@ -292,6 +316,11 @@ public class SighGrammar extends Grammar
                         : new FunDeclarationNode($.span(), $.$[0], $.$[1], $.$[2], $.$[3])
         );
 
+    public rule extern_fun_decl =
+        seq(_extern, _fun, identifier, LPAREN, parameters, RPAREN, maybe_return_type, EQUALS,
+            seq('"', string_content, '"').word())
+        .push($ -> new ExternFunDeclarationNode($.span(), $.$[0], $.$[1], $.$[2], $.$[3]));
+
     public rule field_decl =
         seq(_var, identifier, COLON, type)
         .push($ -> new FieldDeclarationNode($.span(), $.$[0], $.$[1]));
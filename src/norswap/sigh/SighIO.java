@@ -0,0 +1,135 @@
+package norswap.sigh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Implementations of the I/O built-in functions, which load and store arrays of numbers as binary
+ * files of little-endian 64-bit values ({@code double} for {@code Float}, {@code long} for {@code
+ * Int}). Shared by the interpreter and the compiled code.
+ *
+ * <p>Files are memory-mapped, and their contents copied in bulk between the mapping and the
+ * array (through a {@link java.nio.DoubleBuffer} or {@link java.nio.LongBuffer} view), without
+ * going through each element. I/O errors are rethrown as {@link UncheckedIOException}.
+ */
+public final class SighIO
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Size of the regions mapped at once: the largest multiple of 8 that fits in an int. */
+    private static final int REGION = Integer.MAX_VALUE & ~7;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Operates on part of an array, mapped to {@code buffer}. */
+    @FunctionalInterface
+    private interface RegionCopy {
+        void copy (ByteBuffer buffer, int offset, int length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the contents of the file as an array of little-endian doubles. */
+    public static double[] loadFloats (String path)
+    {
+        double[] array = new double[elementCount(path)];
+        load(path, (buffer, offset, length) ->
+            buffer.asDoubleBuffer().get(array, offset, length));
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the contents of the file as an array of little-endian longs. */
+    public static long[] loadInts (String path)
+    {
+        long[] array = new long[elementCount(path)];
+        load(path, (buffer, offset, length) ->
+            buffer.asLongBuffer().get(array, offset, length));
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Writes the array to the file (replacing its contents) as little-endian doubles. */
+    public static void storeFloats (String path, double[] array) {
+        store(path, array.length, (buffer, offset, length) ->
+            buffer.asDoubleBuffer().put(array, offset, length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Writes the array to the file (replacing its contents) as little-endian longs. */
+    public static void storeInts (String path, long[] array) {
+        store(path, array.length, (buffer, offset, length) ->
+            buffer.asLongBuffer().put(array, offset, length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of 64-bit values in the file, which must fit in an array. */
+    private static int elementCount (String path)
+    {
+        long size;
+        try {
+            size = Files.size(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (size % 8 != 0)
+            throw new IllegalArgumentException(
+                "size of " + path + " is not a multiple of 8 bytes: " + size);
+        if (size / 8 > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("file too large for an array: " + path);
+        return (int) (size / 8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void load (String path, RegionCopy copy)
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            copyRegions(channel, MapMode.READ_ONLY, channel.size(), copy);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void store (String path, int length, RegionCopy copy)
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyRegions(channel, MapMode.READ_WRITE, 8L * length, copy);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the first {@code size} bytes of the file region by region (a mapping is limited to 2GB),
+     * and copies each region.
+     */
+    private static void copyRegions (FileChannel channel, MapMode mode, long size, RegionCopy copy)
+            throws IOException
+    {
+        for (long position = 0; position < size; position += REGION) {
+            int length = (int) Math.min(REGION, size - position);
+            ByteBuffer buffer = channel.map(mode, position, length).order(ByteOrder.LITTLE_ENDIAN);
+            copy.copy(buffer, (int) (position / 8), length / 8);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,111 @@
+package norswap.sigh;
+
+/**
+ * The runtime representation of the list types ({@code List<Int>}, {@code List<Float>} and {@code
+ * List<String>}): growable lists backed by an array specialized for their element type (see
+ * {@link IntList}, {@link FloatList} and {@link StringList}). Shared by the interpreter and the
+ * compiled code.
+ *
+ * <p>The elements of a list are the first {@link #size} elements of its {@code data} array. When
+ * this array is full, appending an element replaces it by an array twice as large, so that
+ * appending takes amortized constant time. The compiled code reads and writes {@code size} and
+ * {@code data} directly, and only calls {@link #grow} when the array is full.
+ *
+ * <p>Like Java arrays, lists are not synchronized.
+ */
+public abstract class SighList
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Length of the array of a new list. */
+    static final int INITIAL_CAPACITY = 8;
+
+    /** Maximum length of the array of a list (some VMs reserve header words in arrays). */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /** Number of elements in the list. */
+    public int size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of elements in the list. */
+    public final long length () {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Replaces the array of the list by an array twice as large, containing the same elements. */
+    public abstract void grow ();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the length of the array that replaces a full array of the given length. */
+    static int grownCapacity (int capacity)
+    {
+        if (capacity >= MAX_CAPACITY)
+            throw new OutOfMemoryError("list too large");
+        return (int) Math.min(2L * capacity, MAX_CAPACITY);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index in the array of the element at the given index, after checking it. Called
+     * by compiled code, which must check the {@code long} index before narrowing it.
+     */
+    public final int index (long index)
+    {
+        if (index < 0 || index >= size)
+            throw indexError(this, index);
+        return (int) index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the last element from the list (whose array still contains it) and returns its index,
+     * throwing an {@link IllegalStateException} if the list is empty.
+     */
+    final int popIndex ()
+    {
+        if (size == 0)
+            throw emptyError();
+        return --size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the exception thrown when accessing an index outside of the list. */
+    public static ArrayIndexOutOfBoundsException indexError (SighList list, long index) {
+        return new ArrayIndexOutOfBoundsException(
+            "Index " + index + " out of bounds for length " + list.size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the exception thrown when popping an element from an empty list. */
+    public static IllegalStateException emptyError () {
+        return new IllegalStateException("popping an element from an empty list");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Appends the element at the given index to the builder. */
+    abstract void appendAt (StringBuilder builder, int index);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the elements of the list, in the format of {@link java.util.Arrays#toString}. */
+    @Override public final String toString ()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) builder.append(", ");
+            appendAt(builder, i);
+        }
+        return builder.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
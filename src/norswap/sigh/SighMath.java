@@ -0,0 +1,54 @@
+package norswap.sigh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+
+/**
+ * Implementations of the math built-in functions that are not directly available in {@link Math}
+ * on every Java version we support. Shared by the interpreter and the compiled code.
+ */
+public final class SighMath
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** {@code Math.fma(double, double, double)} if available (Java 9+), null otherwise. */
+    private static final MethodHandle FMA = findFma();
+
+    private static MethodHandle findFma () {
+        try {
+            return MethodHandles.publicLookup().findStatic(Math.class, "fma",
+                MethodType.methodType(double.class, double.class, double.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns {@code a * b + c} computed with a single rounding. This is an intrinsic of the JIT
+     * starting with Java 9, and is computed exactly with {@link BigDecimal} on earlier versions.
+     */
+    public static double fma (double a, double b, double c)
+    {
+        if (FMA != null) {
+            try {
+                return (double) FMA.invokeExact(a, b, c);
+            } catch (Throwable t) {
+                throw new Error(t); // unreachable: Math.fma does not throw
+            }
+        }
+
+        // With a zero operand, the naive expression rounds once and gets the sign of zero right.
+        // Non-finite operands have no BigDecimal representation, the result is then non-finite.
+        if (a == 0 || b == 0 || c == 0
+                || !Double.isFinite(a) || !Double.isFinite(b) || !Double.isFinite(c))
+            return a * b + c;
+
+        return new BigDecimal(a).multiply(new BigDecimal(b)).add(new BigDecimal(c)).doubleValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -3,24 +3,71 @@ package norswap.sigh;
 import norswap.autumn.Autumn;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.sigh.ast.FunDeclarationNode;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.ast.RootNode;
+import norswap.sigh.builtins.Builtin;
+import norswap.sigh.builtins.BuiltinRegistry;
+import norswap.sigh.bytecode.SighRuntime;
+import norswap.sigh.interpreter.ExecutionContext;
 import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.Program;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
 import norswap.uranium.AttributeTreeFormatter;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
+import norswap.utils.IO;
 import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.Walker;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Set;
 
 import static norswap.utils.visitors.WalkVisitType.POST_VISIT;
 import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
 
+/**
+ * Runs Sigh programs with the interpreter.
+ *
+ * <h2>Streaming Mode</h2>
+ * <p>In streaming mode ({@link #stream}), the program is used as a filter over a (possibly very
+ * large) input. After its top-level code has run, the input is read in fixed-size chunks, and
+ * split into lines (without their terminator). If the program declares a top-level function {@code
+ * processBatch(lines: String[])}, it is called with the complete lines of each chunk. Otherwise,
+ * the program must declare {@code process(line: String)}, which is called for each line. The
+ * output of {@code print} goes to a buffered sink.
+ *
+ * <p>Memory use does not depend on the size of the input: only one chunk, and the lines it
+ * contains, are held at any time (lines longer than a chunk are accumulated until they end).
+ */
 public final class SighRunner
 {
     // ---------------------------------------------------------------------------------------------
 
+    /** Default size of the chunks read in streaming mode, in bytes. */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
     private final SighGrammar grammar = new SighGrammar();
 
     private final ParseOptions parseOptions = ParseOptions.builder()
@@ -29,10 +76,44 @@ public final class SighRunner
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Runs the program, with {@code sigh <file>}, or runs it in streaming mode over the given file
+     * (or standard input if omitted), with {@code sigh --stream <file> [input]}.
+     */
+    public static void main (String[] args) throws IOException
+    {
+        if (args.length == 1) {
+            new SighRunner().run(IO.slurp(args[0]));
+        } else if (args.length >= 2 && args.length <= 3 && args[0].equals("--stream")) {
+            ReadableByteChannel input = args.length == 3
+                ? FileChannel.open(Paths.get(args[2]), StandardOpenOption.READ)
+                : Channels.newChannel(System.in);
+            try {
+                new SighRunner().stream(IO.slurp(args[1]), input, System.out);
+            } finally {
+                input.close();
+            }
+        } else {
+            System.err.println("usage: sigh <file> | sigh --stream <file> [input]");
+            System.exit(1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     public Object run(String input) {
+        return analyze(input, BuiltinRegistry.standard()).newContext().run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses, analyzes and inlines the program, with the given built-in functions.
+     */
+    private Program analyze (String input, BuiltinRegistry builtins)
+    {
         Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, builtins);
 
         ParseResult result = Autumn.parse(grammar.root, input, parseOptions);
         if (!result.fullMatch) {
@@ -61,7 +142,148 @@ public final class SighRunner
             throw new AssertionError("semantic errors");
         }
 
-        return interpreter.interpret(root);
+        // Inlining produces a new tree, which must be analyzed again.
+        Inliner.Result inlined = Inliner.inline(root, reactor);
+        if (inlined.changed()) {
+            root = inlined.root;
+            reactor = new Reactor();
+            SemanticAnalysis.createWalker(reactor, builtins).walk(root);
+            reactor.run();
+            if (!reactor.errors().isEmpty())
+                throw new AssertionError("semantic errors after inlining: " + reactor.errors());
+        }
+
+        return new Program(root, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program in streaming mode (see the class documentation) over the UTF-8 encoded
+     * input, writing its output to {@code output}. The input is not closed. Returns the number of
+     * lines processed.
+     */
+    public long stream (String program, ReadableByteChannel input, OutputStream output)
+            throws IOException {
+        return stream(program, input, output, CHUNK_SIZE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #stream(String, ReadableByteChannel, OutputStream)}, reading chunks of {@code
+     * chunkSize} bytes.
+     */
+    public long stream (String program, ReadableByteChannel input, OutputStream output,
+                        int chunkSize) throws IOException
+    {
+        if (chunkSize < 4) // must fit any UTF-8 encoded code point
+            throw new IllegalArgumentException("chunk size too small: " + chunkSize);
+
+        Writer sink = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        BuiltinRegistry builtins = BuiltinRegistry.standard().register(new Builtin("print",
+            new FunType(StringType.INSTANCE, StringType.INSTANCE),
+            Builtin.method(SighRuntime.class, "print"),
+            args -> {
+                String out = Interpreter.convertToString(args[0]);
+                try {
+                    sink.write(out);
+                    sink.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return out;
+            }));
+
+        Program analyzed = analyze(program, builtins);
+        boolean batch =
+            checkFunction(analyzed, "processBatch", new ArrayType(StringType.INSTANCE));
+        if (!batch && !checkFunction(analyzed, "process", StringType.INSTANCE))
+            throw new IllegalArgumentException(
+                "streaming requires a top-level function process or processBatch");
+
+        ExecutionContext context = analyzed.newContext();
+        context.run();
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(chunkSize);
+        CharBuffer chars = CharBuffer.allocate(chunkSize);
+        StringBuilder line = new StringBuilder();
+        ArrayList<String> lines = new ArrayList<>();
+        long count = 0;
+
+        for (boolean eof = false; !eof; ) {
+            eof = input.read(bytes) < 0;
+            bytes.flip();
+            decoder.decode(bytes, chars, eof); // keeps incomplete code points in the buffer
+            if (eof) decoder.flush(chars);
+            bytes.compact();
+
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    lines.add(endLine(line));
+                } else
+                    line.append(c);
+            }
+            chars.clear();
+            if (eof && line.length() > 0)
+                lines.add(endLine(line));
+
+            if (lines.isEmpty())
+                continue;
+            if (batch)
+                context.call("processBatch", (Object) lines.toArray(new String[0]));
+            else
+                for (String it: lines)
+                    context.call("process", it);
+            count += lines.size();
+            lines.clear();
+        }
+
+        sink.flush();
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the line in the builder (without a trailing carriage return) and clears it. */
+    private static String endLine (StringBuilder line)
+    {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r')
+            --length;
+        String result = line.substring(0, length);
+        line.setLength(0);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the program declares a top-level function with the given name, throwing an
+     * {@link IllegalArgumentException} if it does not take a single parameter of type {@code
+     * param} or has template parameters.
+     */
+    private static boolean checkFunction (Program program, String name, Type param)
+    {
+        FunDeclarationNode decl = program.root.statements.stream()
+            .filter(it -> it instanceof FunDeclarationNode
+                && ((FunDeclarationNode) it).name.equals(name))
+            .map(it -> (FunDeclarationNode) it)
+            .findFirst().orElse(null);
+        if (decl == null)
+            return false;
+
+        FunType type = program.reactor.get(decl, "type");
+        if (!decl.templateParameters.isEmpty() || type.paramTypes.length != 1
+                || !type.paramTypes[0].equals(param))
+            throw new IllegalArgumentException(String.format(
+                "streaming function %s must have type (%s) -> _, found %s", name, param, type));
+        return true;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,329 @@
+package norswap.sigh;
+
+import java.util.Arrays;
+
+/**
+ * The runtime representation of the slice types ({@code Int[:]} and {@code Float[:]}): a view of
+ * the elements {@code from} (inclusive) to {@code to} (exclusive) of an array, created by the
+ * slice expression {@code a[from:to]}. Shared by the interpreter and the compiled code.
+ *
+ * <p>A slice is an (array, offset, length) triple, where the array is the storage of the sliced
+ * array, in the representation of the backend that created it: {@code long[]} or {@code double[]}
+ * (compiled code and host arrays), or {@code Object[]} (interpreter). Slicing an array or a slice
+ * never copies elements, and a slice reads the current contents of its storage.
+ *
+ * <p>Slices are copy-on-write: the first write to a slice copies its elements to storage that
+ * belongs to the slice, so that writing to a slice never modifies the array it was taken from (or
+ * any other slice).
+ */
+public final class Slice
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Object array;
+    private int offset;
+    private final int length;
+
+    /** Whether the storage belongs to this slice (because it has been written to). */
+    private boolean owned;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Slice (Object array, int offset, int length, boolean owned) {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.owned = owned;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a view of the elements {@code from} (inclusive) to {@code to} (exclusive) of an
+     * array ({@code long[]}, {@code double[]} or {@code Object[]}) or of another slice, throwing
+     * an {@link ArrayIndexOutOfBoundsException} if the bounds are not within the array.
+     */
+    public static Slice slice (Object array, long from, long to)
+    {
+        if (array instanceof Slice) {
+            Slice slice = (Slice) array;
+            checkBounds(from, to, slice.length);
+            return new Slice(slice.array, slice.offset + (int) from, (int) (to - from), false);
+        }
+        checkBounds(from, to, storageLength(array));
+        return new Slice(array, (int) from, (int) (to - from), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void checkBounds (long from, long to, int length)
+    {
+        if (from < 0 || to < from || to > length)
+            throw new ArrayIndexOutOfBoundsException(String.format(
+                "Slice [%d:%d] out of bounds for length %d", from, to, length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int storageLength (Object array)
+    {
+        if (array instanceof long[])   return ((long[]) array).length;
+        if (array instanceof double[]) return ((double[]) array).length;
+        return ((Object[]) array).length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public long length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the storage of the slice. */
+    public Object storage () {
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a slice with the same bounds and ownership as this one, over another storage (which
+     * must be a copy of the storage of this slice).
+     */
+    public Slice withStorage (Object storage) {
+        return new Slice(storage, offset, length, owned);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the index in the storage of the element at the given index, after checking it. */
+    private int index (long index)
+    {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + length);
+        return offset + (int) index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index in the storage of the element at the given index, after checking it and
+     * making sure that the storage belongs to the slice.
+     */
+    private int writeIndex (long index)
+    {
+        index(index);
+        own();
+        return offset + (int) index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index of an {@code Int[:]} slice. */
+    public long getLong (long index)
+    {
+        int i = index(index);
+        return array instanceof long[] ? ((long[]) array)[i] : (Long) ((Object[]) array)[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index of a {@code Float[:]} slice. */
+    public double getDouble (long index)
+    {
+        int i = index(index);
+        return array instanceof double[]
+            ? ((double[]) array)[i]
+            : ((Number) ((Object[]) array)[i]).doubleValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index, boxed if the storage is a primitive array. */
+    public Object get (long index)
+    {
+        int i = index(index);
+        if (array instanceof long[])   return ((long[]) array)[i];
+        if (array instanceof double[]) return ((double[]) array)[i];
+        return ((Object[]) array)[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index of an {@code Int[:]} slice, and returns it. */
+    public long setLong (long index, long value)
+    {
+        int i = writeIndex(index);
+        if (array instanceof long[])
+            ((long[]) array)[i] = value;
+        else
+            ((Object[]) array)[i] = value;
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index of a {@code Float[:]} slice, and returns it. */
+    public double setDouble (long index, double value)
+    {
+        int i = writeIndex(index);
+        if (array instanceof double[])
+            ((double[]) array)[i] = value;
+        else
+            ((Object[]) array)[i] = value;
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the value (boxed) at the given index, and returns it. {@code Int} values are
+     * converted when stored in a {@code double[]}.
+     */
+    public Object set (long index, Object value)
+    {
+        if (array instanceof long[])
+            setLong(index, (Long) value);
+        else if (array instanceof double[])
+            setDouble(index, ((Number) value).doubleValue());
+        else {
+            int i = writeIndex(index); // may replace the storage
+            ((Object[]) array)[i] = value;
+        }
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Copies the elements of the slice to storage that belongs to it, unless it already has. */
+    private void own ()
+    {
+        if (owned) return;
+        if (array instanceof long[])
+            array = Arrays.copyOfRange((long[]) array, offset, offset + length);
+        else if (array instanceof double[])
+            array = Arrays.copyOfRange((double[]) array, offset, offset + length);
+        else
+            array = Arrays.copyOfRange((Object[]) array, offset, offset + length);
+        offset = 0;
+        owned = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // The following methods operate on "vectors": slices, {@code long[]} or {@code double[]}.
+
+    private static int length (Object vector)
+    {
+        if (vector instanceof Slice) return ((Slice) vector).length;
+        return storageLength(vector);
+    }
+
+    private static double doubleAt (Object vector, int index)
+    {
+        if (vector instanceof double[]) return ((double[]) vector)[index];
+        if (vector instanceof long[])   return ((long[]) vector)[index];
+        return ((Number) ((Slice) vector).get(index)).doubleValue();
+    }
+
+    private static long longAt (Object vector, int index)
+    {
+        if (vector instanceof long[]) return ((long[]) vector)[index];
+        return ((Slice) vector).getLong(index);
+    }
+
+    private static int checkLengths (Object left, Object right)
+    {
+        int length = length(left);
+        if (length != length(right))
+            throw new IllegalArgumentException(String.format(
+                "Trying to dot product an array of size [%d] with an array of size [%d]",
+                length, length(right)));
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of two vectors of the same length, one of which is a slice. */
+    public static double dot (Object left, Object right)
+    {
+        int length = checkLengths(left, right);
+        double result = 0;
+        for (int i = 0; i < length; ++i)
+            result += doubleAt(left, i) * doubleAt(right, i);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the dot product of two {@code Int} vectors of the same length. */
+    public static long dotInts (Object left, Object right)
+    {
+        int length = checkLengths(left, right);
+        long result = 0;
+        for (int i = 0; i < length; ++i)
+            result += longAt(left, i) * longAt(right, i);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the {@code Int[:]} slice times the factor. */
+    public static long[] times (Slice slice, long factor)
+    {
+        long[] result = new long[slice.length];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = slice.getLong(i) * factor;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the slice multiplied by the factor. */
+    public static double[] times (Slice slice, double factor)
+    {
+        double[] result = new double[slice.length];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = doubleAt(slice, i) * factor;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the slice divided by the divisor. */
+    public static double[] divide (Slice slice, double divisor)
+    {
+        double[] result = new double[slice.length];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = doubleAt(slice, i) / divisor;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the dividend divided by each element of the slice. */
+    public static double[] divide (double dividend, Slice slice)
+    {
+        double[] result = new double[slice.length];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = dividend / doubleAt(slice, i);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the elements of the slice, in the format of {@link Arrays#toString}. */
+    @Override public String toString ()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < length; ++i) {
+            if (i > 0) builder.append(", ");
+            builder.append(get(i));
+        }
+        return builder.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
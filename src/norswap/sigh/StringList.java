@@ -0,0 +1,69 @@
+package norswap.sigh;
+
+import java.util.Arrays;
+
+/**
+ * The runtime representation of {@code List<String>}: a growable list of strings (see {@link
+ * SighList}).
+ */
+public final class StringList extends SighList
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public String[] data = new String[INITIAL_CAPACITY];
+
+    // ---------------------------------------------------------------------------------------------
+
+    public String get (long index) {
+        return data[index(index)];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stores the value at the given index, and returns it. */
+    public String set (long index, String value) {
+        return data[index(index)] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Appends the value at the end of the list. */
+    public void push (String value)
+    {
+        if (size == data.length)
+            grow();
+        data[size++] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Removes the last element of the list and returns it. */
+    public String pop ()
+    {
+        int index = popIndex();
+        String value = data[index];
+        data[index] = null; // let the string be collected
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a new array containing the elements of the list. */
+    public String[] toArray () {
+        return Arrays.copyOf(data, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void grow () {
+        data = Arrays.copyOf(data, grownCapacity(data.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override void appendAt (StringBuilder builder, int index) {
+        builder.append(data[index]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,43 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+import java.util.List;
+
+/**
+ * Declaration of a function implemented by a public static Java method, e.g. {@code extern fun
+ * floorMod (x: Int, y: Int): Int = "java.lang.Math.floorMod"}. The {@code target} is the fully
+ * qualified name of the method, whose signature must match the representation of the Sigh
+ * signature (see {@link norswap.sigh.bytecode.TypeUtils}).
+ */
+public class ExternFunDeclarationNode extends DeclarationNode
+{
+    public final String name;
+    public final List<ParameterNode> parameters;
+    public final TypeNode returnType;
+    public final String target;
+
+    @SuppressWarnings("unchecked")
+    public ExternFunDeclarationNode
+            (Span span, Object name, Object parameters, Object returnType, Object target) {
+        super(span);
+        this.name = Util.cast(name, String.class);
+        this.parameters = Util.cast(parameters, List.class);
+        this.returnType = returnType == null
+            ? new SimpleTypeNode(new Span(span.start, span.start), "Void")
+            : Util.cast(returnType, TypeNode.class);
+        this.target = Util.cast(target, String.class);
+    }
+
+    @Override public String name () {
+        return name;
+    }
+
+    @Override public String contents () {
+        return "extern fun " + name;
+    }
+
+    @Override public String declaredThing () {
+        return "extern function";
+    }
+}
@@ -85,6 +85,8 @@ public class FunDeclarationNode extends DeclarationNode
             // Setting return type
             this.returnType = Util.cast(returnTypeNode, TypeNode.class);
 
+        } else if (returnType instanceof FunTypeNode) {
+            this.returnType = Util.cast(returnType, FunTypeNode.class);
         } else {
             // Casting to simple type node
             SimpleTypeNode returnTypeNode = Util.cast(returnType, SimpleTypeNode.class);
@@ -110,8 +112,8 @@ public class FunDeclarationNode extends DeclarationNode
             typeIterator = ((ArrayTypeNode) typeIterator).componentType;
         }
 
-        // Skip base type already instance of template type node
-        if (typeIterator instanceof TemplateTypeNode) return;
+        // Skip base type already instance of template type node (or function type)
+        if (!(typeIterator instanceof SimpleTypeNode)) return;
 
         // Updating base type
         SimpleTypeNode baseTypeNode = Util.cast(typeIterator, SimpleTypeNode.class);
@@ -0,0 +1,38 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.Type;
+import norswap.utils.Util;
+import java.util.List;
+
+/**
+ * Type of function values, written {@code (T1, T2) -> R}.
+ */
+public final class FunTypeNode extends TypeNode
+{
+    public final List<TypeNode> parameterTypes;
+    public final TypeNode returnType;
+
+    @SuppressWarnings("unchecked")
+    public FunTypeNode (Span span, Object parameterTypes, Object returnType) {
+        super(span);
+        this.parameterTypes = Util.cast(parameterTypes, List.class);
+        this.returnType = Util.cast(returnType, TypeNode.class);
+    }
+
+    @Override
+    public Type getType () {
+        Type[] params = parameterTypes.stream().map(TypeNode::getType).toArray(Type[]::new);
+        return new FunType(returnType.getType(), params);
+    }
+
+    @Override public String contents() {
+        StringBuilder b = new StringBuilder("(");
+        for (int i = 0; i < parameterTypes.size(); ++i) {
+            if (i > 0) b.append(", ");
+            b.append(parameterTypes.get(i).contents());
+        }
+        return b.append(") -> ").append(returnType.contents()).toString();
+    }
+}
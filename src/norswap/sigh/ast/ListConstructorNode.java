@@ -0,0 +1,19 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+
+/** The creation of an empty list: {@code List<T>()}. */
+public final class ListConstructorNode extends ExpressionNode
+{
+    public final TypeNode componentType;
+
+    public ListConstructorNode (Span span, Object componentType) {
+        super(span);
+        this.componentType = Util.cast(componentType, TypeNode.class);
+    }
+
+    @Override public String contents() {
+        return "List<" + componentType.contents() + ">()";
+    }
+}
@@ -0,0 +1,24 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.types.ListType;
+import norswap.sigh.types.Type;
+import norswap.utils.Util;
+
+public final class ListTypeNode extends TypeNode
+{
+    public final TypeNode componentType;
+
+    public ListTypeNode (Span span, Object componentType) {
+        super(span);
+        this.componentType = Util.cast(componentType, TypeNode.class);
+    }
+
+    @Override public Type getType () {
+        return new ListType(componentType.getType());
+    }
+
+    @Override public String contents() {
+        return "List<" + componentType.contents() + ">";
+    }
+}
@@ -0,0 +1,22 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.utils.Util;
+
+public final class SliceNode extends ExpressionNode
+{
+    public final ExpressionNode array;
+    public final ExpressionNode from;
+    public final ExpressionNode to;
+
+    public SliceNode (Span span, Object array, Object from, Object to) {
+        super(span);
+        this.array = Util.cast(array, ExpressionNode.class);
+        this.from = Util.cast(from, ExpressionNode.class);
+        this.to = Util.cast(to, ExpressionNode.class);
+    }
+
+    @Override public String contents() {
+        return String.format("%s[%s:%s]", array.contents(), from.contents(), to.contents());
+    }
+}
@@ -0,0 +1,24 @@
+package norswap.sigh.ast;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.types.SliceType;
+import norswap.sigh.types.Type;
+import norswap.utils.Util;
+
+public final class SliceTypeNode extends TypeNode
+{
+    public final TypeNode componentType;
+
+    public SliceTypeNode (Span span, Object componentType) {
+        super(span);
+        this.componentType = Util.cast(componentType, TypeNode.class);
+    }
+
+    @Override public Type getType () {
+        return new SliceType(componentType.getType());
+    }
+
+    @Override public String contents() {
+        return componentType.contents() + "[:]";
+    }
+}
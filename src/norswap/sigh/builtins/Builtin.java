@@ -0,0 +1,278 @@
+package norswap.sigh.builtins;
+
+import norswap.sigh.BigFloats;
+import norswap.sigh.BigInts;
+import norswap.sigh.Range;
+import norswap.sigh.Slice;
+import norswap.sigh.bytecode.TypeUtils;
+import norswap.sigh.interpreter.Null;
+import norswap.sigh.types.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * A built-in function, declared in the root scope of every program analyzed with a {@link
+ * BuiltinRegistry} that contains it.
+ *
+ * <p>A built-in has a Sigh {@link FunType function type} and a public static Java method ({@link
+ * #target}) implementing it on the bytecode representation of Sigh values (see {@link
+ * norswap.sigh.bytecode.BytecodeCompiler}). Compiled code calls this method directly ({@code
+ * invokestatic}), so that the JIT can inline it.
+ *
+ * <p>The interpreter calls the {@link #handler} instead. It can be omitted if the function only
+ * involves {@code Int}, {@code Float}, {@code Bool}, {@code String}, {@code Void}, arrays and
+ * slices of these, lists, {@code BigInts}, {@code BigFloats} and {@code Range}: the handler then
+ * calls the target, converting values with {@link #toHost} and {@link #toInterpreter}. Primitive
+ * arrays, slices, lists, big arrays and ranges are shared by both representations and passed as
+ * is, while {@code Object[]} arrays are converted. Since the target may modify the arrays it
+ * receives, the contents of converted arrays are copied back after the call.
+ */
+public final class Builtin
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implementation of a built-in function for the interpreter, which takes and returns the
+     * interpreter's representation of values (e.g. {@code Long} for {@code Int}, {@code Object[]}
+     * for arrays, {@link Null#INSTANCE} for {@code null}, and {@code null} for {@code Void}).
+     */
+    @FunctionalInterface
+    public interface Handler {
+        Object call (Object[] args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final String name;
+    public final FunType type;
+    public final Method target;
+    public final Handler handler;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a built-in function, throwing an {@link IllegalArgumentException} if {@code target}
+     * is not a public static method whose signature matches the representation of {@code type}.
+     */
+    public Builtin (String name, FunType type, Method target, Handler handler)
+    {
+        this.name = name;
+        this.type = type;
+        this.target = target;
+        this.handler = handler;
+
+        if (!Modifier.isStatic(target.getModifiers()) || !Modifier.isPublic(target.getModifiers())
+                || !Modifier.isPublic(target.getDeclaringClass().getModifiers()))
+            throw new IllegalArgumentException(
+                "target of built-in " + name + " is not a public static method: " + target);
+
+        String expected = TypeUtils.methodDescriptor(type);
+        String actual = org.objectweb.asm.Type.getMethodDescriptor(target);
+        if (!expected.equals(actual))
+            throw new IllegalArgumentException(String.format(
+                "target of built-in %s has descriptor %s, expected %s for type %s",
+                name, actual, expected, type));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a built-in function whose interpreter handler calls {@code target}, throwing an
+     * {@link IllegalArgumentException} if the type involves values that cannot be converted
+     * between the interpreter and compiled code (structures, functions, types).
+     */
+    public Builtin (String name, FunType type, Method target) {
+        this(name, type, target, handler(name, type, target));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the unique public static method named {@code name} in {@code owner}, throwing an
+     * {@link IllegalArgumentException} if there is none or more than one.
+     */
+    public static Method method (Class<?> owner, String name)
+    {
+        Method[] methods = Arrays.stream(owner.getMethods())
+            .filter(it -> it.getName().equals(name) && Modifier.isStatic(it.getModifiers()))
+            .toArray(Method[]::new);
+        if (methods.length != 1)
+            throw new IllegalArgumentException(String.format(
+                "expected one public static method named %s in %s, found %d",
+                name, owner.getName(), methods.length));
+        return methods[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether values of the given type can be converted between the interpreter and compiled
+     * code: {@code Int}, {@code Float}, {@code Bool}, {@code String}, {@code Void}, arrays of
+     * these, slices, lists, {@code BigInts}, {@code BigFloats} and {@code Range}.
+     */
+    public static boolean isConvertible (Type type) {
+        return type instanceof IntType
+            || type instanceof FloatType
+            || type instanceof BoolType
+            || type instanceof StringType
+            || type instanceof VoidType
+            || type instanceof BigArrayType
+            || type instanceof RangeType
+            || type instanceof SliceType
+            || type instanceof ListType
+            || type instanceof ArrayType && isConvertible(((ArrayType) type).componentType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Derives a handler that calls {@code target} through a method handle, which unboxes the
+     * arguments (converting {@code Int} arguments of {@code Float} parameters), after converting
+     * arrays and {@code null}.
+     */
+    private static Handler handler (String name, FunType type, Method target)
+    {
+        if (!isConvertible(type.returnType)
+                || !Arrays.stream(type.paramTypes).allMatch(Builtin::isConvertible))
+            throw new IllegalArgumentException(
+                "built-in " + name + " requires an interpreter handler for type " + type);
+
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(target)
+                .asSpreader(Object[].class, type.paramTypes.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        Type[] params = type.paramTypes;
+
+        return args -> {
+            Object[] actual = new Object[args.length];
+            for (int i = 0; i < args.length; ++i)
+                actual[i] = toHost(args[i], params[i]);
+            Object result;
+            try {
+                result = (Object) handle.invokeExact(actual);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+            for (int i = 0; i < args.length; ++i)
+                if (actual[i] != args[i] && params[i] instanceof ArrayType && actual[i] != null)
+                    copyBack(actual[i], (Object[]) args[i], (ArrayType) params[i]);
+            return toInterpreter(result, type.returnType);
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the class of the compiled representation of a convertible type. */
+    public static Class<?> hostClass (Type type)
+    {
+        if (type instanceof IntType)    return long.class;
+        if (type instanceof FloatType)  return double.class;
+        if (type instanceof BoolType)   return boolean.class;
+        if (type instanceof StringType) return String.class;
+        if (type == BigArrayType.INTS)   return BigInts.class;
+        if (type == BigArrayType.FLOATS) return BigFloats.class;
+        if (type instanceof RangeType)   return Range.class;
+        if (type instanceof SliceType)   return Slice.class;
+        if (type instanceof ListType)    return TypeUtils.listClass((ListType) type);
+        return Array.newInstance(hostClass(((ArrayType) type).componentType), 0).getClass();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code value} is a compiled (host) value of the given convertible type: the boxed
+     * equivalent of {@link #hostClass} for scalars ({@code Long} or {@code Double} for {@code
+     * Float}), an instance of {@link #hostClass} otherwise, or {@code null} for reference types.
+     */
+    public static boolean isHostValue (Object value, Type type)
+    {
+        if (type instanceof IntType)   return value instanceof Long;
+        if (type instanceof FloatType) return value instanceof Long || value instanceof Double;
+        if (type instanceof BoolType)  return value instanceof Boolean;
+        return value == null || hostClass(type).isInstance(value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts an interpreter value of the given convertible type to its compiled representation
+     * (the host representation). Arrays that already have that representation (e.g. primitive
+     * arrays) are returned as is, other arrays are copied.
+     */
+    public static Object toHost (Object value, Type type)
+    {
+        if (value == Null.INSTANCE)
+            return null;
+        if (type instanceof FloatType) // may be a Long
+            return ((Number) value).doubleValue();
+        if (!(type instanceof ArrayType) || hostClass(type).isInstance(value))
+            return value;
+
+        Type component = ((ArrayType) type).componentType;
+        Object[] array = (Object[]) value;
+        Object host = Array.newInstance(hostClass(component), array.length);
+        for (int i = 0; i < array.length; ++i)
+            Array.set(host, i, toHost(array[i], component));
+        return host;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Copies the contents of a compiled array back into the interpreter array it was made from. */
+    private static void copyBack (Object host, Object[] array, ArrayType type)
+    {
+        Type component = type.componentType;
+        for (int i = 0; i < array.length; ++i) {
+            Object element = Array.get(host, i);
+            if (element == array[i])
+                continue;
+            if (component instanceof ArrayType && element != null && array[i] instanceof Object[]
+                    && Array.getLength(element) == ((Object[]) array[i]).length)
+                copyBack(element, (Object[]) array[i], (ArrayType) component);
+            else
+                array[i] = toInterpreter(element, component);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts a compiled (host) value of the given type to its interpreter representation.
+     * Primitive arrays are returned as is, other arrays are copied to {@code Object[]}.
+     */
+    public static Object toInterpreter (Object value, Type type)
+    {
+        if (value == null)
+            return type instanceof VoidType ? null : Null.INSTANCE;
+        if (type instanceof FloatType && value instanceof Long)
+            return ((Long) value).doubleValue();
+        if (!(type instanceof ArrayType) || !(value instanceof Object[]))
+            return value;
+
+        Type component = ((ArrayType) type).componentType;
+        Object[] array = new Object[Array.getLength(value)];
+        for (int i = 0; i < array.length; ++i)
+            array[i] = toInterpreter(Array.get(value, i), component);
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "built-in " + name + ": " + type;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,220 @@
+package norswap.sigh.builtins;
+
+import norswap.sigh.BigFloats;
+import norswap.sigh.BigInts;
+import norswap.sigh.Range;
+import norswap.sigh.SighIO;
+import norswap.sigh.SighMath;
+import norswap.sigh.bytecode.SighRuntime;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.BigArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.RangeType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.VoidType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The set of {@link Builtin built-in functions} available to a program. It is passed to {@link
+ * norswap.sigh.SemanticAnalysis#createWalker(norswap.uranium.Reactor, BuiltinRegistry)}, which
+ * declares its functions in the root scope. Both backends then find the built-in from its
+ * declaration (see {@link norswap.sigh.scopes.SyntheticDeclarationNode#builtin()}).
+ *
+ * <p>Host applications can {@link #register} their own (native) functions in a registry obtained
+ * from {@link #standard()}.
+ *
+ * <p>The registry also controls which Java methods programs can bind with {@code extern fun}
+ * declarations: only the public static methods of the classes {@link #allowExtern allowed} by the
+ * host, none by default. Otherwise, any program could call any method of the classpath (e.g.
+ * {@code java.lang.System.exit}).
+ */
+public final class BuiltinRegistry
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final LinkedHashMap<String, Builtin> builtins = new LinkedHashMap<>();
+
+    /** Names of the classes whose methods extern functions can bind to. */
+    private final HashSet<String> externClasses = new HashSet<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new registry containing the standard built-in functions: {@code print}, {@code
+     * hello}, the math functions ({@code sqrt}, {@code pow}, {@code exp}, {@code floor}, {@code
+     * abs}, {@code min}, {@code max} and {@code fma}), which take and return {@code Float} values,
+     * the I/O functions {@code loadFloats}, {@code loadInts}, {@code storeFloats} and {@code
+     * storeInts} (see {@link SighIO}), and the functions that allocate and release big arrays
+     * ({@code bigFloats}, {@code bigInts}, {@code releaseFloats} and {@code releaseInts}, see
+     * {@link norswap.sigh.BigArray}), and {@code range} (see {@link Range}).
+     */
+    public static BuiltinRegistry standard ()
+    {
+        BuiltinRegistry registry = new BuiltinRegistry();
+
+        // the interpreter prints any value (template functions are not fully type-checked)
+        registry.register(new Builtin("print",
+            new FunType(StringType.INSTANCE, StringType.INSTANCE),
+            Builtin.method(SighRuntime.class, "print"),
+            args -> {
+                String out = Interpreter.convertToString(args[0]);
+                System.out.println(out);
+                return out;
+            }));
+        registry.register(new Builtin("hello",
+            new FunType(VoidType.INSTANCE),
+            Builtin.method(SighRuntime.class, "hello")));
+
+        registry.unary("sqrt",  Math::sqrt);
+        registry.binary("pow",  Math::pow);
+        registry.unary("exp",   Math::exp);
+        registry.unary("floor", Math::floor);
+        registry.unary("abs",   Math::abs);
+        registry.binary("min",  Math::min);
+        registry.binary("max",  Math::max);
+
+        // Math.fma is only available from Java 9
+        registry.register(new Builtin("fma",
+            new FunType(FloatType.INSTANCE,
+                FloatType.INSTANCE, FloatType.INSTANCE, FloatType.INSTANCE),
+            Builtin.method(SighMath.class, "fma"),
+            args -> SighMath.fma(toDouble(args[0]), toDouble(args[1]), toDouble(args[2]))));
+
+        ArrayType floats = new ArrayType(FloatType.INSTANCE);
+        ArrayType ints   = new ArrayType(IntType.INSTANCE);
+        registry.io("loadFloats",  new FunType(floats, StringType.INSTANCE));
+        registry.io("loadInts",    new FunType(ints, StringType.INSTANCE));
+        registry.io("storeFloats", new FunType(VoidType.INSTANCE, StringType.INSTANCE, floats));
+        registry.io("storeInts",   new FunType(VoidType.INSTANCE, StringType.INSTANCE, ints));
+
+        registry.register(new Builtin("bigFloats",
+            new FunType(BigArrayType.FLOATS, IntType.INSTANCE),
+            Builtin.method(BigFloats.class, "bigFloats")));
+        registry.register(new Builtin("bigInts",
+            new FunType(BigArrayType.INTS, IntType.INSTANCE),
+            Builtin.method(BigInts.class, "bigInts")));
+        registry.register(new Builtin("releaseFloats",
+            new FunType(VoidType.INSTANCE, BigArrayType.FLOATS),
+            Builtin.method(BigFloats.class, "releaseFloats")));
+        registry.register(new Builtin("releaseInts",
+            new FunType(VoidType.INSTANCE, BigArrayType.INTS),
+            Builtin.method(BigInts.class, "releaseInts")));
+
+        registry.register(new Builtin("range",
+            new FunType(RangeType.INSTANCE, IntType.INSTANCE, IntType.INSTANCE, IntType.INSTANCE),
+            Builtin.method(Range.class, "range")));
+        return registry;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Registers a {@code (Float) -> Float} math function implemented by the {@link Math} method
+     * with the same name, which the JIT compiles to an intrinsic. {@code op} must be a reference to
+     * that method: the interpreter calls it directly on the unboxed argument, bypassing the
+     * generic (reflective) handler.
+     */
+    private void unary (String name, DoubleUnaryOperator op) {
+        register(new Builtin(name,
+            new FunType(FloatType.INSTANCE, FloatType.INSTANCE),
+            mathMethod(name, 1),
+            args -> op.applyAsDouble(toDouble(args[0]))));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Like {@link #unary}, for {@code (Float, Float) -> Float} math functions. */
+    private void binary (String name, DoubleBinaryOperator op) {
+        register(new Builtin(name,
+            new FunType(FloatType.INSTANCE, FloatType.INSTANCE, FloatType.INSTANCE),
+            mathMethod(name, 2),
+            args -> op.applyAsDouble(toDouble(args[0]), toDouble(args[1]))));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the {@link Math} method with the given name and {@code arity} double parameters. */
+    private static Method mathMethod (String name, int arity)
+    {
+        Class<?>[] params = new Class<?>[arity];
+        Arrays.fill(params, double.class);
+        try {
+            return Math.class.getMethod(name, params);
+        } catch (NoSuchMethodException e) {
+            throw new Error(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Unboxes an interpreter {@code Float} argument, which may be a {@code Long}. */
+    private static double toDouble (Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Registers an I/O function implemented by the {@link SighIO} method with the same name. */
+    private void io (String name, FunType type) {
+        register(new Builtin(name, type, Builtin.method(SighIO.class, name)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds a built-in function to the registry, replacing any existing built-in with the same
+     * name. Returns this registry.
+     */
+    public BuiltinRegistry register (Builtin builtin) {
+        builtins.put(builtin.name, builtin);
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the built-in with the given name, or null if there is none. */
+    public Builtin get (String name) {
+        return builtins.get(name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns all the built-in functions, in registration order. */
+    public Collection<Builtin> all () {
+        return Collections.unmodifiableCollection(builtins.values());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Allows extern functions to bind to the public static methods of the given classes. Returns
+     * this registry.
+     */
+    public BuiltinRegistry allowExtern (Class<?>... classes) {
+        for (Class<?> klass: classes)
+            externClasses.add(klass.getName());
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether extern functions can bind to the methods of the class with the given binary name
+     * (as returned by {@link Class#getName}).
+     */
+    public boolean allowsExtern (String className) {
+        return externClasses.contains(className);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,106 @@
+package norswap.sigh.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the values of constant {@code Int} and {@code Float} array literals into strings, which
+ * are stored in the constant pool and decoded by {@link SighRuntime#unpack(long[], int, String)}
+ * and {@link SighRuntime#unpack(double[], int, String)}. This is much more compact than emitting
+ * a store sequence per element, which quickly exceeds the method size limit for large tables.
+ *
+ * <p>Each value is encoded as an unsigned varint in groups of 15 bits, one per char, where the
+ * high bit of the char marks that more groups follow. {@code Int} values are zig-zag encoded so
+ * that small negative numbers stay small. {@code Float} values are encoded as their bit pattern
+ * reversed, so that values with few significant mantissa bits (e.g. {@code 1.5}) stay small.
+ *
+ * <p>Constant pool strings are limited to 65535 bytes in modified UTF-8, so the values are split
+ * into chunks, each encoding a contiguous range of elements.
+ */
+final class ArrayPacker
+{
+    private ArrayPacker () {}
+
+    /** Maximum encoded size of a chunk, leaving some slack under the 65535 bytes limit. */
+    private static final int CHUNK_BYTES = 60_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** A chunk of packed values, starting at index {@code offset} in the array. */
+    static final class Chunk
+    {
+        final int offset;
+        final String data;
+
+        Chunk (int offset, String data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static List<Chunk> pack (long[] values) {
+        long[] encoded = new long[values.length];
+        for (int i = 0; i < values.length; ++i)
+            encoded[i] = (values[i] << 1) ^ (values[i] >> 63); // zig-zag
+        return chunks(encoded);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static List<Chunk> pack (double[] values) {
+        long[] encoded = new long[values.length];
+        for (int i = 0; i < values.length; ++i)
+            encoded[i] = Long.reverse(Double.doubleToRawLongBits(values[i]));
+        return chunks(encoded);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Chunk> chunks (long[] values)
+    {
+        List<Chunk> chunks = new ArrayList<>();
+        StringBuilder b = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+        int bytes = 0;
+        int offset = 0;
+
+        for (int i = 0; i < values.length; ++i) {
+            value.setLength(0);
+            long v = values[i];
+            do {
+                int group = (int) (v & 0x7FFF);
+                v >>>= 15;
+                if (v != 0) group |= 0x8000;
+                value.append((char) group);
+            } while (v != 0);
+
+            int size = utf8Size(value);
+            if (bytes + size > CHUNK_BYTES) {
+                chunks.add(new Chunk(offset, b.toString()));
+                b.setLength(0);
+                bytes = 0;
+                offset = i;
+            }
+            b.append(value);
+            bytes += size;
+        }
+
+        chunks.add(new Chunk(offset, b.toString()));
+        return chunks;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Size of the string in the modified UTF-8 encoding used by the constant pool. */
+    private static int utf8Size (CharSequence string)
+    {
+        int size = 0;
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            size += c == 0 ? 2 : c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return size;
+    }
+}
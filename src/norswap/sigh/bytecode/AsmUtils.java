@@ -154,6 +154,35 @@ public final class AsmUtils {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the conditional jump opcode that jumps when {@code opcode} doesn't (e.g. {@link
+     * Opcodes#IFGE} for {@link Opcodes#IFLT}), or -1 if {@code opcode} isn't a conditional jump.
+     */
+    public static int invertJump (int opcode)
+    {
+        switch (opcode) {
+            case IFEQ:      return IFNE;
+            case IFNE:      return IFEQ;
+            case IFLT:      return IFGE;
+            case IFGE:      return IFLT;
+            case IFGT:      return IFLE;
+            case IFLE:      return IFGT;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            case IF_ICMPLE: return IF_ICMPGT;
+            case IF_ACMPEQ: return IF_ACMPNE;
+            case IF_ACMPNE: return IF_ACMPEQ;
+            case IFNULL:    return IFNONNULL;
+            case IFNONNULL: return IFNULL;
+            default:        return -1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private static final HashMap<Object, Integer> CONSTANTS = new HashMap<>();
     static {
         CONSTANTS.put(-1, ICONST_M1);
@@ -1,5 +1,7 @@
 package norswap.sigh.bytecode;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A class loader with the ability to load class from bytecode arrays.
  */
@@ -29,4 +31,35 @@ public final class ByteArrayClassLoader extends ClassLoader
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    /** Maps the (dot-separated) binary name of source unit classes to their {@link LazyUnit}. */
+    private final ConcurrentHashMap<String, LazyUnit> lazyUnits = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the lazy unit, so that the functions of its source unit can be compiled and
+     * loaded in this class loader when first used.
+     */
+    void register (LazyUnit unit) {
+        lazyUnits.put(unit.binaryName, unit);
+    }
+
+    /**
+     * Returns the lazy unit registered for the source unit class with the given (dot-separated)
+     * binary name.
+     */
+    LazyUnit lazyUnit (String binaryName) {
+        LazyUnit unit = lazyUnits.get(binaryName);
+        if (unit == null) throw new IllegalStateException("no lazy unit for " + binaryName);
+        return unit;
+    }
+
+    /**
+     * Returns the class with the given (dot-separated) binary name if it was already defined by
+     * this class loader, or null.
+     */
+    Class<?> loadedClass (String binaryName) {
+        return findLoadedClass(binaryName);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
\ No newline at end of file
@@ -1,7 +1,15 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.BigArray;
+import norswap.sigh.BigFloats;
+import norswap.sigh.BigInts;
+import norswap.sigh.Range;
+import norswap.sigh.SighList;
+import norswap.sigh.Slice;
 import norswap.sigh.ast.*;
+import norswap.sigh.builtins.Builtin;
 import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.sigh.types.*;
@@ -13,11 +21,21 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static norswap.sigh.ast.BinaryOperator.*;
@@ -28,12 +46,52 @@ import static norswap.sigh.bytecode.TypeUtils.*;
 import static org.objectweb.asm.Opcodes.*;
 
 /**
- * <h2>Limitations</h2>
+ * <h2>Closures</h2>
  * <ul>
- *     <li>The compiled code currently doesn't support closures (using variables in functions that
- *     are declared in some surroudning scopes outside the function).</li>
+ *     <li>Top-level variables are compiled to static fields of the container class.</li>
+ *     <li>Variables that are used in functions nested in the function that declares them (see the
+ *     {@code captured} attribute in {@link norswap.sigh.SemanticAnalysis}) are stored in a box: a
+ *     one-element array of the variable's representation (e.g. {@code long[]} for {@code Int}).
+ *     All other variables are plain JVM locals.</li>
+ *     <li>Functions are compiled to static methods of the container class. The boxes for the
+ *     function's captures ({@code captures} attribute) are passed as leading parameters, before
+ *     the declared parameters. When the function is used as a value, these leading parameters
+ *     are bound with {@link java.lang.invoke.MethodHandles#insertArguments}.</li>
  * </ul>
  *
+ * <h2>Function Values</h2>
+ * <p>Calls to a declared function or structure constructor are compiled to direct invocations.
+ * All other calls (through a variable, parameter, field or any expression evaluating to a
+ * function) are compiled to an {@code invokedynamic} instruction whose call site is linked by
+ * {@link SighRuntime#bootstrapCall}. The function value is passed as the first argument,
+ * followed by the arguments of the call.
+ *
+ * <h2>Built-in and Extern Functions</h2>
+ * <p>Calls to built-in functions (see {@link norswap.sigh.builtins.Builtin}) and {@code extern}
+ * functions are compiled to an {@code invokestatic} of the Java method implementing them, and
+ * using them as values loads a constant handle to that method.
+ *
+ * <h2>Tail Calls</h2>
+ * <p>A return statement whose value is a direct call of the enclosing function to itself (see the
+ * {@code tailCall} attribute in {@link norswap.sigh.SemanticAnalysis}) does not emit a call:
+ * the new arguments are stored in the parameter locals and control jumps back to the start of
+ * the method, so that such recursions run in constant stack space.
+ *
+ * <h2>Lazy Compilation</h2>
+ * <p>In lazy mode, top-level functions are not emitted in the container class. Each direct call
+ * to such a function, and each use of such a function as a value, is compiled to an {@code
+ * invokedynamic} instruction linked by {@link SighRuntime#bootstrapFunction} or {@link
+ * SighRuntime#bootstrapFunctionValue}, which compile the function into its own class on first
+ * use (see {@link LazyUnit}). Top-level variables are then package-private rather than private,
+ * so that these classes can access them.
+ *
+ * <h2>Parallel Compilation</h2>
+ * <p>If the compiler is given a thread pool, each top-level function and structure is compiled
+ * on the pool by its own compiler instance (a compilation context, with its own current method,
+ * locals and emitted members), which only reads the (immutable) semantic analysis results. The
+ * emitted members are then spliced into the unit in source order, so that the output is
+ * byte-for-byte identical to that of sequential compilation.
+ *
  * <h2>Data Representation</h2>
  * <ul>
  *     <li>{@code Int}, {@code Float}, {@code Bool}: {@code long}, {@code double}, {@code boolean}
@@ -41,12 +99,14 @@ import static org.objectweb.asm.Opcodes.*;
  *     in type descriptors)</li>
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link norswap.sigh.bytecode.Null#INSTANCE}</li>
- *     <li>Arrays: proper array type for the representation of the component. For multi-dimension
- *     arrays, object arrays (e.g. {@code Object[][]}).</li>
+ *     <li>Arrays: proper array type for the representation of the component, including for
+ *     nested arrays (e.g. {@code long[][]} for {@code Int[][]}). Large constant {@code Int} and
+ *     {@code Float} array literals are packed into string constants (see {@link ArrayPacker}), and
+ *     those evaluated repeatedly are copied from a template held in a static field.</li>
  *     <li>Structs: A Java class encoding the structure, in the default package and using the
  *     structure's name.</li>
- *     <li>TODO: Functions: a {@link MethodHandle} to the method that implements the function in
- *     bytecode.</li>
+ *     <li>Functions: a {@link MethodHandle} to the method that implements the function in
+ *     bytecode (with captures bound), or to the constructor of the structure class.</li>
  *     <li>Types: the {@link Class} object for the type representation. {@code Type} itself (the
  *     type of types) is represented by {@code Class.class}.</li>
  * </ul>
@@ -72,7 +132,6 @@ public class BytecodeCompiler
     // TODO: prune util classes?
     // TODO: add a top type, and make print take it and convert
     //       (further: is operator, casts, flow casts)
-    // TODO: function objects
     // TODO: simplify with https://asm.ow2.io/javadoc/org/objectweb/asm/commons/GeneratorAdapter.html ?
 
     // ---------------------------------------------------------------------------------------------
@@ -80,10 +139,56 @@ public class BytecodeCompiler
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
     private final Reactor reactor;
 
+    /** Whether to run the {@link PeepholeOptimizer} over the methods of the container class. */
+    private final boolean optimize;
+
+    /** Whether to compile top-level functions on demand, see {@link LazyUnit}. */
+    private final boolean lazy;
+
+    /** Pool on which to compile top-level functions and structures, or null to compile them
+     * sequentially. */
+    private final ExecutorService pool;
+
     // ---------------------------------------------------------------------------------------------
 
     public BytecodeCompiler (Reactor reactor) {
+        this(reactor, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compiler, which will run the {@link PeepholeOptimizer} over the emitted methods
+     * of the container class if {@code optimize} is true.
+     */
+    public BytecodeCompiler (Reactor reactor, boolean optimize) {
+        this(reactor, optimize, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compiler, which will run the {@link PeepholeOptimizer} over the emitted methods
+     * if {@code optimize} is true, and will compile top-level functions on demand (see {@link
+     * LazyUnit}) if {@code lazy} is true.
+     */
+    public BytecodeCompiler (Reactor reactor, boolean optimize, boolean lazy) {
+        this(reactor, optimize, lazy, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #BytecodeCompiler(Reactor, boolean, boolean)}, but if {@code pool} is not
+     * null, top-level functions and structures are compiled in parallel on the pool (see the class
+     * documentation). The pool is not shut down by the compiler.
+     */
+    public BytecodeCompiler (Reactor reactor, boolean optimize, boolean lazy, ExecutorService pool)
+    {
         this.reactor = reactor;
+        this.optimize = optimize;
+        this.lazy = lazy;
+        this.pool = pool;
 
         // expressions
         visitor.register(IntLiteralNode.class,           this::intLiteral);
@@ -95,6 +200,8 @@ public class BytecodeCompiler
         visitor.register(ParenthesizedNode.class,        this::parenthesized);
         visitor.register(FieldAccessNode.class,          this::fieldAccess);
         visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(SliceNode.class,                this::slice);
+        visitor.register(ListConstructorNode.class,      this::listConstructor);
         visitor.register(FunCallNode.class,              this::funCall);
         visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
         visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
@@ -108,6 +215,7 @@ public class BytecodeCompiler
         visitor.register(ParameterNode.class,            this::parameter);
         visitor.register(FunDeclarationNode.class,       this::funDecl);
         visitor.register(StructDeclarationNode.class,    this::structDecl);
+        visitor.register(ExternFunDeclarationNode.class, node -> null); // bound in #funCall
 
         // statements
         visitor.register(ExpressionStatementNode.class,  this::expressionStmt);
@@ -120,10 +228,20 @@ public class BytecodeCompiler
 
     /* Slash-separated binary class name for the class containing the emitted bytecode for the source
      * unit. */
+    private String unitName;
+
+    /* Slash-separated binary class name for the class being emitted: either the class for the
+     * source unit, or the class for a lazily compiled function. */
     private String containerName;
 
-    /* Class visitor for the class containing the emitted bytecode for the source unit. */
-    private ClassWriter container;
+    /* Class being emitted, buffered as a tree until it is complete (see {@link #bytes}). */
+    private ClassNode container;
+
+    /** In lazy mode, the top-level functions whose compilation is deferred, indexed by name. */
+    private final HashMap<String, FunDeclarationNode> lazyFunctions = new HashMap<>();
+
+    /** In lazy mode, the top-level function being compiled, see {@link #compileFunction}. */
+    private FunDeclarationNode lazyFunction;
 
     /* Class writer for the class representing the struct currently being emitted. */
     private ClassWriter struct;
@@ -135,6 +253,9 @@ public class BytecodeCompiler
     /* MethodVisitor for current method. */
     private MethodVisitor method;
 
+    /** Peephole optimization reports for the methods emitted so far, see {@link #endMethod}. */
+    private final ArrayList<PeepholeOptimizer.Report> optimizations = new ArrayList<>();
+
     /** Maps variables in a scope to a variable index. */
     private final HashMap<Pair<Scope, String>, Integer> variables = new HashMap<>();
 
@@ -144,6 +265,43 @@ public class BytecodeCompiler
     /** Whether we are in top-level code. */
     private boolean topLevel;
 
+    /** Return type of the function being compiled, if not in top-level code. */
+    private Type returnType;
+
+    /** Start of the function being compiled, the target of self tail calls. */
+    private Label functionStart;
+
+    /** Locals holding the parameters of the function being compiled, when it is entered. */
+    private int[] parameterSlots;
+
+    /** {@code Int} variables stored in {@code int} locals, see {@link InductionVariables}. */
+    private Set<VarDeclarationNode> intVariables;
+
+    /** Number of loops surrounding the code being compiled, within the current method. */
+    private int loopDepth = 0;
+
+    /** Static initializer of the container class, created when the first array is hoisted. */
+    private MethodNode classInit;
+
+    /** Prefix of the names of the static fields holding hoisted array literals. These are
+     * numbered separately for each top-level function, so that the names do not depend on the
+     * order in which the functions are compiled. */
+    private String arrayPrefix = "$array$";
+
+    /** Counter used to name the static fields holding hoisted array literals. */
+    private int arrayCounter = 0;
+
+    /** Top-level functions and structures being compiled on the {@link #pool}. */
+    private final ArrayList<Segment> segments = new ArrayList<>();
+
+    /** Constant array literals with at least this many elements are hoisted out of functions and
+     * loops, see {@link #arrayLiteral(ArrayLiteralNode, ArrayType)}. */
+    private static final int HOIST_THRESHOLD = 8;
+
+    /** Constant array literals with at least this many elements are packed into strings, see
+     * {@link ArrayPacker}. */
+    private static final int PACK_THRESHOLD = 32;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -152,14 +310,64 @@ public class BytecodeCompiler
      */
     public CompilationResult compile (String binaryName, SighNode root)
     {
-        this.containerName = binaryName.replace('.', '/');
+        this.unitName = binaryName.replace('.', '/');
+        this.containerName = unitName;
+        this.intVariables = InductionVariables.find(reactor, root);
         run(root);
-        GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
+        GeneratedClass mainClass = new GeneratedClass(containerName, bytes(container));
         List<GeneratedClass> structClasses = structs.stream()
             .map(it -> new GeneratedClass(it.a, it.b.toByteArray()))
             .collect(Collectors.toList());
 
-        return new CompilationResult(mainClass, structClasses);
+        LazyUnit lazyUnit = lazy ? new LazyUnit(binaryName, this) : null;
+        return new CompilationResult(mainClass, structClasses, optimizations, lazyUnit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * In lazy mode, whether the source unit has a top-level function with the given name.
+     */
+    synchronized boolean hasLazyFunction (String name) {
+        return lazyFunctions.containsKey(name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * In lazy mode, compiles the top-level function with the given name into its own class, and
+     * returns the classes for the structures declared in the function, followed by that class.
+     * Must be called after {@link #compile}.
+     */
+    synchronized List<GeneratedClass> compileFunction (String name)
+    {
+        FunDeclarationNode decl = lazyFunctions.get(name);
+        int structCount = structs.size();
+
+        containerName = unitName + "$" + name;
+        container = new ClassNode();
+        container.visit(V1_8, ACC_PUBLIC | ACC_FINAL, containerName, null, "java/lang/Object", null);
+        classInit = null;
+        lazyFunction = decl;
+        run(decl);
+        endClass();
+
+        List<GeneratedClass> classes = structs.subList(structCount, structs.size()).stream()
+            .map(it -> new GeneratedClass(it.a, it.b.toByteArray()))
+            .collect(Collectors.toList());
+        classes.add(new GeneratedClass(containerName, bytes(container)));
+        return classes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the bytecode for a class, computing its stack map frames.
+     */
+    private static byte[] bytes (ClassNode klass) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        klass.accept(writer);
+        return writer.toByteArray();
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -172,11 +380,11 @@ public class BytecodeCompiler
 
     private Object root (RootNode node)
     {
-        container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        container = new ClassNode();
         container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
 
         // Top-level code belongs in the run method.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
+        method = new MethodNode(ASM5, ACC_PUBLIC | ACC_STATIC, "run",
             "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
         method.visitCode();
         topLevel = true;
@@ -184,13 +392,11 @@ public class BytecodeCompiler
         // append "return null;" since we do not know if top-level code always returns
         loadConstant(method, null);
         method.visitInsn(ARETURN);
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
-        container.visitEnd();
+        endMethod();
 
         // Traditional java main method to run standalone.
         // This just calls run, ignoring its return value.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "main",
+        method = new MethodNode(ASM5, ACC_PUBLIC | ACC_STATIC, "main",
             "([Ljava/lang/String;)V", null, null);
         method.visitCode();
         method.visitVarInsn(ALOAD, 0);
@@ -198,27 +404,220 @@ public class BytecodeCompiler
             "run", "([Ljava/lang/String;)Ljava/lang/Object;", false);
         method.visitInsn(POP);
         method.visitInsn(RETURN); // explicitly necessary
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
-        container.visitEnd();
+        endMethod();
+        mergeSegments();
+        endClass();
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * A top-level function or structure compiled on the {@link #pool} by its own compilation
+     * context, along with the position in the unit where its output must be spliced.
+     */
+    private static final class Segment
+    {
+        final Future<BytecodeCompiler> context;
+        final int fieldIndex, methodIndex, classInitIndex, structIndex, reportIndex;
+
+        Segment (Future<BytecodeCompiler> context, int fieldIndex, int methodIndex,
+                 int classInitIndex, int structIndex, int reportIndex) {
+            this.context = context;
+            this.fieldIndex = fieldIndex;
+            this.methodIndex = methodIndex;
+            this.classInitIndex = classInitIndex;
+            this.structIndex = structIndex;
+            this.reportIndex = reportIndex;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compilation context for compiling a top-level declaration on the {@link #pool}.
+     */
+    private BytecodeCompiler (BytecodeCompiler unit)
+    {
+        this(unit.reactor, unit.optimize, unit.lazy, null);
+        this.unitName = unit.unitName;
+        this.containerName = unit.containerName;
+        this.intVariables = unit.intVariables;
+        this.container = new ClassNode();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether top-level declarations are compiled on the {@link #pool}: only when compiling the
+     * unit itself, and not when compiling a function in lazy mode.
+     */
+    private boolean isForking () {
+        return pool != null && lazyFunction == null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Schedules the compilation of a top-level function or structure on the {@link #pool}.
+     */
+    private void fork (DeclarationNode node)
+    {
+        BytecodeCompiler context = new BytecodeCompiler(this);
+        segments.add(new Segment(
+            pool.submit(() -> { context.run(node); return context; }),
+            container.fields.size(),
+            container.methods.size(),
+            classInit == null ? 0 : classInit.instructions.size(),
+            structs.size(),
+            optimizations.size()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Waits for the compilation of the {@link #segments} and splices their output in the unit.
+     * Segments are processed last to first, so that the recorded indices stay valid.
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeSegments ()
+    {
+        for (int i = segments.size() - 1; i >= 0; --i) {
+            Segment segment = segments.get(i);
+            BytecodeCompiler context;
+            try {
+                context = segment.context.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new Error(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Error(e);
+            }
+
+            ((List<FieldNode>)  container.fields) .addAll(segment.fieldIndex,  context.container.fields);
+            ((List<MethodNode>) container.methods).addAll(segment.methodIndex, context.container.methods);
+            structs.addAll(segment.structIndex, context.structs);
+            optimizations.addAll(segment.reportIndex, context.optimizations);
+
+            if (context.classInit != null) {
+                if (classInit == null) {
+                    classInit = new MethodNode(ASM5, ACC_STATIC, "<clinit>", "()V", null, null);
+                    classInit.visitCode();
+                }
+                InsnList instructions = context.classInit.instructions;
+                if (segment.classInitIndex == classInit.instructions.size())
+                    classInit.instructions.add(instructions);
+                else
+                    classInit.instructions.insertBefore(
+                        classInit.instructions.get(segment.classInitIndex), instructions);
+            }
+        }
+        segments.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Completes the container class, emitting its static initializer if needed.
+     */
+    private void endClass ()
+    {
+        if (classInit != null) {
+            method = classInit;
+            method.visitInsn(RETURN);
+            endMethod();
+        }
+        container.visitEnd();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Completes the current method (a {@link MethodNode} buffering the emitted instructions),
+     * optimizes it if enabled, and writes it to the container class.
+     */
+    private void endMethod ()
+    {
+        MethodNode node = (MethodNode) method;
+        node.visitMaxs(-1, -1);
+        node.visitEnd();
+        if (optimize)
+            optimizations.add(PeepholeOptimizer.optimize(node));
+        node.accept(container);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funDecl (FunDeclarationNode node)
     {
+        if (isLazy(node) && node != lazyFunction) {
+            lazyFunctions.put(node.name, node);
+            return null;
+        }
+
+        boolean isTopLevelFunction = reactor.<Scope>get(node, "scope").parent instanceof RootScope;
+
+        if (isForking() && isTopLevelFunction) {
+            fork(node);
+            return null;
+        }
+
+        String surroundingArrayPrefix = arrayPrefix;
+        int surroundingArrayCounter = arrayCounter;
+        if (isTopLevelFunction) {
+            arrayPrefix = "$array$" + node.name + "$";
+            arrayCounter = 0;
+        }
+
         int surroundingVariableCounter = variableCounter;
         MethodVisitor surroundingMethod = method;
         boolean surroundingIsTopLevel = topLevel;
+        Type surroundingReturnType = returnType;
+        int surroundingLoopDepth = loopDepth;
 
         variableCounter = 0;
+        loopDepth = 0;
         topLevel = false;
+        returnType = reactor.<FunType>get(node, "type").returnType;
+
+        // The captured boxes are registered under the key of the original variables, shadowing
+        // the surrounding function's entries until we are done with this function.
+        List<DeclarationNode> captures = reactor.get(node, "captures");
+        HashMap<Pair<Scope, String>, Integer> shadowed = new HashMap<>();
+        for (DeclarationNode capture: captures) {
+            Pair<Scope, String> key = variableKey(capture);
+            shadowed.put(key, variables.get(key));
+            registerVariable(capture, BOX);
+        }
+
         node.parameters.forEach(this::run);
 
-        String descriptor = methodDescriptor(reactor.get(node, "type"));
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
+        String descriptor = functionDescriptor(node);
+        method = new MethodNode(ASM5, ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
         method.visitCode();
+
+        Label surroundingFunctionStart = functionStart;
+        int[] surroundingParameterSlots = parameterSlots;
+        functionStart = new Label();
+        method.visitLabel(functionStart);
+        parameterSlots = node.parameters.stream()
+            .mapToInt(param -> variables.get(variableKey(param)))
+            .toArray();
+
+        for (ParameterNode param: node.parameters) {
+            if (!isCaptured(param)) continue;
+            org.objectweb.asm.Type type = nodeAsmType(param);
+            int index = variables.get(variableKey(param));
+            newBox(reactor.get(param, "type"));
+            method.visitInsn(DUP);
+            loadConstant(method, 0);
+            method.visitVarInsn(type.getOpcode(ILOAD), index);
+            method.visitInsn(type.getOpcode(IASTORE));
+            method.visitVarInsn(ASTORE, registerVariable(param, BOX));
+        }
+
         run(node.block);
 
         // NOTE: The current semantic analysis check guarantee that there is we unconditionally
@@ -229,12 +628,22 @@ public class BytecodeCompiler
         if (descriptor.endsWith("V"))
             method.visitInsn(RETURN);
 
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
+        endMethod();
+
+        shadowed.forEach((key, index) -> {
+            if (index == null) variables.remove(key);
+            else variables.put(key, index);
+        });
 
         method = surroundingMethod;
         variableCounter = surroundingVariableCounter;
         topLevel = surroundingIsTopLevel;
+        returnType = surroundingReturnType;
+        functionStart = surroundingFunctionStart;
+        parameterSlots = surroundingParameterSlots;
+        loopDepth = surroundingLoopDepth;
+        arrayPrefix = surroundingArrayPrefix;
+        arrayCounter = surroundingArrayCounter;
         return null;
     }
 
@@ -263,12 +672,135 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object arrayLiteral (ArrayLiteralNode node)
+    private Object arrayLiteral (ArrayLiteralNode node) {
+        arrayLiteral(node, reactor.get(node, "type"));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits an array literal as an array of the given type, which the literal's type must be
+     * assignable to. Components are converted to the component type, and nested array literals are
+     * allocated with their exact type (e.g. {@code long[][]} for {@code Int[][]}).
+     *
+     * <p>Constant {@code Int} and {@code Float} array literals of at least {@link #HOIST_THRESHOLD}
+     * elements that may be evaluated repeatedly (in a function or a loop) are built once in the
+     * static initializer, and each evaluation copies this template.
+     */
+    private void arrayLiteral (ArrayLiteralNode node, ArrayType type)
+    {
+        if (isConstantArray(node, type)
+                && node.components.size() >= HOIST_THRESHOLD
+                && (!topLevel || loopDepth > 0)) {
+            String field = arrayPrefix + arrayCounter++;
+            String descriptor = fieldDescriptor(type);
+            container.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, field, descriptor, null, null)
+                .visitEnd();
+
+            MethodVisitor surroundingMethod = method;
+            if (classInit == null) {
+                classInit = new MethodNode(ASM5, ACC_STATIC, "<clinit>", "()V", null, null);
+                classInit.visitCode();
+            }
+            method = classInit;
+            buildArray(node, type);
+            method.visitFieldInsn(PUTSTATIC, containerName, field, descriptor);
+            method = surroundingMethod;
+
+            method.visitFieldInsn(GETSTATIC, containerName, field, descriptor);
+            invokeStatic(method, SighRuntime.class, "copy", javaClass(type));
+            return;
+        }
+
+        buildArray(node, type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the literal is an {@code Int} or {@code Float} array whose components are all
+     * number literals.
+     */
+    private static boolean isConstantArray (ArrayLiteralNode node, ArrayType type)
+    {
+        if (!(type.componentType instanceof IntType || type.componentType instanceof FloatType))
+            return false;
+        for (ExpressionNode component: node.components)
+            if (!(component instanceof IntLiteralNode || component instanceof FloatLiteralNode))
+                return false;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the code to allocate and fill the array for an array literal. Constant literals of at
+     * least {@link #PACK_THRESHOLD} elements are decoded from strings (see {@link ArrayPacker})
+     * instead of being stored element by element.
+     */
+    private void buildArray (ArrayLiteralNode node, ArrayType type)
     {
-        ArrayType type = reactor.get(node, "type");
-        Type compType = type.componentType;
+        if (isConstantArray(node, type) && node.components.size() >= PACK_THRESHOLD) {
+            loadConstant(method, node.components.size());
+            newArray(type.componentType);
+            List<ArrayPacker.Chunk> chunks = packArray(node, type);
+            for (ArrayPacker.Chunk chunk: chunks) {
+                method.visitInsn(DUP); // duplicate the array
+                loadConstant(method, chunk.offset);
+                method.visitLdcInsn(chunk.data);
+                invokeStatic(method, SighRuntime.class, "unpack",
+                    javaClass(type), int.class, String.class);
+            }
+            return;
+        }
+
+        loadConstant(method, node.components.size());
+        int storeOpcode = newArray(type.componentType);
+
+        int i = 0;
+        for (ExpressionNode component: node.components) {
+            method.visitInsn(DUP); // duplicate the array
+            loadConstant(method, i++);
+            runAs(component, type.componentType);
+            method.visitInsn(storeOpcode);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        method.visitLdcInsn(node.components.size());
+    /**
+     * Packs the values of a constant array literal (see {@link #isConstantArray}).
+     */
+    private static List<ArrayPacker.Chunk> packArray (ArrayLiteralNode node, ArrayType type)
+    {
+        int size = node.components.size();
+
+        if (type.componentType instanceof IntType) {
+            long[] values = new long[size];
+            for (int i = 0; i < size; ++i)
+                values[i] = ((IntLiteralNode) node.components.get(i)).value;
+            return ArrayPacker.pack(values);
+        }
+
+        double[] values = new double[size];
+        for (int i = 0; i < size; ++i) {
+            ExpressionNode component = node.components.get(i);
+            values[i] = component instanceof IntLiteralNode
+                ? ((IntLiteralNode) component).value
+                : ((FloatLiteralNode) component).value;
+        }
+        return ArrayPacker.pack(values);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the instruction to allocate an array whose component is the given Sigh {@link Type},
+     * and whose size is at the top of the stack. Returns the opcode used to store into the array.
+     */
+    private int newArray (Type compType)
+    {
         int storeOpcode = AASTORE;
 
         if (compType instanceof IntType) {
@@ -285,26 +817,22 @@ public class BytecodeCompiler
         } else if (compType instanceof TypeType) {
             method.visitTypeInsn(ANEWARRAY, "norswap/sigh/types/TypeType");
         } else if (compType instanceof FunType) {
-            throw new UnsupportedOperationException("TODO"); // TODO
+            method.visitTypeInsn(ANEWARRAY, "java/lang/invoke/MethodHandle");
         } else if (compType instanceof NullType) {
             method.visitTypeInsn(ANEWARRAY, "norswap/sigh/bytecode/Null");
-        } else if (compType instanceof VoidType || compType instanceof ArrayType) {
-            // Sigh does not have a syntax for multi-dimensional arrays, so use an array of
-            // Object that we'll be able to cast to array themselves.
+        } else if (compType instanceof ArrayType) {
+            // nested arrays are precisely typed, e.g. [[J for Int[][]
+            method.visitTypeInsn(ANEWARRAY, fieldDescriptor(compType));
+        } else if (compType instanceof BigArrayType || compType instanceof RangeType
+                || compType instanceof SliceType || compType instanceof ListType) {
+            method.visitTypeInsn(ANEWARRAY, asmType(compType).getInternalName());
+        } else if (compType instanceof VoidType) {
             method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
         } else if (compType instanceof StructType) {
             method.visitTypeInsn(ANEWARRAY, structBinaryName((StructType) compType));
         }
 
-        int i = 0;
-        for (ExpressionNode component: node.components) {
-            method.visitInsn(DUP); // duplicate the array
-            loadConstant(method, i++);
-            run(component);
-            method.visitInsn(storeOpcode);
-        }
-
-        return null;
+        return storeOpcode;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -319,6 +847,19 @@ public class BytecodeCompiler
         Type left  = reactor.get(node.left, "type");
         Type right = reactor.get(node.right, "type");
 
+        if ((left instanceof BigArrayType || right instanceof BigArrayType)
+                && (node.operator == DOT_PRODUCT || node.operator == MULTIPLY
+                    || node.operator == DIVIDE))
+            return bigArrayOperation(node, left, right);
+
+        if ((left instanceof RangeType || right instanceof RangeType) && node.operator == DOT_PRODUCT)
+            return rangeDotProduct(node, left, right);
+
+        if ((left instanceof SliceType || right instanceof SliceType)
+                && (node.operator == DOT_PRODUCT || node.operator == MULTIPLY
+                    || node.operator == DIVIDE))
+            return sliceOperation(node, left, right);
+
         // promote long to double for mixed operations
         if (enablesPromotion(node.operator) && left instanceof IntType && right instanceof FloatType)
             method.visitInsn(L2D);
@@ -347,17 +888,12 @@ public class BytecodeCompiler
             case SUBTRACT:  numOperation(LSUB, DSUB, left, right); break;
 
             case EQUALITY:
-                comparison(node.operator, IFEQ, IF_ICMPEQ, IF_ACMPEQ, left, right); break;
             case NOT_EQUALS:
-                comparison(node.operator, IFNE, IF_ICMPNE, IF_ACMPNE, left, right); break;
             case GREATER:
-                comparison(node.operator, IFGT, -1, -1, left, right); break;
             case LOWER:
-                comparison(node.operator, IFLT, -1, -1, left, right); break;
             case GREATER_EQUAL:
-                comparison(node.operator, IFGE, -1, -1, left, right); break;
             case LOWER_EQUAL:
-                comparison(node.operator, IFLE, -1, -1, left, right); break;
+                comparison(node.operator, left, right); break;
 
             // default: throw an exception
         }
@@ -367,6 +903,120 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits the dot product of two big arrays, or the product or division of a big array by a
+     * scalar, as a call to {@link BigArray} or {@link BigInts}. The left operand has already been
+     * evaluated.
+     */
+    private Object bigArrayOperation (BinaryExpressionNode node, Type left, Type right)
+    {
+        Type result = reactor.get(node, "type");
+
+        if (node.operator == DOT_PRODUCT) {
+            run(node.right);
+            if (result instanceof IntType)
+                invokeStatic(method, BigInts.class, "dot", BigInts.class, BigInts.class);
+            else
+                invokeStatic(method, BigArray.class, "dot", BigArray.class, BigArray.class);
+            return null;
+        }
+
+        boolean arrayLeft = left instanceof BigArrayType;
+        Type scalar = arrayLeft ? right : left;
+        boolean integral = result == BigArrayType.INTS;
+
+        if (arrayLeft)
+            runAs(node.right, integral ? IntType.INSTANCE : FloatType.INSTANCE);
+        else {
+            if (!integral && scalar instanceof IntType)
+                method.visitInsn(L2D);
+            run(node.right);
+        }
+
+        if (node.operator == MULTIPLY) {
+            if (!arrayLeft) { // swap the scalar (two slots) and the array
+                method.visitInsn(DUP_X2);
+                method.visitInsn(POP);
+            }
+            if (integral)
+                invokeStatic(method, BigInts.class, "times", BigInts.class, long.class);
+            else
+                invokeStatic(method, BigArray.class, "times", BigArray.class, double.class);
+        }
+        else if (arrayLeft)
+            invokeStatic(method, BigArray.class, "divide", BigArray.class, double.class);
+        else
+            invokeStatic(method, BigArray.class, "divide", double.class, BigArray.class);
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the dot product of a range with an array or another range, as a call to {@link
+     * Range#dot}. The left operand has already been evaluated.
+     */
+    private Object rangeDotProduct (BinaryExpressionNode node, Type left, Type right)
+    {
+        run(node.right);
+        if (!(left instanceof RangeType))
+            method.visitInsn(SWAP); // the range comes first
+        Type other = left instanceof RangeType ? right : left;
+        invokeStatic(method, Range.class, "dot", Range.class, javaClass(other));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the dot product of a slice with an array or another slice, or the product or division
+     * of a slice by a scalar, as a call to {@link Slice}. The left operand has already been
+     * evaluated.
+     */
+    private Object sliceOperation (BinaryExpressionNode node, Type left, Type right)
+    {
+        Type result = reactor.get(node, "type");
+
+        if (node.operator == DOT_PRODUCT) {
+            run(node.right);
+            if (result instanceof IntType)
+                invokeStatic(method, Slice.class, "dotInts", Object.class, Object.class);
+            else
+                invokeStatic(method, Slice.class, "dot", Object.class, Object.class);
+            return null;
+        }
+
+        boolean sliceLeft = left instanceof SliceType;
+        Type scalar = sliceLeft ? right : left;
+        boolean integral = ((ArrayType) result).componentType instanceof IntType;
+
+        if (sliceLeft)
+            runAs(node.right, integral ? IntType.INSTANCE : FloatType.INSTANCE);
+        else {
+            if (!integral && scalar instanceof IntType)
+                method.visitInsn(L2D);
+            run(node.right);
+        }
+
+        if (node.operator == MULTIPLY) {
+            if (!sliceLeft) { // swap the scalar (two slots) and the slice
+                method.visitInsn(DUP_X2);
+                method.visitInsn(POP);
+            }
+            invokeStatic(method, Slice.class, "times", Slice.class,
+                integral ? long.class : double.class);
+        }
+        else if (sliceLeft)
+            invokeStatic(method, Slice.class, "divide", Slice.class, double.class);
+        else
+            invokeStatic(method, Slice.class, "divide", double.class, Slice.class);
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private boolean enablesPromotion (BinaryOperator op) {
         return isArithmetic(op) || isComparison(op) || isEquality(op);
     }
@@ -424,11 +1074,17 @@ public class BytecodeCompiler
                 invokeStatic(method, Arrays.class, "toString", javaArrayClass(component));
             else
                 invokeStatic(method, Arrays.class, "deepToString", Object[].class);
+        } else if (type instanceof BigArrayType || type instanceof RangeType
+                || type instanceof SliceType || type instanceof ListType) {
+            // String.valueOf -> BigArray#toString, Range#toString, Slice#toString or
+            // SighList#toString
+            invokeStatic(method, String.class, "valueOf", Object.class);
         } else if (type instanceof TypeType) {
             // String.valueOf -> Type#toString -> Type#name
             invokeStatic(method, String.class, "valueOf", Object.class);
         } else if (type instanceof FunType) {
-            throw new UnsupportedOperationException("TODO"); // TODO
+            // String.valueOf -> MethodHandle#toString
+            invokeStatic(method, String.class, "valueOf", Object.class);
         } else if (type instanceof StructType) {
             // String.valueOf -> Object#toString (or override)
             invokeStatic(method, String.class, "valueOf", Object.class);
@@ -454,44 +1110,153 @@ public class BytecodeCompiler
         } else {
             throw new Error("unexpected numeric operation type combination: " + left + ", " + right);
         }
-    }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the comparison of the two operands at the top of the stack, leaving a boolean.
+     */
+    private void comparison (BinaryOperator op, Type left, Type right)
+    {
+        Label trueLabel = new Label();
+        Label endLabel = new Label();
+        compareAndJump(op, true, trueLabel, left, right);
+        method.visitInsn(ICONST_0);
+        method.visitJumpInsn(GOTO, endLabel);
+        method.visitLabel(trueLabel);
+        method.visitInsn(ICONST_1);
+        method.visitLabel(endLabel);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the comparison of the two operands at the top of the stack, jumping to {@code target}
+     * if the result of the comparison is {@code when}, and falling through otherwise.
+     */
+    private void compareAndJump (BinaryOperator op, boolean when, Label target, Type left, Type right)
+    {
+        int doubleWidthOpcode = comparisonJump(op);
+        int boolOpcode = op == EQUALITY ? IF_ICMPEQ : op == NOT_EQUALS ? IF_ICMPNE : -1;
+        int objOpcode  = op == EQUALITY ? IF_ACMPEQ : op == NOT_EQUALS ? IF_ACMPNE : -1;
+
+        int jumpOpcode;
+        if (left instanceof IntType && right instanceof IntType) {
+            method.visitInsn(LCMP);
+            jumpOpcode = doubleWidthOpcode;
+        } else if ((left instanceof FloatType || left instanceof IntType) && right instanceof FloatType) {
+            // If left is an Int, we've added a L2D instruction before the long operand beforehand
+            // Proper NaN handling: if NaN is involved, has to be false for all operations.
+            // NOTE: The comparison instruction is picked from the operator, not from the (possibly
+            // inverted) jump, so that inverting the jump preserves the NaN semantics.
+            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
+            method.visitInsn(opcode);
+            jumpOpcode = doubleWidthOpcode;
+        } else if (left instanceof FloatType && right instanceof IntType) {
+            method.visitInsn(L2D);
+            // Proper NaN handling: if NaN is involved, has to be false for all operations.
+            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
+            method.visitInsn(opcode);
+            jumpOpcode = doubleWidthOpcode;
+        } else if (left instanceof BoolType && right instanceof BoolType) {
+            jumpOpcode = boolOpcode;
+        } else {
+            jumpOpcode = objOpcode;
+        }
+
+        method.visitJumpInsn(when ? jumpOpcode : invertJump(jumpOpcode), target);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the jump instruction testing the result of a comparison instruction ({@code LCMP},
+     * {@code DCMPL}, ...) for the given comparison operator.
+     */
+    private int comparisonJump (BinaryOperator op)
+    {
+        switch (op) {
+            case EQUALITY:      return IFEQ;
+            case NOT_EQUALS:    return IFNE;
+            case GREATER:       return IFGT;
+            case LOWER:         return IFLT;
+            case GREATER_EQUAL: return IFGE;
+            case LOWER_EQUAL:   return IFLE;
+            default: throw new Error("not a comparison operator: " + op);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits code for a boolean condition that jumps to {@code target} if the condition evaluates to
+     * {@code when}, and falls through otherwise. Comparisons and logical operators branch directly
+     * instead of materializing intermediate booleans.
+     */
+    private void branch (ExpressionNode node, boolean when, Label target)
+    {
+        if (node instanceof ParenthesizedNode) {
+            branch(((ParenthesizedNode) node).expression, when, target);
+            return;
+        }
 
-    // ---------------------------------------------------------------------------------------------
+        if (node instanceof UnaryExpressionNode) { // there is only NOT
+            branch(((UnaryExpressionNode) node).operand, !when, target);
+            return;
+        }
 
-    private void comparison (
-            BinaryOperator op,
-            int doubleWidthOpcode, int boolOpcode, int objOpcode,
-            Type left, Type right) {
+        if (node instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node, "decl");
+            if (decl instanceof SyntheticDeclarationNode
+                    && (decl.name().equals("true") || decl.name().equals("false"))) {
+                if (decl.name().equals("true") == when)
+                    method.visitJumpInsn(GOTO, target);
+                return;
+            }
+        }
 
-        Label trueLabel = new Label();
-        Label endLabel = new Label();
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            BinaryOperator op = binary.operator;
 
-        if (left instanceof IntType && right instanceof IntType) {
-            method.visitInsn(LCMP);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else if ((left instanceof FloatType || left instanceof IntType) && right instanceof FloatType) {
-            // If left is an Int, we've added a L2D instruction before the long operand beforehand
-            // Proper NaN handling: if NaN is involved, has to be false for all operations.
-            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
-            method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else if (left instanceof FloatType && right instanceof IntType) {
-            method.visitInsn(L2D);
-            // Proper NaN handling: if NaN is involved, has to be false for all operations.
-            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
-            method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else if (left instanceof BoolType && right instanceof BoolType) {
-            method.visitJumpInsn(boolOpcode, trueLabel);
-        } else {
-            method.visitJumpInsn(objOpcode, trueLabel);
+            if (isShortCircuit(op)) {
+                // Either operand decides: jump if false for &&, if true for ||.
+                if ((op == AND) != when) {
+                    branch(binary.left, when, target);
+                    branch(binary.right, when, target);
+                } else {
+                    Label skip = new Label();
+                    branch(binary.left, !when, skip);
+                    branch(binary.right, when, target);
+                    method.visitLabel(skip);
+                }
+                return;
+            }
+
+            if ((isComparison(op) || isEquality(op))
+                    && isIntExpression(binary.left) && isIntExpression(binary.right)) {
+                runInt(binary.left);
+                runInt(binary.right);
+                int opcode = comparisonJump(op) + (IF_ICMPEQ - IFEQ);
+                method.visitJumpInsn(when ? opcode : invertJump(opcode), target);
+                return;
+            }
+
+            if (isComparison(op) || isEquality(op)) {
+                Type left  = reactor.get(binary.left, "type");
+                Type right = reactor.get(binary.right, "type");
+                run(binary.left);
+                if (left instanceof IntType && right instanceof FloatType)
+                    method.visitInsn(L2D);
+                run(binary.right);
+                compareAndJump(op, when, target, left, right);
+                return;
+            }
         }
 
-        method.visitInsn(ICONST_0);
-        method.visitJumpInsn(GOTO, endLabel);
-        method.visitLabel(trueLabel);
-        method.visitInsn(ICONST_1);
-        method.visitLabel(endLabel);
+        run(node);
+        method.visitJumpInsn(when ? IF_NOT_ZERO : IF_ZERO, target);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -517,17 +1282,187 @@ public class BytecodeCompiler
 
     private Object arrayAccess (ArrayAccessNode node)
     {
+        Type type = reactor.get(node.array, "type");
+        if (type instanceof RangeType) {
+            run(node.array);
+            run(node.index);
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(Range.class), "get", "(J)J",
+                false);
+            return null;
+        }
+        if (type instanceof BigArrayType) {
+            run(node.array);
+            run(node.index);
+            Type component = ((BigArrayType) type).componentType;
+            method.visitMethodInsn(INVOKEVIRTUAL, asmType(type).getInternalName(), "get",
+                methodDescriptor(component, IntType.INSTANCE), false);
+            return null;
+        }
+        if (type instanceof ListType) {
+            // list.data[list.index(index)]
+            run(node.array);
+            runListIndex(node.index);
+            loadListData((ListType) type);
+            method.visitInsn(SWAP);
+            method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
+            return null;
+        }
+        if (type instanceof SliceType) {
+            run(node.array);
+            run(node.index);
+            Type component = ((SliceType) type).componentType;
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(Slice.class),
+                component instanceof IntType ? "getLong" : "getDouble",
+                methodDescriptor(component, IntType.INSTANCE), false);
+            return null;
+        }
         run(node.array);
-        run(node.index);
-        method.visitInsn(L2I); // indices must be 32-bit int
+        runIndex(node.index);
         method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Pushes the index of a list element as an {@code int}, below which the list (at the top of the
+     * stack) is kept. The index is checked by {@link SighList#index} while it is still a {@code
+     * long}, so that out of bounds indices can't wrap around when narrowed.
+     */
+    private void runListIndex (ExpressionNode index)
+    {
+        method.visitInsn(DUP);
+        run(index);
+        method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(SighList.class), "index", "(J)I",
+            false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces the list below the value at the top of the stack (which must take one slot) by the
+     * array holding its elements.
+     */
+    private void loadListData (ListType type)
+    {
+        method.visitInsn(SWAP);
+        method.visitFieldInsn(GETFIELD, slashBinaryName(listClass(type)), "data",
+            fieldDescriptor(new ArrayType(type.componentType)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object listConstructor (ListConstructorNode node)
+    {
+        String owner = slashBinaryName(listClass(reactor.get(node, "type")));
+        method.visitTypeInsn(NEW, owner);
+        method.visitInsn(DUP);
+        method.visitMethodInsn(INVOKESPECIAL, owner, "<init>", "()V", false);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a call to a method of a list. {@code push} and {@code pop} are compiled to direct
+     * accesses to the fields of the list and its array, calling {@link SighList#grow} only when
+     * pushing to a full array.
+     */
+    private Object listCall (FieldAccessNode node, List<ExpressionNode> arguments)
+    {
+        ListType type = reactor.get(node.stem, "type");
+        Type component = type.componentType;
+        String owner = slashBinaryName(listClass(type));
+        String data = fieldDescriptor(new ArrayType(component));
+        boolean wide = component instanceof IntType || component instanceof FloatType;
+        run(node.stem);
+
+        switch (node.fieldName) {
+            case "push": {
+                // the value is evaluated before the list is modified
+                runAs(arguments.get(0), component);
+                if (wide) {
+                    method.visitInsn(DUP2_X1);
+                    method.visitInsn(POP2);
+                } else {
+                    method.visitInsn(SWAP);
+                }                                           // value list
+                method.visitInsn(DUP);
+                method.visitFieldInsn(GETFIELD, owner, "size", "I");
+                method.visitInsn(DUP2);
+                method.visitInsn(SWAP);                     // value list size size list
+                method.visitFieldInsn(GETFIELD, owner, "data", data);
+                method.visitInsn(ARRAYLENGTH);
+                Label hasRoom = new Label();
+                method.visitJumpInsn(IF_ICMPLT, hasRoom);   // value list size
+                method.visitInsn(SWAP);
+                method.visitInsn(DUP_X1);
+                method.visitMethodInsn(INVOKEVIRTUAL, owner, "grow", "()V", false);
+                method.visitLabel(hasRoom);
+                method.visitInsn(DUP2);
+                method.visitInsn(ICONST_1);
+                method.visitInsn(IADD);
+                method.visitFieldInsn(PUTFIELD, owner, "size", "I");
+                loadListData(type);
+                method.visitInsn(SWAP);                     // value data size
+                method.visitInsn(wide ? DUP2_X2 : DUP2_X1);
+                method.visitInsn(POP2);                     // data size value
+                method.visitInsn(asmType(component).getOpcode(IASTORE));
+                return null;
+            }
+            case "pop": {
+                method.visitInsn(DUP);
+                method.visitFieldInsn(GETFIELD, owner, "size", "I");
+                method.visitInsn(DUP);
+                Label nonEmpty = new Label();
+                method.visitJumpInsn(IFGT, nonEmpty);       // list size
+                invokeStatic(method, SighList.class, "emptyError");
+                method.visitInsn(ATHROW);
+                method.visitLabel(nonEmpty);
+                method.visitInsn(ICONST_1);
+                method.visitInsn(ISUB);
+                method.visitInsn(DUP2);
+                method.visitFieldInsn(PUTFIELD, owner, "size", "I");
+                loadListData(type);
+                method.visitInsn(SWAP);                     // data size
+                if (wide) {
+                    method.visitInsn(asmType(component).getOpcode(IALOAD));
+                } else {
+                    // clear the slot, so that the string can be collected
+                    method.visitInsn(DUP2);
+                    method.visitInsn(AALOAD);
+                    method.visitInsn(DUP_X2);
+                    method.visitInsn(POP);
+                    method.visitInsn(ACONST_NULL);
+                    method.visitInsn(AASTORE);
+                }
+                return null;
+            }
+            default: // toArray
+                method.visitMethodInsn(INVOKEVIRTUAL, owner, "toArray", "()" + data, false);
+                return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object slice (SliceNode node)
+    {
+        run(node.array);
+        run(node.from);
+        run(node.to);
+        invokeStatic(method, Slice.class, "slice", Object.class, long.class, long.class);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funCall (FunCallNode node)
     {
+        if (node.function instanceof FieldAccessNode
+                && reactor.get(((FieldAccessNode) node.function).stem, "type") instanceof ListType)
+            return listCall((FieldAccessNode) node.function, node.arguments);
+
         FunType funType = reactor.get(node.function, "type");
 
         // The function part can either be a reference, in which case we emit a call,
@@ -536,16 +1471,26 @@ public class BytecodeCompiler
         if (node.function instanceof ReferenceNode) {
             DeclarationNode decl = reactor.get(node.function, "decl");
             if (decl instanceof SyntheticDeclarationNode) {
-                return builtin(funType, decl.name(), node.arguments);
+                return builtin(((SyntheticDeclarationNode) decl).builtin(), node.arguments);
+            }
+            else if (decl instanceof ExternFunDeclarationNode) {
+                return builtin(reactor.get(decl, "builtin"), node.arguments);
+            }
+            else if (isLazy(decl) && decl != lazyFunction) {
+                runArguments(funType, node.arguments);
+                method.visitInvokeDynamicInsn(decl.name(),
+                    functionDescriptor((FunDeclarationNode) decl), FUNCTION_BOOTSTRAP,
+                    unitName.replace('/', '.'));
             }
             else if (decl instanceof FunDeclarationNode) {
+                List<DeclarationNode> captures = reactor.get(decl, "captures");
+                captures.forEach(this::loadBox);
                 runArguments(funType, node.arguments);
                 method.visitMethodInsn(INVOKESTATIC, containerName,
-                    decl.name(), methodDescriptor(funType), false);
-            }
-            else { // TODO
-                throw new UnsupportedOperationException("variables or parameters containing a function value");
+                    decl.name(), functionDescriptor((FunDeclarationNode) decl), false);
             }
+            else
+                dynamicCall(node, funType);
         }
         else if (node.function instanceof ConstructorNode) {
             StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
@@ -557,42 +1502,81 @@ public class BytecodeCompiler
             method.visitMethodInsn(INVOKESPECIAL, binaryName, "<init>", descriptor, false);
         }
         else
-            throw new UnsupportedOperationException("complex expression evaluating to a function value");
+            dynamicCall(node, funType);
 
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin (FunType funType, String name, List<ExpressionNode> arguments)
+    private static final Handle CALL_BOOTSTRAP = staticHandle(SighRuntime.class, "bootstrapCall",
+        MethodHandles.Lookup.class, String.class, MethodType.class);
+
+    private static final Handle FUNCTION_BOOTSTRAP = staticHandle(SighRuntime.class,
+        "bootstrapFunction",
+        MethodHandles.Lookup.class, String.class, MethodType.class, String.class);
+
+    private static final Handle FUNCTION_VALUE_BOOTSTRAP = staticHandle(SighRuntime.class,
+        "bootstrapFunctionValue",
+        MethodHandles.Lookup.class, String.class, MethodType.class, String.class, MethodType.class);
+
+    /**
+     * Emits a call through a function value: the callee's {@link MethodHandle} is pushed before
+     * the arguments and the call is linked by {@link SighRuntime#bootstrapCall}.
+     */
+    private void dynamicCall (FunCallNode node, FunType funType)
+    {
+        run(node.function);
+        runArguments(funType, node.arguments);
+        String descriptor = "(Ljava/lang/invoke/MethodHandle;" + methodDescriptor(funType).substring(1);
+        method.visitInvokeDynamicInsn("call", descriptor, CALL_BOOTSTRAP);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a direct call to the static method implementing a built-in function (see {@link
+     * Builtin}).
+     */
+    private Object builtin (Builtin builtin, List<ExpressionNode> arguments)
     {
-        assert name.equals("print"); // only one at the moment
-        method.visitFieldInsn(GETSTATIC, "java/lang/System", "out",
-            "Ljava/io/PrintStream;");
-        runArguments(funType, arguments);
-        method.visitInsn(DUP_X1); // we return the printed string!
-        method.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println",
-            "(Ljava/lang/String;)V", false);
+        runArguments(builtin.type, arguments);
+        Handle target = builtinHandle(builtin);
+        method.visitMethodInsn(INVOKESTATIC, target.getOwner(), target.getName(), target.getDesc(),
+            false);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Returns a handle to the static method implementing a built-in function. */
+    private static Handle builtinHandle (Builtin builtin) {
+        return new Handle(H_INVOKESTATIC,
+            org.objectweb.asm.Type.getInternalName(builtin.target.getDeclaringClass()),
+            builtin.target.getName(),
+            org.objectweb.asm.Type.getMethodDescriptor(builtin.target), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Visit all argument nodes, adding implicit conversion based on the target parameter type
      * if needed.
      */
     private void runArguments (FunType funType, List<ExpressionNode> arguments)
     {
-        Vanilla.forEachIndexed(arguments, (i, arg) -> {
-            run(arg);
-            implicitConversion(funType.paramTypes[i], reactor.get(arg, "type"));
-        });
+        Vanilla.forEachIndexed(arguments, (i, arg) -> runAs(arg, funType.paramTypes[i]));
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object expressionStmt (ExpressionStatementNode node) {
+        if (node.expression instanceof AssignmentNode
+                && isIntVariable(((AssignmentNode) node.expression).left)) {
+            // the only assignment to int variables are increments
+            method.visitIincInsn(varIndex((ReferenceNode) ((AssignmentNode) node.expression).left), 1);
+            return null;
+        }
         run(node.expression);
         if (node.expression instanceof AssignmentNode)
             pop(reactor.get(node.expression, "type"));
@@ -606,6 +1590,11 @@ public class BytecodeCompiler
     // ---------------------------------------------------------------------------------------------
 
     private Object returnStmt (ReturnNode node) {
+        if (Boolean.TRUE.equals(reactor.get(node, "tailCall"))) {
+            tailCall((FunCallNode) node.expression);
+            return null;
+        }
+
         if (node.expression == null) {
             if (topLevel) {
                 loadConstant(method, null);
@@ -616,7 +1605,10 @@ public class BytecodeCompiler
             return null;
         }
 
-        run(node.expression);
+        if (topLevel)
+            run(node.expression);
+        else
+            runAs(node.expression, returnType);
 
         if (topLevel) {
             Type type = reactor.get(node.expression, "type");
@@ -628,7 +1620,7 @@ public class BytecodeCompiler
                 invokeStatic(method, Boolean.class, "valueOf", boolean.class);
             method.visitInsn(ARETURN);
         } else {
-            method.visitInsn(nodeAsmType(node.expression).getOpcode(IRETURN));
+            method.visitInsn(asmType(returnType).getOpcode(IRETURN));
         }
 
         return null;
@@ -636,6 +1628,21 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles a self tail call: all arguments are evaluated before any parameter is overwritten,
+     * then control restarts the function (including the boxing of captured parameters).
+     */
+    private void tailCall (FunCallNode node)
+    {
+        FunType funType = reactor.get(node.function, "type");
+        runArguments(funType, node.arguments);
+        for (int i = parameterSlots.length - 1; i >= 0; --i)
+            method.visitVarInsn(asmType(funType.paramTypes[i]).getOpcode(ISTORE), parameterSlots[i]);
+        method.visitJumpInsn(GOTO, functionStart);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object block (BlockNode node) {
         node.statements.forEach(this::run);
         return null;
@@ -648,8 +1655,7 @@ public class BytecodeCompiler
         Label elseLabel = new Label();
         Label endLabel = new Label();
         boolean hasElse = node.falseStatement != null;
-        run(node.condition);
-        method.visitJumpInsn(IFEQ, hasElse ? elseLabel : endLabel);
+        branch(node.condition, false, hasElse ? elseLabel : endLabel);
         run(node.trueStatement);
         if (hasElse) {
             method.visitJumpInsn(GOTO, endLabel);
@@ -664,14 +1670,16 @@ public class BytecodeCompiler
 
     private Object whileStmt (WhileNode node)
     {
-        Label startLabel = new Label();
-        Label endLabel = new Label();
-        method.visitLabel(startLabel);
-        run(node.condition);
-        method.visitJumpInsn(IFEQ, endLabel);
+        // Test at the bottom (as javac does), so that each iteration only runs one jump.
+        Label bodyLabel = new Label();
+        Label conditionLabel = new Label();
+        method.visitJumpInsn(GOTO, conditionLabel);
+        method.visitLabel(bodyLabel);
+        ++loopDepth;
         run(node.body);
-        method.visitJumpInsn(GOTO, startLabel);
-        method.visitLabel(endLabel);
+        --loopDepth;
+        method.visitLabel(conditionLabel);
+        branch(node.condition, true, bodyLabel);
         return null;
     }
 
@@ -681,8 +1689,19 @@ public class BytecodeCompiler
     {
         DeclarationNode decl = reactor.get(node, "decl");
 
-        // TODO distinguish local variables from closures
-        if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
+        if (isGlobal(decl)) {
+            method.visitFieldInsn(GETSTATIC, unitName, node.name, nodeFieldDescriptor(node));
+        }
+        else if (isIntVariable(node)) {
+            method.visitVarInsn(ILOAD, varIndex(node));
+            method.visitInsn(I2L);
+        }
+        else if (isCaptured(decl)) {
+            method.visitVarInsn(ALOAD, varIndex(node));
+            loadConstant(method, 0);
+            method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
+        }
+        else if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
             method.visitVarInsn(nodeAsmType(node).getOpcode(ILOAD), varIndex(node));
         }
         else if (decl instanceof StructDeclarationNode) {
@@ -691,15 +1710,39 @@ public class BytecodeCompiler
             org.objectweb.asm.Type asmType = asmType(reactor.get(decl, "declared"));
             method.visitLdcInsn(asmType); // class constant for emitted type
         }
+        else if (decl instanceof ExternFunDeclarationNode) {
+            method.visitLdcInsn(builtinHandle(reactor.get(decl, "builtin")));
+        }
         else if (decl instanceof FunDeclarationNode) {
             // NOTE: This is not used when the reference is part of a function call, the resolution
             // is handled in #funCall.
 
-            // TODO proper handling/representation of function object
-            //  For now I use a method handle. There is no way to use it in the language however.
+            if (isLazy(decl) && decl != lazyFunction) {
+                String descriptor = functionDescriptor((FunDeclarationNode) decl);
+                method.visitInvokeDynamicInsn(decl.name(), "()Ljava/lang/invoke/MethodHandle;",
+                    FUNCTION_VALUE_BOOTSTRAP, unitName.replace('/', '.'),
+                    org.objectweb.asm.Type.getMethodType(descriptor));
+                return null;
+            }
+
             method.visitLdcInsn(new Handle(
                 H_INVOKESTATIC, containerName, decl.name(),
-                methodDescriptor(reactor.get(decl, "type")), false));
+                functionDescriptor((FunDeclarationNode) decl), false));
+
+            List<DeclarationNode> captures = reactor.get(decl, "captures");
+            if (!captures.isEmpty()) {
+                loadConstant(method, 0);
+                loadConstant(method, captures.size());
+                method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+                for (int i = 0; i < captures.size(); ++i) {
+                    method.visitInsn(DUP);
+                    loadConstant(method, i);
+                    loadBox(captures.get(i));
+                    method.visitInsn(AASTORE);
+                }
+                invokeStatic(method, MethodHandles.class, "insertArguments",
+                    MethodHandle.class, int.class, Object[].class);
+            }
         }
         else if (decl instanceof SyntheticDeclarationNode) {
             switch (decl.name()) {
@@ -721,14 +1764,13 @@ public class BytecodeCompiler
                 case "Type":
                     method.visitLdcInsn(org.objectweb.asm.Type.getType(Class.class));
                     break;
-                case "print":
-                    // TODO cf FunDeclarationNode case above
-                    method.visitLdcInsn(staticHandle(SighRuntime.class, "print", String.class));
-                    break;
                 case "true":  loadConstant(method, 1);      break;
                 case "false": loadConstant(method, 0);      break;
                 case "null":  loadConstant(method, null);   break;
-                default: throw new Error("unreachable");
+                default:
+                    Builtin builtin = ((SyntheticDeclarationNode) decl).builtin();
+                    if (builtin == null) throw new Error("unreachable");
+                    method.visitLdcInsn(builtinHandle(builtin));
             }
         }
 
@@ -739,10 +1781,36 @@ public class BytecodeCompiler
 
     private Object varDecl (VarDeclarationNode node)
     {
+        if (isGlobal(node)) {
+            String descriptor = nodeFieldDescriptor(node);
+            // lazily compiled functions live in other classes of the same package
+            int access = lazy ? ACC_STATIC : ACC_PRIVATE | ACC_STATIC;
+            container.visitField(access, node.name, descriptor, null, null);
+            runAs(node.initializer, reactor.get(node, "type"));
+            method.visitFieldInsn(PUTSTATIC, unitName, node.name, descriptor);
+            return null;
+        }
+
+        if (isCaptured(node)) {
+            newBox(reactor.get(node, "type"));
+            method.visitInsn(DUP);
+            method.visitVarInsn(ASTORE, registerVariable(node, BOX));
+            loadConstant(method, 0);
+            runAs(node.initializer, reactor.get(node, "type"));
+            method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
+            return null;
+        }
+
+        if (intVariables.contains(node)) {
+            int index = registerVariable(node, org.objectweb.asm.Type.INT_TYPE);
+            loadConstant(method, (int) ((IntLiteralNode) node.initializer).value);
+            method.visitVarInsn(ISTORE, index);
+            return null;
+        }
+
         org.objectweb.asm.Type type = nodeAsmType(node);
         int index = registerVariable(node, type);
-        run(node.initializer);
-        implicitConversion(node, node.initializer);
+        runAs(node.initializer, reactor.get(node, "type"));
         method.visitVarInsn(type.getOpcode(ISTORE), index);
         // LATER: method.visitLocalVariable for debug information
         // https://stackoverflow.com/questions/28633731
@@ -760,28 +1828,67 @@ public class BytecodeCompiler
 
     public Object assignment (AssignmentNode node)
     {
-        if (node.left instanceof ReferenceNode) {
+        if (node.left instanceof ReferenceNode && isCaptured(reactor.get(node.left, "decl"))) {
             ReferenceNode left = (ReferenceNode) node.left;
-            run(node.right);
-            Type type = implicitConversion(node, node.right);
+            method.visitVarInsn(ALOAD, varIndex(left));
+            loadConstant(method, 0);
+            Type type = runAs(node.right, reactor.get(node, "type"));
+            dup_x2(type);
+            method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
+        }
+        else if (node.left instanceof ReferenceNode) {
+            ReferenceNode left = (ReferenceNode) node.left;
+            Type type = runAs(node.right, reactor.get(node, "type"));
             dup(type);
-            method.visitVarInsn(nodeAsmType(node).getOpcode(ISTORE), varIndex(left));
+            if (isGlobal(reactor.get(left, "decl")))
+                method.visitFieldInsn(PUTSTATIC, unitName, left.name, nodeFieldDescriptor(node));
+            else
+                method.visitVarInsn(nodeAsmType(node).getOpcode(ISTORE), varIndex(left));
         }
-        else if (node.left instanceof ArrayAccessNode) {
+        else if (node.left instanceof ArrayAccessNode
+                && reactor.get(((ArrayAccessNode) node.left).array, "type") instanceof BigArrayType) {
+            // set returns the stored value
             ArrayAccessNode left = (ArrayAccessNode) node.left;
             run(left.array);
             run(left.index);
-            method.visitInsn(L2I);
-            run(node.right);
-            Type type = implicitConversion(node, node.right);
+            Type type = runAs(node.right, reactor.get(node, "type"));
+            method.visitMethodInsn(INVOKEVIRTUAL, asmType(reactor.get(left.array, "type"))
+                .getInternalName(), "set", methodDescriptor(type, IntType.INSTANCE, type), false);
+        }
+        else if (node.left instanceof ArrayAccessNode
+                && reactor.get(((ArrayAccessNode) node.left).array, "type") instanceof ListType) {
+            ArrayAccessNode left = (ArrayAccessNode) node.left;
+            run(left.array);
+            runListIndex(left.index);
+            loadListData(reactor.get(left.array, "type"));
+            method.visitInsn(SWAP);
+            Type type = runAs(node.right, reactor.get(node, "type"));
+            dup_x2(type);
+            method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
+        }
+        else if (node.left instanceof ArrayAccessNode
+                && reactor.get(((ArrayAccessNode) node.left).array, "type") instanceof SliceType) {
+            // setLong and setDouble return the stored value
+            ArrayAccessNode left = (ArrayAccessNode) node.left;
+            run(left.array);
+            run(left.index);
+            Type type = runAs(node.right, reactor.get(node, "type"));
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(Slice.class),
+                type instanceof IntType ? "setLong" : "setDouble",
+                methodDescriptor(type, IntType.INSTANCE, type), false);
+        }
+        else if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode left = (ArrayAccessNode) node.left;
+            run(left.array);
+            runIndex(left.index);
+            Type type = runAs(node.right, reactor.get(node, "type"));
             dup_x2(type);
             method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
         }
         else if (node.left instanceof FieldAccessNode) {
             FieldAccessNode left = (FieldAccessNode) node.left;
             run(left.stem);
-            run(node.right);
-            Type type = implicitConversion(node, node.right);
+            Type type = runAs(node.right, reactor.get(node, "type"));
             dup_x1(type);
             StructType structType = reactor.get(left.stem, "type");
             Type fieldType = reactor.get(node, "type");
@@ -795,6 +1902,11 @@ public class BytecodeCompiler
 
     private Object structDecl (StructDeclarationNode node)
     {
+        if (isForking()) {
+            fork(node);
+            return null;
+        }
+
         String binaryName = node.name;
         struct = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         struct.visit(V1_8, ACC_PUBLIC, binaryName, null, "java/lang/Object", null);
@@ -838,6 +1950,31 @@ public class BytecodeCompiler
 
     private Object fieldAccess (FieldAccessNode node) {
         run(node.stem);
+        if (reactor.get(node.stem, "type") instanceof ArrayType) {
+            method.visitInsn(ARRAYLENGTH); // only field on arrays
+            method.visitInsn(I2L);
+            return null;
+        }
+        if (reactor.get(node.stem, "type") instanceof BigArrayType) {
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(BigArray.class), "length",
+                "()J", false);
+            return null;
+        }
+        if (reactor.get(node.stem, "type") instanceof RangeType) {
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(Range.class), "length",
+                "()J", false);
+            return null;
+        }
+        if (reactor.get(node.stem, "type") instanceof SliceType) {
+            method.visitMethodInsn(INVOKEVIRTUAL, slashBinaryName(Slice.class), "length",
+                "()J", false);
+            return null;
+        }
+        if (reactor.get(node.stem, "type") instanceof ListType) {
+            method.visitFieldInsn(GETFIELD, slashBinaryName(SighList.class), "size", "I");
+            method.visitInsn(I2L);
+            return null;
+        }
         String binaryName = asmType(reactor.get(node.stem, "type")).getClassName();
         method.visitFieldInsn(GETFIELD, binaryName, node.fieldName, nodeFieldDescriptor(node));
         return null;
@@ -846,7 +1983,13 @@ public class BytecodeCompiler
     // ---------------------------------------------------------------------------------------------
 
     private Constructor constructor (ConstructorNode node) {
-        // not needed - handled in funCall instead
+        // NOTE: This is not used when the constructor is called directly, the resolution is
+        // handled in #funCall. Otherwise, the constructor is used as a function value.
+        FunType funType = reactor.get(node, "type");
+        StructDeclarationNode decl = reactor.get(node.ref, "decl");
+        String binaryName = structBinaryName(reactor.get(decl, "declared"));
+        method.visitLdcInsn(new Handle(H_NEWINVOKESPECIAL, binaryName, "<init>",
+            methodDescriptor(VoidType.INSTANCE, funType.paramTypes), false));
         return null;
     }
 
@@ -897,6 +2040,152 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether the node is a reference to a variable stored in an {@code int} local.
+     */
+    private boolean isIntVariable (SighNode node) {
+        return node instanceof ReferenceNode && intVariables.contains(reactor.get(node, "decl"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the expression can be evaluated directly to an {@code int} by {@link #runInt}.
+     */
+    private boolean isIntExpression (ExpressionNode node)
+    {
+        if (isIntVariable(node))
+            return true;
+        if (node instanceof FieldAccessNode)
+            return reactor.get(((FieldAccessNode) node).stem, "type") instanceof ArrayType;
+        if (node instanceof IntLiteralNode) {
+            long value = ((IntLiteralNode) node).value;
+            return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits code evaluating the expression to an {@code int}. Only valid if {@link
+     * #isIntExpression} holds.
+     */
+    private void runInt (ExpressionNode node)
+    {
+        if (isIntVariable(node)) {
+            method.visitVarInsn(ILOAD, varIndex((ReferenceNode) node));
+        } else if (node instanceof FieldAccessNode) {
+            run(((FieldAccessNode) node).stem);
+            method.visitInsn(ARRAYLENGTH);
+        } else {
+            loadConstant(method, (int) ((IntLiteralNode) node).value);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits code evaluating an array index to an {@code int}.
+     */
+    private void runIndex (ExpressionNode index)
+    {
+        if (isIntExpression(index)) {
+            runInt(index);
+        } else {
+            run(index);
+            method.visitInsn(L2I); // indices must be 32-bit int
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given declaration is a variable declared in the root scope. Such variables are
+     * compiled to private static fields of the container class (rather than to locals of the
+     * {@code run} method), so that functions can access them.
+     */
+    private boolean isGlobal (DeclarationNode decl) {
+        return decl instanceof VarDeclarationNode && reactor.get(decl, "scope") instanceof RootScope;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the declaration is a top-level function whose compilation is deferred, see
+     * {@link LazyUnit}.
+     */
+    private boolean isLazy (DeclarationNode decl) {
+        // the scope attribute of a function is the scope it introduces
+        return lazy
+            && decl instanceof FunDeclarationNode
+            && reactor.<Scope>get(decl, "scope").parent instanceof RootScope;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * ASM type used to register boxes in {@link #variables}: only its size matters.
+     */
+    private static final org.objectweb.asm.Type BOX = org.objectweb.asm.Type.getType(Object[].class);
+
+    /**
+     * Whether the given declaration is a variable or parameter whose value is stored in a box,
+     * because it is captured by some nested function.
+     */
+    private boolean isCaptured (DeclarationNode decl) {
+        return (decl instanceof VarDeclarationNode || decl instanceof ParameterNode)
+            && reactor.<Boolean>get(decl, "captured");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the instructions to allocate a box for a variable of the given type.
+     */
+    private void newBox (Type type) {
+        loadConstant(method, 1);
+        newArray(type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads the box for the given captured variable, which must be a local or a parameter of the
+     * current method, and must have been declared at this point.
+     */
+    private void loadBox (DeclarationNode decl) {
+        Integer index = variables.get(variableKey(decl));
+        if (index == null) // ruled out by the semantic analysis
+            throw new Error("captured variable not declared yet: " + decl.name());
+        method.visitVarInsn(ALOAD, index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the JVM method descriptor for the method implementing the given function, taking the
+     * boxes for its captures as leading parameters.
+     */
+    private String functionDescriptor (FunDeclarationNode node) {
+        List<DeclarationNode> captures = reactor.get(node, "captures");
+        StringBuilder b = new StringBuilder("(");
+        for (DeclarationNode capture: captures)
+            b.append(fieldDescriptor(new ArrayType(reactor.get(capture, "type"))));
+        return b.append(methodDescriptor(reactor.<FunType>get(node, "type")).substring(1)).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key for the given variable or parameter declaration in {@link #variables}.
+     */
+    private Pair<Scope, String> variableKey (DeclarationNode decl) {
+        return new Pair<>(reactor.get(decl, "scope"), decl.name());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the variable index for the given reference, which must be a reference to a variable.
      */
@@ -922,10 +2211,18 @@ public class BytecodeCompiler
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Like {@link #implicitConversion(Type, Type)}, using the type attributes of the passed nodes.
+     * Emits the expression, converting its value to the representation of {@code target} (see
+     * {@link #implicitConversion(Type, Type)}; array literals are built directly with the target
+     * type). Returns the type of the value left on the stack.
      */
-    private Type implicitConversion (SighNode left, SighNode right) {
-        return implicitConversion((Type) reactor.get(left,  "type"), reactor.get(right, "type"));
+    private Type runAs (ExpressionNode node, Type target)
+    {
+        if (node instanceof ArrayLiteralNode && target instanceof ArrayType) {
+            arrayLiteral((ArrayLiteralNode) node, (ArrayType) target);
+            return target;
+        }
+        run(node);
+        return implicitConversion(target, reactor.get(node, "type"));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,7 +1,13 @@
 package norswap.sigh.bytecode;
 
 import norswap.utils.exceptions.NoStackException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,9 +34,41 @@ public final class CompilationResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Peephole optimization reports for the methods of {@link #mainClass}, empty if the compiler
+     * was not asked to optimize.
+     */
+    public final List<PeepholeOptimizer.Report> optimizations;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the unit was compiled in lazy mode, the object that compiles its top-level functions on
+     * demand, null otherwise. The functions are not part of {@link #mainClass}.
+     */
+    public final LazyUnit lazyUnit;
+
+    // ---------------------------------------------------------------------------------------------
+
     public CompilationResult (GeneratedClass mainClass, List<GeneratedClass> structures) {
+        this(mainClass, structures, Collections.emptyList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public CompilationResult (GeneratedClass mainClass, List<GeneratedClass> structures,
+                              List<PeepholeOptimizer.Report> optimizations) {
+        this(mainClass, structures, optimizations, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public CompilationResult (GeneratedClass mainClass, List<GeneratedClass> structures,
+                              List<PeepholeOptimizer.Report> optimizations, LazyUnit lazyUnit) {
         this.mainClass = mainClass;
         this.structures = structures;
+        this.optimizations = optimizations;
+        this.lazyUnit = lazyUnit;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -38,8 +76,12 @@ public final class CompilationResult
     /**
      * Load this class in the current JVM using the given class loader and return the
      * {@link Class} object for {@link #mainClass}.
+     *
+     * <p>In lazy mode, the functions will be compiled and loaded in the same class loader when
+     * they are first used.
      */
     public Class<?> load (ByteArrayClassLoader loader) {
+        if (lazyUnit != null) loader.register(lazyUnit);
         structures.forEach(it -> it.load(loader));
         return mainClass.load(loader);
     }
@@ -82,6 +124,64 @@ public final class CompilationResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a handle to the top-level function with the given name, in the given class, which
+     * must be the {@link #mainClass} of this result, loaded with {@link #load}. In lazy mode, the
+     * function is compiled and loaded if needed.
+     *
+     * <p>The handle takes and returns the compiled representation of values, e.g. {@code long}
+     * for {@code Int}, and {@code long[]}, {@code double[]} or {@code boolean[]} for arrays of
+     * {@code Int}, {@code Float} or {@code Bool}. Arrays are passed by reference, so the host
+     * application can pass its data to the function without copying it, and see the
+     * modifications made by the function. Top-level variables are only initialized when the
+     * {@code run} method is called.
+     *
+     * <p>Throws an {@link IllegalArgumentException} if there is no function with this name, or if
+     * it can't be told apart from a nested function with the same name.
+     */
+    public MethodHandle function (Class<?> mainClass, String name)
+    {
+        Class<?> owner = mainClass;
+        if (lazyUnit != null) {
+            if (!lazyUnit.hasFunction(name))
+                throw new IllegalArgumentException("no top-level function named " + name);
+            owner = lazyUnit.load((ByteArrayClassLoader) mainClass.getClassLoader(), name);
+        }
+
+        Method[] methods = Arrays.stream(owner.getMethods())
+            .filter(it -> it.getName().equals(name) && Modifier.isStatic(it.getModifiers()))
+            .toArray(Method[]::new);
+        if (methods.length != 1 || name.equals("run") || name.equals("main"))
+            throw new IllegalArgumentException("no unique top-level function named " + name);
+
+        try {
+            return MethodHandles.publicLookup().unreflect(methods[0]);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the top-level function with the given name (see {@link #function}) with the given
+     * arguments, and returns its result. Scalar arguments and results are boxed, arrays are
+     * passed by reference.
+     */
+    public Object call (Class<?> mainClass, String name, Object... args)
+    {
+        MethodHandle function = function(mainClass, name);
+        try {
+            return function.invokeWithArguments(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new NoStackException(t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Call the {@code main} method of the given class, passing it the given arguments.
      *
@@ -0,0 +1,182 @@
+package norswap.sigh.bytecode;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.IntType;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static norswap.sigh.ast.BinaryOperator.*;
+import static norswap.utils.visitors.WalkVisitType.POST_VISIT;
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * A range analysis that finds {@code Int} variables that provably fit in a JVM {@code int}, so that
+ * {@link BytecodeCompiler} can keep them in {@code int} locals instead of {@code long} locals. This
+ * lets the JIT recognize array loops as counted loops (range check elimination, unrolling,
+ * vectorization).
+ *
+ * <p>A variable qualifies when it is a local (neither global nor captured) variable whose
+ * initializer is an integer literal that fits in an {@code int}, and whose only assignment is
+ * a statement {@code i = i + 1} directly in the body of a loop {@code while i < e.length} (the
+ * comparison can also be one of the operands of a top-level {@code &&} chain).
+ *
+ * <p>Every increment then runs after a check that {@code i} is lower than an array length, which
+ * is at most {@link Integer#MAX_VALUE}, and it runs at most once per check. Hence the value of
+ * {@code i} always fits in an {@code int}.
+ */
+public final class InductionVariables
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+
+    /** Maps variables to the list of assignments to that variable. */
+    private final IdentityHashMap<DeclarationNode, List<AssignmentNode>> assignments
+        = new IdentityHashMap<>();
+
+    private final List<WhileNode> loops = new ArrayList<>();
+
+    private InductionVariables (Reactor reactor) {
+        this.reactor = reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of variable declarations in the given tree that can be represented by a JVM
+     * {@code int}.
+     */
+    public static Set<VarDeclarationNode> find (Reactor reactor, SighNode root)
+    {
+        InductionVariables analysis = new InductionVariables(reactor);
+
+        ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(
+            SighNode.class, PRE_VISIT, POST_VISIT);
+        walker.register(AssignmentNode.class, PRE_VISIT, analysis::assignment);
+        walker.register(WhileNode.class,      PRE_VISIT, analysis.loops::add);
+        walker.registerFallback(PRE_VISIT,  node -> {});
+        walker.registerFallback(POST_VISIT, node -> {});
+        walker.walk(root);
+
+        Set<VarDeclarationNode> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (WhileNode loop: analysis.loops)
+            analysis.inductionVariables(loop.condition, loop.body, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void assignment (AssignmentNode node)
+    {
+        if (!(node.left instanceof ReferenceNode)) return;
+        DeclarationNode decl = reactor.get(node.left, "decl");
+        assignments.computeIfAbsent(decl, k -> new ArrayList<>()).add(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the variables bounded by the given loop condition and incremented in the loop body to
+     * {@code result}, if they qualify.
+     */
+    private void inductionVariables (ExpressionNode condition, StatementNode body,
+                                     Set<VarDeclarationNode> result)
+    {
+        while (condition instanceof ParenthesizedNode)
+            condition = ((ParenthesizedNode) condition).expression;
+
+        if (!(condition instanceof BinaryExpressionNode)) return;
+        BinaryExpressionNode binary = (BinaryExpressionNode) condition;
+
+        if (binary.operator == AND) {
+            inductionVariables(binary.left, body, result);
+            inductionVariables(binary.right, body, result);
+            return;
+        }
+
+        if (binary.operator != LOWER
+                || !(binary.left instanceof ReferenceNode)
+                || !isArrayLength(binary.right))
+            return;
+
+        DeclarationNode decl = reactor.get(binary.left, "decl");
+        if (!(decl instanceof VarDeclarationNode) || !isIntLocal((VarDeclarationNode) decl))
+            return;
+
+        List<AssignmentNode> writes = assignments.get(decl);
+        if (writes == null || writes.size() != 1 || !isIncrement(writes.get(0), decl))
+            return;
+
+        if (isDirectStatement(writes.get(0), body))
+            result.add((VarDeclarationNode) decl);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isArrayLength (ExpressionNode node) {
+        return node instanceof FieldAccessNode
+            && ((FieldAccessNode) node).fieldName.equals("length")
+            && reactor.get(((FieldAccessNode) node).stem, "type") instanceof ArrayType;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isIntLocal (VarDeclarationNode decl)
+    {
+        if (!(reactor.get(decl, "type") instanceof IntType)) return false;
+        if (reactor.get(decl, "scope") instanceof RootScope) return false;
+        if (Boolean.TRUE.equals(reactor.get(decl, "captured"))) return false;
+        if (!(decl.initializer instanceof IntLiteralNode)) return false;
+        long value = ((IntLiteralNode) decl.initializer).value;
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the assignment is {@code decl = decl + 1} or {@code decl = 1 + decl}. */
+    private boolean isIncrement (AssignmentNode node, DeclarationNode decl)
+    {
+        if (!(node.right instanceof BinaryExpressionNode)) return false;
+        BinaryExpressionNode sum = (BinaryExpressionNode) node.right;
+        if (sum.operator != ADD) return false;
+        return isReferenceTo(sum.left, decl) && isOne(sum.right)
+            || isOne(sum.left) && isReferenceTo(sum.right, decl);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isReferenceTo (ExpressionNode node, DeclarationNode decl) {
+        return node instanceof ReferenceNode && reactor.get(node, "decl") == decl;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isOne (ExpressionNode node) {
+        return node instanceof IntLiteralNode && ((IntLiteralNode) node).value == 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the assignment is one of the statements of the loop body (not nested deeper). */
+    private static boolean isDirectStatement (AssignmentNode node, StatementNode body)
+    {
+        List<StatementNode> statements = body instanceof BlockNode
+            ? ((BlockNode) body).statements
+            : Collections.singletonList(body);
+
+        for (StatementNode statement: statements)
+            if (statement instanceof ExpressionStatementNode
+                    && ((ExpressionStatementNode) statement).expression == node)
+                return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
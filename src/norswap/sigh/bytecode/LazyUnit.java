@@ -0,0 +1,80 @@
+package norswap.sigh.bytecode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles the top-level functions of a source unit on demand, when the unit was compiled by a
+ * {@link BytecodeCompiler} in lazy mode.
+ *
+ * <p>Each function is compiled (together with the functions and structures nested in it) into
+ * its own class, named after the unit class and the function (e.g. {@code Unit$f}). This happens
+ * the first time a call site or a function value referencing the function is executed (see
+ * {@link SighRuntime#bootstrapFunction}), so that functions that are never used are never
+ * compiled.
+ *
+ * <p>The generated classes are cached, so that the unit can be loaded in multiple class loaders
+ * while only compiling each function once. This class is thread-safe.
+ */
+public final class LazyUnit
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Dot-separated binary name of the source unit class. */
+    final String binaryName;
+
+    private final BytecodeCompiler compiler;
+
+    /** Maps function names to the classes generated for them, the function class last. */
+    private final HashMap<String, List<GeneratedClass>> classes = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    LazyUnit (String binaryName, BytecodeCompiler compiler) {
+        this.binaryName = binaryName;
+        this.compiler = compiler;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the class containing the function with the given name, compiling and defining it in
+     * {@code loader} if needed.
+     */
+    synchronized Class<?> load (ByteArrayClassLoader loader, String name)
+    {
+        List<GeneratedClass> generated
+            = classes.computeIfAbsent(name, compiler::compileFunction);
+        GeneratedClass function = generated.get(generated.size() - 1);
+
+        Class<?> klass = loader.loadedClass(function.binaryName());
+        if (klass != null) return klass;
+
+        for (GeneratedClass it: generated)
+            klass = it.load(loader);
+        return klass;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the source unit has a top-level function with the given name.
+     */
+    boolean hasFunction (String name) {
+        return compiler.hasLazyFunction(name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the names of the functions compiled so far.
+     */
+    public synchronized Set<String> compiledFunctions() {
+        return Collections.unmodifiableSet(new HashSet<>(classes.keySet()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
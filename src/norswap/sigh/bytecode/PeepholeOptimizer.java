@@ -0,0 +1,522 @@
+package norswap.sigh.bytecode;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static norswap.sigh.bytecode.AsmUtils.invertJump;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A peephole optimizer that rewrites the instructions of a {@link MethodNode} emitted by {@link
+ * BytecodeCompiler}, in order to yield smaller methods (which the JIT is more willing to inline).
+ *
+ * <p>The optimizer runs the following rewrites until a fixpoint is reached:
+ * <ul>
+ *     <li>Constant folding of conversions: a constant immediately followed by a conversion
+ *     ({@code L2I}, {@code L2D}, ...) is replaced by the converted constant. This is typically
+ *     produced by constant array indices and implicit {@code Int} to {@code Float}
+ *     conversions.</li>
+ *     <li>Redundant stack shuffles: a value pushed then popped ({@code DUP; POP}, {@code
+ *     ICONST_0; POP}, ...) is removed, as well as a {@code DUP} variant feeding a store whose copy
+ *     is immediately popped (assignment expressions used as statements).</li>
+ *     <li>Jump simplification: jumps to unconditional jumps are threaded, branches on a constant
+ *     boolean (materialized comparisons followed by {@code IFEQ}) are resolved, conditional jumps
+ *     over a {@code GOTO} are inverted, jumps to the next instruction are removed.</li>
+ *     <li>Dead code removal: instructions following an unconditional control transfer that cannot
+ *     be reached by a jump are removed, as well as unreferenced labels.</li>
+ * </ul>
+ *
+ * <p>The optimizer relies on the frames being recomputed when the method is written ({@link
+ * org.objectweb.asm.ClassWriter#COMPUTE_FRAMES}), and does not maintain frame nodes.
+ */
+public final class PeepholeOptimizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Instruction counts for a method before and after optimization.
+     */
+    public static final class Report
+    {
+        public final String method;
+        public final int before;
+        public final int after;
+
+        public Report (String method, int before, int after) {
+            this.method = method;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override public String toString () {
+            return method + ": " + before + " -> " + after + " instructions";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Bound on the number of rewriting rounds, as a safeguard against rewrites cycling. */
+    private static final int MAX_ROUNDS = 32;
+
+    private final MethodNode method;
+    private final InsnList insns;
+
+    private PeepholeOptimizer (MethodNode method) {
+        this.method = method;
+        this.insns = method.instructions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Optimizes the instructions of the given method in place, and returns a report of the
+     * instruction counts before and after optimization.
+     */
+    public static Report optimize (MethodNode method)
+    {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(method);
+        int before = count(method);
+        for (int i = 0; i < MAX_ROUNDS && optimizer.round(); ++i);
+        return new Report(method.name + method.desc, before, count(method));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of actual instructions (excluding labels, line numbers and frames) in
+     * the method.
+     */
+    public static int count (MethodNode method)
+    {
+        int count = 0;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+            if (insn.getOpcode() >= 0) ++count;
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Runs every rewrite once over the method, returns true if anything changed. */
+    private boolean round ()
+    {
+        boolean changed = false;
+        changed |= foldConversions();
+        changed |= cancelStackShuffles();
+        changed |= simplifyJumps();
+        changed |= removeDeadCode();
+        return changed;
+    }
+
+    // =============================================================================================
+    // region [Constant Conversions]
+    // =============================================================================================
+
+    private boolean foldConversions ()
+    {
+        boolean changed = false;
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            AbstractInsnNode next = insn.getNext();
+            if (next == null) break;
+            Object constant = constantValue(insn);
+            if (constant == null) continue;
+            Object folded = convert(constant, next.getOpcode());
+            if (folded == null) continue;
+            AbstractInsnNode replacement = constantInsn(folded);
+            insns.set(insn, replacement);
+            insns.remove(next);
+            insn = replacement;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the numeric constant pushed by the instruction, or null if it isn't one. */
+    private static Object constantValue (AbstractInsnNode insn)
+    {
+        int opcode = insn.getOpcode();
+        if (opcode >= ICONST_M1 && opcode <= ICONST_5) return opcode - ICONST_0;
+        if (opcode == LCONST_0 || opcode == LCONST_1) return (long) (opcode - LCONST_0);
+        if (opcode == DCONST_0 || opcode == DCONST_1) return (double) (opcode - DCONST_0);
+        if (opcode == BIPUSH || opcode == SIPUSH) return ((IntInsnNode) insn).operand;
+        if (opcode == LDC) {
+            Object cst = ((LdcInsnNode) insn).cst;
+            if (cst instanceof Integer || cst instanceof Long || cst instanceof Double) return cst;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Applies the conversion opcode to the constant, or returns null if not a conversion. */
+    private static Object convert (Object constant, int opcode)
+    {
+        if (constant instanceof Integer) {
+            int value = (Integer) constant;
+            switch (opcode) {
+                case I2L: return (long) value;
+                case I2D: return (double) value;
+            }
+        } else if (constant instanceof Long) {
+            long value = (Long) constant;
+            switch (opcode) {
+                case L2I: return (int) value;
+                case L2D: return (double) value;
+            }
+        } else if (constant instanceof Double) {
+            double value = (Double) constant;
+            switch (opcode) {
+                case D2I: return (int) value;
+                case D2L: return (long) value;
+            }
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the shortest instruction pushing the given constant. */
+    private static AbstractInsnNode constantInsn (Object constant)
+    {
+        if (constant instanceof Integer) {
+            int value = (Integer) constant;
+            if (value >= -1 && value <= 5)
+                return new InsnNode(ICONST_0 + value);
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+                return new IntInsnNode(BIPUSH, value);
+            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                return new IntInsnNode(SIPUSH, value);
+        } else if (constant instanceof Long) {
+            long value = (Long) constant;
+            if (value == 0L || value == 1L)
+                return new InsnNode(LCONST_0 + (int) value);
+        } else if (constant instanceof Double) {
+            double value = (Double) constant;
+            // bit comparison to exclude -0.0
+            if (Double.doubleToRawLongBits(value) == 0L || value == 1d)
+                return new InsnNode(DCONST_0 + (int) value);
+        }
+        return new LdcInsnNode(constant);
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Stack Shuffles]
+    // =============================================================================================
+
+    private boolean cancelStackShuffles ()
+    {
+        boolean changed = false;
+        AbstractInsnNode insn = insns.getFirst();
+        while (insn != null) {
+            AbstractInsnNode next = insn.getNext();
+            AbstractInsnNode prev = insn.getPrevious();
+
+            // push; pop
+            if (next != null && pushedSize(insn) > 0 && pushedSize(insn) == poppedSize(next)) {
+                insns.remove(insn);
+                insns.remove(next);
+                changed = true;
+                insn = prev == null ? insns.getFirst() : prev;
+                continue;
+            }
+
+            // dup_xN; store; pop
+            AbstractInsnNode pop = next == null ? null : next.getNext();
+            if (pop != null && dupSize(insn) > 0
+                    && dupSize(insn) == poppedSize(pop)
+                    && dupDepth(insn) == storeDepth(next)) {
+                insns.remove(insn);
+                insns.remove(pop);
+                changed = true;
+                insn = next;
+                continue;
+            }
+
+            insn = next;
+        }
+        return changed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the size (in stack words) of the value pushed by the instruction, if it is an
+     * instruction without side effects that only pushes a value, or 0 otherwise.
+     */
+    private static int pushedSize (AbstractInsnNode insn)
+    {
+        int opcode = insn.getOpcode();
+        switch (opcode) {
+            case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5: case BIPUSH: case SIPUSH:
+            case ILOAD: case ALOAD: case DUP:
+                return 1;
+            case LCONST_0: case LCONST_1: case DCONST_0: case DCONST_1:
+            case LLOAD: case DLOAD: case DUP2:
+                return 2;
+            case LDC:
+                Object cst = ((LdcInsnNode) insn).cst;
+                return cst instanceof Long || cst instanceof Double ? 2 : 1;
+            default:
+                return 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns 1 for {@code POP}, 2 for {@code POP2} and -1 for anything else. */
+    private static int poppedSize (AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        return opcode == POP ? 1 : opcode == POP2 ? 2 : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the size of the value duplicated by a {@code DUP} variant, or 0. */
+    private static int dupSize (AbstractInsnNode insn)
+    {
+        switch (insn.getOpcode()) {
+            case DUP: case DUP_X1: case DUP_X2:     return 1;
+            case DUP2: case DUP2_X1: case DUP2_X2:  return 2;
+            default:                                return 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of stack words a {@code DUP} variant inserts the copy under. */
+    private static int dupDepth (AbstractInsnNode insn)
+    {
+        switch (insn.getOpcode()) {
+            case DUP: case DUP2:        return 0;
+            case DUP_X1: case DUP2_X1:  return 1;
+            case DUP_X2: case DUP2_X2:  return 2;
+            default:                    return -1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the instruction stores the value at the top of the stack, returns the number of stack
+     * words it consumes under the value (e.g. 1 for the object reference of {@code PUTFIELD}),
+     * otherwise returns -2.
+     */
+    private static int storeDepth (AbstractInsnNode insn)
+    {
+        int opcode = insn.getOpcode();
+        if (opcode >= ISTORE && opcode <= ASTORE) return 0;
+        if (opcode == PUTSTATIC) return 0;
+        if (opcode == PUTFIELD) return 1;
+        if (opcode >= IASTORE && opcode <= SASTORE) return 2;
+        return -2;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Jumps]
+    // =============================================================================================
+
+    /** Set by the jump rewrites when they change the method. */
+    private boolean jumpsChanged;
+
+    private boolean simplifyJumps ()
+    {
+        jumpsChanged = false;
+        AbstractInsnNode insn = insns.getFirst();
+        while (insn != null) {
+            if (insn instanceof JumpInsnNode)
+                insn = simplifyJump((JumpInsnNode) insn);
+            else if (insn.getOpcode() == ICONST_0 || insn.getOpcode() == ICONST_1)
+                insn = resolveConstantBranch(insn);
+            else
+                insn = insn.getNext();
+        }
+        return jumpsChanged;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Simplifies the jump, returning the instruction to process next. */
+    private AbstractInsnNode simplifyJump (JumpInsnNode jump)
+    {
+        AbstractInsnNode next = jump.getNext();
+
+        // jump to goto: retarget to the final destination
+        AbstractInsnNode target = realInsn(jump.label);
+        if (target != jump && target instanceof JumpInsnNode && target.getOpcode() == GOTO
+                && ((JumpInsnNode) target).label != jump.label) {
+            jump.label = ((JumpInsnNode) target).label;
+            jumpsChanged = true;
+            return next;
+        }
+
+        // jump to the next instruction
+        if (jump.getOpcode() == GOTO && followsImmediately(jump, jump.label)) {
+            insns.remove(jump);
+            jumpsChanged = true;
+            return next;
+        }
+
+        // if (cond) goto L1; goto L2; L1: ==> if (!cond) goto L2; L1:
+        int inverse = invertJump(jump.getOpcode());
+        if (inverse >= 0 && next != null && next.getOpcode() == GOTO
+                && followsImmediately(next, jump.label)) {
+            jump.setOpcode(inverse);
+            jump.label = ((JumpInsnNode) next).label;
+            AbstractInsnNode after = next.getNext();
+            insns.remove(next);
+            jumpsChanged = true;
+            return after;
+        }
+
+        return next;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A constant boolean that flows (possibly through gotos) into an {@code IFEQ} or {@code IFNE}
+     * is replaced by a jump to where that branch would go.
+     */
+    private AbstractInsnNode resolveConstantBranch (AbstractInsnNode constant)
+    {
+        AbstractInsnNode test = realInsn(constant.getNext());
+        for (int i = 0; i < 8 && test != null && test.getOpcode() == GOTO; ++i)
+            test = realInsn(((JumpInsnNode) test).label);
+
+        if (test == null || (test.getOpcode() != IFEQ && test.getOpcode() != IFNE))
+            return constant.getNext();
+
+        boolean zero = constant.getOpcode() == ICONST_0;
+        boolean taken = zero == (test.getOpcode() == IFEQ);
+        LabelNode destination = taken ? ((JumpInsnNode) test).label : labelAfter(test);
+        JumpInsnNode jump = new JumpInsnNode(GOTO, destination);
+        insns.set(constant, jump);
+        jumpsChanged = true;
+        return jump.getNext();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the first actual instruction at or after {@code insn}. */
+    private static AbstractInsnNode realInsn (AbstractInsnNode insn)
+    {
+        while (insn != null && insn.getOpcode() < 0)
+            insn = insn.getNext();
+        return insn;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether {@code label} follows {@code insn}, with only non-instructions in between. */
+    private static boolean followsImmediately (AbstractInsnNode insn, LabelNode label)
+    {
+        for (AbstractInsnNode it = insn.getNext(); it != null && it.getOpcode() < 0; it = it.getNext())
+            if (it == label) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a label directly following the instruction, inserting one if needed. */
+    private LabelNode labelAfter (AbstractInsnNode insn)
+    {
+        if (insn.getNext() instanceof LabelNode)
+            return (LabelNode) insn.getNext();
+        LabelNode label = new LabelNode();
+        insns.insert(insn, label);
+        return label;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Dead Code]
+    // =============================================================================================
+
+    private boolean removeDeadCode ()
+    {
+        Set<LabelNode> referenced = referencedLabels();
+        boolean changed = false;
+        boolean reachable = true;
+
+        AbstractInsnNode insn = insns.getFirst();
+        while (insn != null) {
+            AbstractInsnNode next = insn.getNext();
+            if (insn instanceof LabelNode) {
+                if (referenced.contains(insn))
+                    reachable = true;
+                else {
+                    insns.remove(insn);
+                    changed = true;
+                }
+            } else if (!reachable && insn.getOpcode() >= 0) {
+                insns.remove(insn);
+                changed = true;
+            } else if (endsFlow(insn.getOpcode())) {
+                reachable = false;
+            }
+            insn = next;
+        }
+        return changed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean endsFlow (int opcode) {
+        return opcode == GOTO || opcode == ATHROW || opcode >= IRETURN && opcode <= RETURN
+            || opcode == TABLESWITCH || opcode == LOOKUPSWITCH;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked") // the ASM 5 tree API uses raw types
+    private Set<LabelNode> referencedLabels ()
+    {
+        Set<LabelNode> labels = new HashSet<>();
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode)
+                labels.add(((JumpInsnNode) insn).label);
+            else if (insn instanceof LineNumberNode)
+                labels.add(((LineNumberNode) insn).start);
+            else if (insn instanceof TableSwitchInsnNode) {
+                labels.add(((TableSwitchInsnNode) insn).dflt);
+                labels.addAll(((TableSwitchInsnNode) insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                labels.add(((LookupSwitchInsnNode) insn).dflt);
+                labels.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        if (method.tryCatchBlocks != null)
+            for (TryCatchBlockNode block: (List<TryCatchBlockNode>) method.tryCatchBlocks) {
+                labels.add(block.start);
+                labels.add(block.end);
+                labels.add(block.handler);
+            }
+        if (method.localVariables != null)
+            for (LocalVariableNode local: (List<LocalVariableNode>) method.localVariables) {
+                labels.add(local.start);
+                labels.add(local.end);
+            }
+        return labels;
+    }
+
+    // endregion
+    // =============================================================================================
+}
@@ -1,5 +1,14 @@
 package norswap.sigh.bytecode;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+import static java.lang.invoke.MethodType.methodType;
+
 public final class SighRuntime
 {
     /**
@@ -14,12 +23,159 @@ public final class SighRuntime
     /**
      * Implementation of the Sigh {@code print} method, which prints the string to standard output
      * then returns it.
-     *
-     * <p>For now, only used to get a method handle for when {@code print} is used as a value,
-     * but not actually used in method calls. Might change that in the future?
      */
     public static String print(String string) {
         System.out.println(string);
         return string;
     }
+
+    /**
+     * Implementation of the Sigh {@code hello} method.
+     */
+    public static void hello() {
+        System.out.println("Hello world !");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the {@code Int} values packed in {@code data} (see {@link ArrayPacker}) into {@code
+     * array}, starting at index {@code offset}.
+     */
+    public static void unpack (long[] array, int offset, String data) {
+        for (int pos = 0; pos < data.length(); ) {
+            long value = 0;
+            int shift = 0;
+            char c;
+            do {
+                c = data.charAt(pos++);
+                value |= (long) (c & 0x7FFF) << shift;
+                shift += 15;
+            } while ((c & 0x8000) != 0);
+            array[offset++] = (value >>> 1) ^ -(value & 1); // zig-zag
+        }
+    }
+
+    /**
+     * Decodes the {@code Float} values packed in {@code data} (see {@link ArrayPacker}) into {@code
+     * array}, starting at index {@code offset}.
+     */
+    public static void unpack (double[] array, int offset, String data) {
+        for (int pos = 0; pos < data.length(); ) {
+            long value = 0;
+            int shift = 0;
+            char c;
+            do {
+                c = data.charAt(pos++);
+                value |= (long) (c & 0x7FFF) << shift;
+                shift += 15;
+            } while ((c & 0x8000) != 0);
+            array[offset++] = Double.longBitsToDouble(Long.reverse(value));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a fresh copy of an array literal template.
+     */
+    public static long[] copy (long[] template) {
+        long[] array = new long[template.length];
+        System.arraycopy(template, 0, array, 0, template.length);
+        return array;
+    }
+
+    /**
+     * Returns a fresh copy of an array literal template.
+     */
+    public static double[] copy (double[] template) {
+        double[] array = new double[template.length];
+        System.arraycopy(template, 0, array, 0, template.length);
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final MethodHandle LINK;
+    private static final MethodHandle SAME;
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            LINK = lookup.findStatic(SighRuntime.class, "link",
+                methodType(Object.class, MutableCallSite.class, Object[].class));
+            SAME = lookup.findStatic(SighRuntime.class, "same",
+                methodType(boolean.class, MethodHandle.class, MethodHandle.class));
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Bootstrap method for calls through a function value. The call site type is that of the
+     * function, prefixed by the {@link MethodHandle} for the function value.
+     *
+     * <p>The call site is a monomorphic inline cache: the first call links it to the called
+     * handle (guarded by an identity check), so that the JIT can inline the callee. If the guard
+     * fails, the call goes through a generic {@link MethodHandles#invoker invoker}.
+     */
+    public static CallSite bootstrapCall (MethodHandles.Lookup lookup, String name, MethodType type)
+    {
+        MutableCallSite site = new MutableCallSite(type);
+        site.setTarget(LINK.bindTo(site)
+            .asCollector(Object[].class, type.parameterCount())
+            .asType(type));
+        return site;
+    }
+
+    private static Object link (MutableCallSite site, Object[] args) throws Throwable
+    {
+        MethodHandle callee = (MethodHandle) args[0];
+        MethodType funType = site.type().dropParameterTypes(0, 1);
+        MethodHandle direct = MethodHandles.dropArguments(
+            callee.asType(funType), 0, MethodHandle.class);
+        site.setTarget(MethodHandles.guardWithTest(
+            SAME.bindTo(callee), direct, MethodHandles.invoker(funType)));
+        return direct.invokeWithArguments(args);
+    }
+
+    private static boolean same (MethodHandle expected, MethodHandle actual) {
+        return expected == actual;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Bootstrap method for direct calls to a lazily compiled function (see {@link LazyUnit}). The
+     * call site type is that of the function, and {@code unit} is the binary name of the class
+     * for the source unit that declares it.
+     *
+     * <p>The function is compiled and loaded on first use, and the call site is permanently linked
+     * to it.
+     */
+    public static CallSite bootstrapFunction (
+            MethodHandles.Lookup lookup, String name, MethodType type, String unit)
+            throws ReflectiveOperationException
+    {
+        return new ConstantCallSite(lookup.findStatic(lazyFunction(lookup, unit, name), name, type));
+    }
+
+    /**
+     * Bootstrap method for references to a lazily compiled function used as a value (see {@link
+     * LazyUnit}). The call site returns the {@link MethodHandle} to the function, whose type is
+     * {@code funType}.
+     */
+    public static CallSite bootstrapFunctionValue (
+            MethodHandles.Lookup lookup, String name, MethodType type, String unit,
+            MethodType funType)
+            throws ReflectiveOperationException
+    {
+        MethodHandle function = lookup.findStatic(lazyFunction(lookup, unit, name), name, funType);
+        return new ConstantCallSite(MethodHandles.constant(MethodHandle.class, function));
+    }
+
+    private static Class<?> lazyFunction (MethodHandles.Lookup lookup, String unit, String name)
+    {
+        ByteArrayClassLoader loader = (ByteArrayClassLoader) lookup.lookupClass().getClassLoader();
+        return loader.lazyUnit(unit).load(loader, name);
+    }
 }
@@ -1,6 +1,14 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.BigFloats;
+import norswap.sigh.BigInts;
+import norswap.sigh.FloatList;
+import norswap.sigh.IntList;
+import norswap.sigh.Range;
+import norswap.sigh.Slice;
+import norswap.sigh.StringList;
 import norswap.sigh.types.*;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Array;
 
 /**
@@ -44,10 +52,18 @@ public final class TypeUtils {
             return Null.class;
         else if (type instanceof ArrayType)
             return javaArrayClass(((ArrayType) type).componentType);
+        else if (type instanceof BigArrayType)
+            return type == BigArrayType.INTS ? BigInts.class : BigFloats.class;
+        else if (type instanceof RangeType)
+            return Range.class;
+        else if (type instanceof SliceType)
+            return Slice.class;
+        else if (type instanceof ListType)
+            return listClass((ListType) type);
         else if (type instanceof TypeType)
             return Type.class;
         else if (type instanceof FunType)
-            throw new UnsupportedOperationException(); // TODO
+            return MethodHandle.class;
         else if (type instanceof StructType)
             return Object.class; // the proper class type is not available at compile time
         else
@@ -56,6 +72,19 @@ public final class TypeUtils {
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Returns the class used for the runtime representation of the given list type. */
+    public static Class<?> listClass (ListType type)
+    {
+        if (type.componentType instanceof IntType)
+            return IntList.class;
+        else if (type.componentType instanceof FloatType)
+            return FloatList.class;
+        else
+            return StringList.class;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a java {@link Class} used for the runtime representation of the array whose
      * components is the given Sigh {@link Type}.
@@ -77,12 +106,14 @@ public final class TypeUtils {
             return String[].class;
         else if (type instanceof NullType)
             return Null[].class;
-        else if (type instanceof ArrayType)
-            return Array.newInstance(javaClass(((ArrayType) type).componentType)).getClass();
+        else if (type instanceof ArrayType || type instanceof BigArrayType
+                || type instanceof RangeType || type instanceof SliceType
+                || type instanceof ListType)
+            return Array.newInstance(javaClass(type), 0).getClass();
         else if (type instanceof TypeType)
             return Type[].class;
         else if (type instanceof FunType)
-            throw new UnsupportedOperationException(); // TODO
+            return MethodHandle[].class;
         else if (type instanceof StructType)
             return Object[].class; // the proper class type is not available at compile time
         else
@@ -110,10 +141,18 @@ public final class TypeUtils {
             return "Lnorswap/sigh/bytecode/Null;";
         else if (type instanceof ArrayType)
             return "[" + fieldDescriptor(((ArrayType) type).componentType);
+        else if (type instanceof BigArrayType)
+            return type == BigArrayType.INTS ? "Lnorswap/sigh/BigInts;" : "Lnorswap/sigh/BigFloats;";
+        else if (type instanceof RangeType)
+            return "Lnorswap/sigh/Range;";
+        else if (type instanceof SliceType)
+            return "Lnorswap/sigh/Slice;";
+        else if (type instanceof ListType)
+            return "L" + AsmUtils.slashBinaryName(listClass((ListType) type)) + ";";
         else if (type instanceof TypeType)
             return "Lnorswap/sigh/types/Type;";
         else if (type instanceof FunType)
-            throw new UnsupportedOperationException(); // TODO
+            return "Ljava/lang/invoke/MethodHandle;";
         else if (type instanceof StructType)
             return "L" + structBinaryName((StructType) type) + ";";
         else
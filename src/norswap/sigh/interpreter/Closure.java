@@ -0,0 +1,30 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.FunDeclarationNode;
+
+/**
+ * Class representing user-defined functions in the interpreter: the declaration node paired with
+ * the storage of the scope in which the function was declared (its environment). Carrying the
+ * environment lets function values be called from anywhere, including after the declaring
+ * function has returned.
+ */
+public final class Closure
+{
+    public final FunDeclarationNode declaration;
+    public final ScopeStorage environment;
+
+    public Closure (FunDeclarationNode declaration, ScopeStorage environment) {
+        this.declaration = declaration;
+        this.environment = environment;
+    }
+
+    @Override public int hashCode () {
+        return 31 * System.identityHashCode(declaration) + System.identityHashCode(environment);
+    }
+
+    @Override public boolean equals (Object other) {
+        return other instanceof Closure
+            && ((Closure) other).declaration == declaration
+            && ((Closure) other).environment == environment;
+    }
+}
@@ -0,0 +1,208 @@
+package norswap.sigh.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of warm {@link ExecutionContext execution contexts} for a {@link Program}, for hosts that
+ * serve many requests by calling the functions of the same program.
+ *
+ * <p>A context is created (and the top-level code of the program run, once) when no idle context
+ * is available. Its top-level state is then snapshotted, and it is {@link ExecutionContext#reset
+ * reset} to that snapshot each time it is released, so that requests only pay for the calls they
+ * make and never observe the effects of previous requests. For this reason, the top-level
+ * variables of the program must not hold big arrays (see {@link ExecutionContext#snapshot}).
+ *
+ * <p>At most {@code maxIdle} contexts are kept, and contexts that stay unused longer than the
+ * idle timeout are evicted (when the pool is used, or by {@link #evictIdle}). The pool counts its
+ * hits (acquisitions served by an idle context) and misses (acquisitions that created a
+ * context). Evicted and discarded contexts are {@link ExecutionContext#close closed}, and so are
+ * the idle contexts when the pool is closed. This class is thread-safe.
+ */
+public final class ContextPool implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final Program program;
+
+    private final int maxIdle;
+    private final long idleTimeoutNanos;
+
+    /** Idle contexts, the most recently released first. */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+
+    private long hits, misses, evictions;
+    private boolean closed = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Idle {
+        final ExecutionContext context;
+        final long since;
+        Idle (ExecutionContext context, long since) {
+            this.context = context;
+            this.since = since;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a pool that keeps at most {@code maxIdle} idle contexts, which are never evicted
+     * because of their idle time.
+     */
+    public ContextPool (Program program, int maxIdle) {
+        this(program, maxIdle, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a pool that keeps at most {@code maxIdle} idle contexts, and evicts contexts that
+     * have been idle for longer than {@code idleTimeout}.
+     */
+    public ContextPool (Program program, int maxIdle, long idleTimeout, TimeUnit unit)
+    {
+        if (maxIdle < 0 || idleTimeout < 0)
+            throw new IllegalArgumentException("negative pool size or idle timeout");
+        this.program = program;
+        this.maxIdle = maxIdle;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a context whose top-level code has run, reusing an idle context if possible. The
+     * context must be given back with {@link #release} once the caller is done with it.
+     */
+    public ExecutionContext acquire ()
+    {
+        synchronized (this) {
+            evictIdle(System.nanoTime());
+            Idle it = idle.pollFirst();
+            if (it != null) {
+                ++hits;
+                return it.context;
+            }
+            ++misses;
+        }
+
+        ExecutionContext context = program.newContext();
+        context.run();
+        context.snapshot();
+        return context;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Resets a context obtained from {@link #acquire} and returns it to the pool, or discards it
+     * if the pool is full.
+     */
+    public void release (ExecutionContext context)
+    {
+        if (context.program != program)
+            throw new IllegalArgumentException("context does not belong to this pool's program");
+
+        context.reset();
+        synchronized (this) {
+            long now = System.nanoTime();
+            evictIdle(now);
+            if (!closed && idle.size() < maxIdle) {
+                idle.addFirst(new Idle(context, now));
+                return;
+            }
+        }
+        context.close();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the top-level function with the given name in a pooled context (see {@link
+     * Interpreter#call}), and returns its result.
+     */
+    public Object call (String name, Object... args)
+    {
+        ExecutionContext context = acquire();
+        try {
+            return context.call(name, args);
+        } finally {
+            release(context);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evicts the contexts that have been idle for longer than the idle timeout, and returns their
+     * number.
+     */
+    public synchronized int evictIdle () {
+        return evictIdle(System.nanoTime());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int evictIdle (long now)
+    {
+        int count = 0;
+        while (!idle.isEmpty() && now - idle.peekLast().since > idleTimeoutNanos) {
+            idle.pollLast().context.close();
+            ++count;
+        }
+        evictions += count;
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of acquisitions that were served by an idle context. */
+    public synchronized long hits () {
+        return hits;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of acquisitions that had to create a context. */
+    public synchronized long misses () {
+        return misses;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of contexts evicted because of their idle time. */
+    public synchronized long evictions () {
+        return evictions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the fraction of acquisitions served by an idle context (0 if there was none). */
+    public synchronized double hitRate () {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of idle contexts in the pool. */
+    public synchronized int idleCount () {
+        return idle.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Closes the idle contexts. Contexts acquired before are closed when they are released, and
+     * contexts acquired afterwards are not pooled.
+     */
+    @Override public synchronized void close ()
+    {
+        closed = true;
+        while (!idle.isEmpty())
+            idle.pollFirst().context.close();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
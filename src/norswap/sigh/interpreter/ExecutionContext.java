@@ -0,0 +1,102 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.BigArray;
+import java.util.function.Supplier;
+
+/**
+ * A single execution of a {@link Program}, holding all of its mutable state: the storage of the
+ * scopes (including the top-level variables) and the state of the interpreter.
+ *
+ * <p>Any number of contexts for the same program can run concurrently, but a context must only be
+ * used by one thread at a time.
+ *
+ * <p>The context {@link BigArray.Owner owns} the big arrays allocated by its program, except those
+ * returned to the host by {@link #run} and {@link #call}, which the host must release. It releases
+ * the arrays it owns when it is {@link #reset} (at which point the program can no longer reach
+ * them) or {@link #close closed}.
+ */
+public final class ExecutionContext implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final Program program;
+    private final Interpreter interpreter;
+    private final BigArray.Owner arrays = new BigArray.Owner();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ExecutionContext (Program program) {
+        this.program = program;
+        this.interpreter = new Interpreter(program);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the top-level code of the program and returns its result (the value of a top-level
+     * return statement, or null). Running it again starts over with fresh top-level variables.
+     */
+    public Object run () {
+        return owning(() -> interpreter.interpret(program.root));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls a top-level function of the program, after {@link #run}, see {@link
+     * Interpreter#call}.
+     */
+    public Object call (String name, Object... args) {
+        return owning(() -> interpreter.call(name, args));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Runs the action with this context as the owner of the allocated big arrays. */
+    private Object owning (Supplier<Object> action)
+    {
+        BigArray.Owner previous = arrays.enter();
+        try {
+            return arrays.disown(action.get());
+        } finally {
+            BigArray.Owner.exit(previous);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Saves the state of the top-level variables, after {@link #run}, so that {@link #reset} can
+     * restore it. Mutable values reachable from these variables (arrays, structures and closure
+     * environments) are copied. Big arrays (see {@link norswap.sigh.BigArray}) cannot be copied:
+     * an {@link IllegalStateException} is thrown if a big array that has not been released is
+     * reachable from these variables. Running the program again discards the snapshot.
+     */
+    public void snapshot () {
+        interpreter.snapshot();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Restores the state of the top-level variables saved by {@link #snapshot}, undoing the
+     * effects of the calls made since. Effects outside of the program (e.g. printed output, or
+     * modifications of host arrays) are not undone. Releases the big arrays owned by the context:
+     * since the snapshot can't include big arrays, they are no longer reachable.
+     */
+    public void reset () {
+        interpreter.reset();
+        arrays.releaseAll();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Releases the big arrays owned by the context. The context must not be used afterwards.
+     */
+    @Override public void close () {
+        arrays.releaseAll();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
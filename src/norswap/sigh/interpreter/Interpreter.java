@@ -1,9 +1,19 @@
 package norswap.sigh.interpreter;
 
+import norswap.sigh.BigArray;
+import norswap.sigh.BigFloats;
+import norswap.sigh.BigInts;
+import norswap.sigh.FloatList;
+import norswap.sigh.IntList;
+import norswap.sigh.Range;
+import norswap.sigh.SighList;
+import norswap.sigh.Slice;
+import norswap.sigh.StringList;
 import norswap.sigh.ast.*;
 import norswap.sigh.ast.base.TemplateTypeDeclarationNode;
 import norswap.sigh.ast.base.TemplateTypeNode;
 import norswap.sigh.ast.base.TemplateTypeReference;
+import norswap.sigh.builtins.Builtin;
 import norswap.sigh.scopes.DeclarationContext;
 import norswap.sigh.scopes.DeclarationKind;
 import norswap.sigh.scopes.RootScope;
@@ -19,6 +29,8 @@ import norswap.utils.visitors.ValuedVisitor;
 import java.sql.Array;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -29,25 +41,30 @@ import static norswap.utils.Vanilla.map;
 /**
  * Implements a simple but inefficient interpreter for Sigh.
  *
- * <h2>Limitations</h2>
- * <ul>
- *     <li>The compiled code currently doesn't support closures (using variables in functions that
- *     are declared in some surroudning scopes outside the function). The top scope is supported.
- *     </li>
- * </ul>
+ * <h2>Closures</h2>
+ * <p>Functions can use variables declared in the surrounding scopes. Referencing a function
+ * yields a {@link Closure} that pairs its declaration with the active storage of the declaring
+ * scope (its environment). When the closure is called, that environment (and not the storage of
+ * the caller) becomes the parent of the function's {@link ScopeStorage}, so function values
+ * remain valid when passed around or returned.
  *
  * <p>Runtime value representation:
  * <ul>
  *     <li>{@code Int}, {@code Float}, {@code Bool}: {@link Long}, {@link Double}, {@link Boolean}</li>
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link Null#INSTANCE}</li>
- *     <li>Arrays: {@code Object[]}</li>
+ *     <li>Arrays: {@code Object[]}, or a primitive array ({@code long[]}, {@code double[]} or
+ *     {@code boolean[]}) passed by the host application, see {@link #call}</li>
  *     <li>Structs: {@code HashMap<String, Object>}</li>
- *     <li>Functions: the corresponding {@link DeclarationNode} ({@link FunDeclarationNode} or
- *     {@link SyntheticDeclarationNode}), excepted structure constructors, which are
- *     represented by {@link Constructor}</li>
+ *     <li>Functions: {@link Closure} for user-defined functions, the {@link
+ *     SyntheticDeclarationNode} for builtins, the {@link ExternFunDeclarationNode} for extern
+ *     functions, and {@link Constructor} for structure constructors</li>
  *     <li>Types: the corresponding {@link StructDeclarationNode}</li>
  * </ul>
+ *
+ * <p>An interpreter holds the state of the execution, and is not thread-safe. To execute an
+ * analyzed program concurrently, create a {@link Program} and an {@link ExecutionContext} (which
+ * owns an interpreter) per execution.
  */
 public final class Interpreter
 {
@@ -55,14 +72,47 @@ public final class Interpreter
 
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
     private final Reactor reactor;
+
+    /** Cached values of constant array literals, see {@link #arrayLiteral}. */
+    private final Map<ArrayLiteralNode, Object[]> arrayTemplates;
+
+    /** Whether {@link #arrayTemplates} is shared with other interpreters (and read-only). */
+    private final boolean sharedTemplates;
+
     private ScopeStorage storage = null;
     private RootScope rootScope;
     private ScopeStorage rootStorage;
 
+    /** Top-level variables saved by {@link #snapshot}, or null. */
+    private HashMap<String, Object> snapshot;
+
+    /** Whether {@link #snapshot} only holds immutable values, and can be shared on reset. */
+    private boolean immutableSnapshot;
+
     // ---------------------------------------------------------------------------------------------
 
     public Interpreter (Reactor reactor) {
+        this(reactor, new IdentityHashMap<>(), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an interpreter for an execution of the program, sharing the program's constant
+     * array values.
+     */
+    Interpreter (Program program) {
+        this(program.reactor, program.arrayTemplates, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Interpreter (
+            Reactor reactor, Map<ArrayLiteralNode, Object[]> arrayTemplates, boolean sharedTemplates)
+    {
         this.reactor = reactor;
+        this.arrayTemplates = arrayTemplates;
+        this.sharedTemplates = sharedTemplates;
 
         // expressions
         visitor.register(IntLiteralNode.class,           this::intLiteral);
@@ -74,6 +124,8 @@ public final class Interpreter
         visitor.register(ParenthesizedNode.class,        this::parenthesized);
         visitor.register(FieldAccessNode.class,          this::fieldAccess);
         visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(SliceNode.class,                this::slice);
+        visitor.register(ListConstructorNode.class,      this::listConstructor);
         visitor.register(FunCallNode.class,              this::funCall);
         visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
         visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
@@ -119,10 +171,181 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Calls the top-level function with the given name, after the program has been run by {@link
+     * #interpret}, and returns its result.
+     *
+     * <p>Arguments and results use the representation of {@link Builtin#toHost host values}:
+     * boxed scalars, and primitive arrays ({@code long[]} for {@code Int[]}, {@code double[]} for
+     * {@code Float[]}, {@code boolean[]} for {@code Bool[]}). Primitive arrays are passed by
+     * reference (without copying), so that the host sees the modifications made by the function,
+     * and are returned as is. Arrays created by the function are converted when returned. Values
+     * of other types (structures, functions) are passed as is, without checking.
+     *
+     * <p>Throws an {@link IllegalArgumentException} if there is no such (non-template) function,
+     * or if the arguments do not match its parameters (see {@link Builtin#isHostValue}).
+     */
+    public Object call (String name, Object... args)
+    {
+        if (rootStorage == null)
+            throw new IllegalStateException("the program must be interpreted before calling " + name);
+
+        DeclarationNode decl = rootScope.lookupLocal(name);
+        if (!(decl instanceof FunDeclarationNode)
+                || !((FunDeclarationNode) decl).templateParameters.isEmpty())
+            throw new IllegalArgumentException("no top-level non-template function named " + name);
+
+        FunType type = reactor.get(decl, "type");
+        if (args.length != type.paramTypes.length)
+            throw new IllegalArgumentException(String.format(
+                "function %s takes %d arguments, got %d", name, type.paramTypes.length, args.length));
+
+        Object[] actual = new Object[args.length];
+        for (int i = 0; i < args.length; ++i) {
+            Type param = type.paramTypes[i];
+            if (Builtin.isConvertible(param) && !Builtin.isHostValue(args[i], param))
+                throw new IllegalArgumentException(String.format(
+                    "argument %d of function %s should be a %s, got %s", i, name, param,
+                    args[i] == null ? "null" : args[i].getClass().getName()));
+            actual[i] = Builtin.toInterpreter(args[i], param);
+        }
+
+        Object result;
+        try {
+            result = invoke(new Closure((FunDeclarationNode) decl, rootStorage), actual, null);
+        } catch (PassthroughException e) {
+            throw Exceptions.runtime(e.getCause());
+        }
+        return Builtin.isConvertible(type.returnType)
+            ? Builtin.toHost(result, type.returnType)
+            : result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Saves the values of the top-level variables, after the program has been run by {@link
+     * #interpret}, so that they can be restored by {@link #reset}. Mutable values (arrays,
+     * structures, and the environments of closures that are not top-level functions) are copied.
+     * Throws an {@link IllegalStateException} if they include a big array that has not been
+     * released.
+     */
+    void snapshot ()
+    {
+        if (rootStorage == null)
+            throw new IllegalStateException("the program must be interpreted before a snapshot");
+        snapshot = copy(rootStorage.values(), new IdentityHashMap<>());
+        immutableSnapshot = snapshot.values().stream()
+            .allMatch(it -> copy(it, new IdentityHashMap<>()) == it);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Restores the top-level variables saved by {@link #snapshot}. If all the saved values are
+     * immutable, the snapshot is shared until a top-level variable is assigned (copy-on-write),
+     * so that the reset costs nothing. Otherwise, the mutable values are copied.
+     */
+    void reset ()
+    {
+        if (snapshot == null)
+            throw new IllegalStateException("no snapshot to reset to");
+        if (immutableSnapshot)
+            rootStorage.restore(snapshot, true);
+        else
+            rootStorage.restore(copy(snapshot, new IdentityHashMap<>()), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a deep copy of a value, or the value itself if it is immutable (including released
+     * big arrays). {@code copies} maps the values copied so far to their copy, in order to preserve
+     * sharing. Throws an {@link IllegalStateException} for big arrays that have not been released,
+     * whose contents would not be restored by {@link #reset}.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T copy (T value, IdentityHashMap<Object, Object> copies)
+    {
+        Object copy = copies.get(value);
+        if (copy != null)
+            return (T) copy;
+
+        if (value instanceof Object[]) {
+            Object[] array = ((Object[]) value).clone();
+            copies.put(value, array);
+            for (int i = 0; i < array.length; ++i)
+                array[i] = copy(array[i], copies);
+            copy = array;
+        }
+        else if (value instanceof long[])
+            copy = ((long[]) value).clone();
+        else if (value instanceof double[])
+            copy = ((double[]) value).clone();
+        else if (value instanceof boolean[])
+            copy = ((boolean[]) value).clone();
+        else if (value instanceof Slice) {
+            Slice slice = (Slice) value;
+            copy = slice.withStorage(copy(slice.storage(), copies));
+        }
+        else if (value instanceof SighList)
+            copy = copyList((SighList) value);
+        else if (value instanceof BigArray && !((BigArray) value).released())
+            throw new IllegalStateException(
+                "cannot snapshot a big array reachable from a top-level variable");
+        else if (value instanceof HashMap) {
+            HashMap<String, Object> map = new HashMap<>();
+            copies.put(value, map);
+            ((HashMap<String, Object>) value).forEach((k, v) -> map.put(k, copy(v, copies)));
+            copy = map;
+        }
+        else if (value instanceof Closure && ((Closure) value).environment != rootStorage) {
+            Closure closure = (Closure) value;
+            copy = new Closure(closure.declaration, copy(closure.environment, copies));
+        }
+        else if (value instanceof ScopeStorage && value != rootStorage) {
+            ScopeStorage storage = (ScopeStorage) value;
+            ScopeStorage result = new ScopeStorage(storage.scope, copy(storage.parent, copies));
+            copies.put(value, result);
+            result.restore(copy(storage.values(), copies), false);
+            copy = result;
+        }
+        else
+            return value;
+
+        copies.put(value, copy);
+        return (T) copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a copy of the list (the elements of lists are immutable). */
+    private static SighList copyList (SighList list)
+    {
+        SighList copy;
+        if (list instanceof IntList) {
+            IntList ints = new IntList();
+            ints.data = ((IntList) list).data.clone();
+            copy = ints;
+        } else if (list instanceof FloatList) {
+            FloatList floats = new FloatList();
+            floats.data = ((FloatList) list).data.clone();
+            copy = floats;
+        } else {
+            StringList strings = new StringList();
+            strings.data = ((StringList) list).data.clone();
+            copy = strings;
+        }
+        copy.size = list.size;
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object run (SighNode node) {
         try {
             return visitor.apply(node);
-        } catch (InterpreterException | Return | PassthroughException e) {
+        } catch (InterpreterException | Return | TailCall | PassthroughException e) {
             throw e;
         } catch (RuntimeException e) {
             throw new InterpreterException("exception while executing " + node, e);
@@ -143,6 +366,20 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Used to implement self tail calls (see the {@code tailCall} attribute in {@link
+     * norswap.sigh.SemanticAnalysis}): unwinds to the {@link #funCall} frame of the function,
+     * which then runs its body again with the new arguments.
+     */
+    private static class TailCall extends NoStackException {
+        final Object[] arguments;
+        private TailCall (Object[] arguments) {
+            this.arguments = arguments;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private <T> T get(SighNode node) {
         return cast(run(node));
     }
@@ -169,8 +406,50 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] arrayLiteral (ArrayLiteralNode node) {
-        return map(node.components, new Object[0], visitor);
+    /**
+     * Array literals whose components are all literals are only evaluated once: each evaluation
+     * returns a copy of the cached array.
+     */
+    private Object[] arrayLiteral (ArrayLiteralNode node)
+    {
+        Object[] template = arrayTemplates.get(node);
+        if (template != null)
+            return template.clone();
+
+        Object[] array = map(node.components, new Object[0], visitor);
+        if (!sharedTemplates && isConstantArray(node))
+            arrayTemplates.put(node, array.clone());
+        return array;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether all the components of the array literal are literals. */
+    static boolean isConstantArray (ArrayLiteralNode node)
+    {
+        for (ExpressionNode component: node.components)
+            if (!(component instanceof IntLiteralNode
+                    || component instanceof FloatLiteralNode
+                    || component instanceof StringLiteralNode))
+                return false;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the value of a constant array literal (see {@link #isConstantArray}). */
+    static Object[] constantArray (ArrayLiteralNode node)
+    {
+        Object[] array = new Object[node.components.size()];
+        for (int i = 0; i < array.length; ++i) {
+            ExpressionNode component = node.components.get(i);
+            array[i] = component instanceof IntLiteralNode
+                ? (Object) ((IntLiteralNode) component).value
+                : component instanceof FloatLiteralNode
+                    ? (Object) ((FloatLiteralNode) component).value
+                    : ((StringLiteralNode) component).value;
+        }
+        return array;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -238,10 +517,25 @@ public final class Interpreter
                 && (leftType instanceof StringType || rightType instanceof StringType))
             return convertToString(left) + convertToString(right);
 
+        if ((left instanceof BigArray || right instanceof BigArray)
+                && (node.operator == BinaryOperator.DOT_PRODUCT
+                    || node.operator == BinaryOperator.MULTIPLY
+                    || node.operator == BinaryOperator.DIVIDE))
+            return bigArrayOp(node, left, right);
+
+        if ((left instanceof Range || right instanceof Range)
+                && node.operator == BinaryOperator.DOT_PRODUCT)
+            return rangeDotProduct(left, right, left instanceof Range ? rightType : leftType);
+
         boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
         boolean numeric  = floating || leftType instanceof IntType || rightType instanceof IntType;
 
-        boolean involvesArray = left.getClass().isArray() || right.getClass().isArray();
+        boolean involvesArray = isVector(left) || isVector(right);
+
+        // unlike arrays, slices with Float elements always yield Float elements
+        if (left instanceof Slice || right instanceof Slice)
+            floating = floating || componentType(leftType) instanceof FloatType
+                || componentType(rightType) instanceof FloatType;
 
         if ((numeric || right instanceof IntType || right instanceof Long) && involvesArray) {
             return scalarProductOp(node, floating, left, right);
@@ -255,8 +549,8 @@ public final class Interpreter
             case NOT_EQUALS:
                 return  leftType.isPrimitive() ? !left.equals(right) : left != right;
             case DOT_PRODUCT: {
-                floating = floating || ((ArrayType) leftType).componentType instanceof FloatType || ((ArrayType) rightType).componentType instanceof FloatType;
-                return dotProductOp(node, floating, (Object[]) left, (Object[]) right);
+                floating = floating || componentType(leftType) instanceof FloatType || componentType(rightType) instanceof FloatType;
+                return dotProductOp(node, floating, left, right);
             }
         }
 
@@ -266,19 +560,20 @@ public final class Interpreter
     private Object scalarProductOp
         (BinaryExpressionNode node, Boolean floating, Object left, Object right)
     {
-        Object[] array = left instanceof Object[] ? (Object[]) left : (Object[]) right;
+        boolean leftArray = isVector(left);
+        Object array = leftArray ? left : right;
         BinaryOperator op = node.operator;
 
         if (floating || op ==  BinaryOperator.DIVIDE) {
-            double factor = left instanceof Object[] ? ((Number) right).floatValue() : ((Number) left).floatValue();
-            Double[] result = new Double[array.length];
+            double factor = leftArray ? ((Number) right).floatValue() : ((Number) left).floatValue();
+            Double[] result = new Double[length(array)];
             double elem;
 
-            for (int i = 0; i < array.length; i++) {
-                elem = ((Number) array[i]).floatValue();
+            for (int i = 0; i < result.length; i++) {
+                elem = ((Number) load(array, i)).floatValue();
 
                 if (op == BinaryOperator.DIVIDE) {
-                    if (left instanceof Object[]) {
+                    if (leftArray) {
                         result[i] = elem / factor;
                     } else {
                         result[i] = factor / elem;
@@ -290,12 +585,12 @@ public final class Interpreter
 
             return result;
         } else {
-            long factor = left instanceof Object[] ? ((Number) right).longValue(): ((Number) left).longValue();
-            Long[] result = new Long[array.length];
+            long factor = leftArray ? ((Number) right).longValue(): ((Number) left).longValue();
+            Long[] result = new Long[length(array)];
             long elem;
 
-            for (int i = 0; i < array.length; i++) {
-                elem = ((Number) array[i]).longValue();
+            for (int i = 0; i < result.length; i++) {
+                elem = ((Number) load(array, i)).longValue();
 
                 result[i] = elem * factor;
             }
@@ -304,15 +599,97 @@ public final class Interpreter
         }
     }
 
+    /** Whether the value is an array or a slice. */
+    private static boolean isVector (Object value) {
+        return value.getClass().isArray() || value instanceof Slice;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the component type of an array or slice type, or null for any other type. */
+    private static Type componentType (Type type)
+    {
+        if (type instanceof ArrayType) return ((ArrayType) type).componentType;
+        if (type instanceof SliceType) return ((SliceType) type).componentType;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the dot product of two big arrays, or the product or division of a big array by a
+     * scalar (see {@link BigArray}).
+     */
+    private Object bigArrayOp (BinaryExpressionNode node, Object left, Object right)
+    {
+        try {
+            if (node.operator == BinaryOperator.DOT_PRODUCT)
+                return left instanceof BigInts && right instanceof BigInts
+                    ? (Object) BigInts.dot((BigInts) left, (BigInts) right)
+                    : (Object) BigArray.dot((BigArray) left, (BigArray) right);
+
+            boolean arrayLeft = left instanceof BigArray;
+            BigArray array = (BigArray) (arrayLeft ? left : right);
+            Number scalar = (Number) (arrayLeft ? right : left);
+
+            if (node.operator == BinaryOperator.MULTIPLY)
+                return array instanceof BigInts && scalar instanceof Long
+                    ? BigInts.times((BigInts) array, scalar.longValue())
+                    : BigArray.times(array, scalar.doubleValue());
+            else
+                return arrayLeft
+                    ? BigArray.divide(array, scalar.doubleValue())
+                    : BigArray.divide(scalar.doubleValue(), array);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    /**
+     * Computes the dot product of a range with an array or another range, without materializing
+     * the range. {@code otherType} is the type of the other operand.
+     */
+    private Object rangeDotProduct (Object left, Object right, Type otherType)
+    {
+        Range range = (Range) (left instanceof Range ? left : right);
+        Object other = left instanceof Range ? right : left;
+        try {
+            if (other instanceof Range)    return Range.dot(range, (Range) other);
+            if (other instanceof long[])   return Range.dot(range, (long[]) other);
+            if (other instanceof double[]) return Range.dot(range, (double[]) other);
+        } catch (IllegalArgumentException e) {
+            throw new PassthroughException(e);
+        }
+
+        Object[] array = (Object[]) other;
+        if (array.length != range.length())
+            throw new PassthroughException(new IllegalArgumentException(String.format(
+                "Trying to dot product a range of size [%d] with an array of size [%d]",
+                range.length(), array.length)));
+
+        if (((ArrayType) otherType).componentType instanceof FloatType) {
+            double result = 0;
+            for (int i = 0; i < array.length; i++)
+                result += range.get(i) * ((Number) array[i]).doubleValue();
+            return result;
+        } else {
+            long result = 0;
+            for (int i = 0; i < array.length; i++)
+                result += range.get(i) * (Long) array[i];
+            return result;
+        }
+    }
+
     private Object dotProductOp
-        (BinaryExpressionNode node, Boolean floating, Object[] left, Object[] right)
+        (BinaryExpressionNode node, Boolean floating, Object left, Object right)
     {
-        if (left.length != right.length) {
+        int length = length(left);
+        if (length != length(right)) {
             throw new Error(
                 String.format(
                     "Trying to dot product an array of size [%d] with an array of size [%d]",
-                    left.length,
-                    right.length
+                    length,
+                    length(right)
                     )
             );
         }
@@ -323,9 +700,9 @@ public final class Interpreter
             double ileft = 0;
             double iright = 0;
 
-            for (int i = 0; i < left.length; i++) {
-                ileft = ((Number) left[i]).floatValue();
-                iright = ((Number) right[i]).floatValue();
+            for (int i = 0; i < length; i++) {
+                ileft = ((Number) load(left, i)).floatValue();
+                iright = ((Number) load(right, i)).floatValue();
 
                 result += ileft * iright;
             }
@@ -337,9 +714,9 @@ public final class Interpreter
             long ileft = 0;
             long iright = 0;
 
-            for (int i = 0; i < left.length; i++) {
-                ileft = ((Number) left[i]).longValue();
-                iright = ((Number) right[i]).longValue();
+            for (int i = 0; i < length; i++) {
+                ileft = ((Number) load(left, i)).longValue();
+                iright = ((Number) load(right, i)).longValue();
 
                 result += ileft * iright;
             }
@@ -425,10 +802,14 @@ public final class Interpreter
 
         if (node.left instanceof ArrayAccessNode) {
             ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
-            Object[] array = getNonNullArray(arrayAccess.array);
+            Object array = getNonNullArray(arrayAccess.array);
+            if (array instanceof BigArray)
+                return storeBig((BigArray) array, get(arrayAccess.index), get(node.right));
+            if (array instanceof SighList)
+                return storeList((SighList) array, get(arrayAccess.index), get(node.right));
             int index = getIndex(arrayAccess.index);
             try {
-                return array[index] = get(node.right);
+                return store(array, index, get(node.right));
             } catch (ArrayIndexOutOfBoundsException e) {
                 throw new PassthroughException(e);
             }
@@ -463,12 +844,171 @@ public final class Interpreter
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] getNonNullArray (ExpressionNode node)
+    private Object getNonNullArray (ExpressionNode node)
     {
         Object object = get(node);
         if (object == Null.INSTANCE)
             throw new PassthroughException(new NullPointerException("indexing null array"));
-        return (Object[]) object;
+        return object;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the length of an array value ({@code Object[]}, host primitive array or slice). */
+    private static int length (Object array)
+    {
+        if (array instanceof Object[])  return ((Object[]) array).length;
+        if (array instanceof Slice)     return (int) ((Slice) array).length();
+        if (array instanceof long[])    return ((long[]) array).length;
+        if (array instanceof double[])  return ((double[]) array).length;
+        return ((boolean[]) array).length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index of an array value, boxing primitive elements. */
+    private static Object load (Object array, int index)
+    {
+        if (array instanceof Object[])  return ((Object[]) array)[index];
+        if (array instanceof Slice)     return ((Slice) array).get(index);
+        if (array instanceof long[])    return ((long[]) array)[index];
+        if (array instanceof double[])  return ((double[]) array)[index];
+        return ((boolean[]) array)[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores a value at the given index of an array value and returns it. {@code Int} values are
+     * converted when stored in a {@code double[]}.
+     */
+    private static Object store (Object array, int index, Object value)
+    {
+        if (array instanceof Object[])
+            ((Object[]) array)[index] = value;
+        else if (array instanceof Slice)
+            ((Slice) array).set(index, value);
+        else if (array instanceof long[])
+            ((long[]) array)[index] = (Long) value;
+        else if (array instanceof double[])
+            ((double[]) array)[index] = ((Number) value).doubleValue();
+        else
+            ((boolean[]) array)[index] = (Boolean) value;
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index of a big array, boxed. */
+    private static Object loadBig (BigArray array, long index)
+    {
+        try {
+            return array instanceof BigInts
+                ? (Object) ((BigInts) array).get(index)
+                : (Object) ((BigFloats) array).get(index);
+        } catch (ArrayIndexOutOfBoundsException | IllegalStateException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores a value at the given index of a big array and returns it. {@code Int} values are
+     * converted when stored in a {@code BigFloats}.
+     */
+    private static Object storeBig (BigArray array, long index, Object value)
+    {
+        try {
+            if (array instanceof BigInts)
+                ((BigInts) array).set(index, (Long) value);
+            else
+                ((BigFloats) array).set(index, ((Number) value).doubleValue());
+            return value;
+        } catch (ArrayIndexOutOfBoundsException | IllegalStateException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the element at the given index of a list, boxed. */
+    private static Object loadList (SighList list, long index)
+    {
+        try {
+            if (list instanceof IntList)   return ((IntList) list).get(index);
+            if (list instanceof FloatList) return ((FloatList) list).get(index);
+            return ((StringList) list).get(index);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores a value at the given index of a list and returns it. {@code Int} values are converted
+     * when stored in a {@code List<Float>}.
+     */
+    private static Object storeList (SighList list, long index, Object value)
+    {
+        try {
+            if (list instanceof IntList)
+                ((IntList) list).set(index, (Long) value);
+            else if (list instanceof FloatList)
+                ((FloatList) list).set(index, ((Number) value).doubleValue());
+            else
+                ((StringList) list).set(index, (String) value);
+            return value;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private SighList listConstructor (ListConstructorNode node)
+    {
+        Type component = reactor.<ListType>get(node, "type").componentType;
+        if (component instanceof IntType)   return new IntList();
+        if (component instanceof FloatType) return new FloatList();
+        return new StringList();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Calls a method of a list: {@code push}, {@code pop} or {@code toArray}. */
+    private Object listCall (FieldAccessNode method, List<ExpressionNode> arguments)
+    {
+        Object stem = get(method.stem);
+        if (stem == Null.INSTANCE)
+            throw new PassthroughException(
+                new NullPointerException("calling a method of a null list"));
+        Object[] args = map(arguments, new Object[0], visitor);
+        SighList list = (SighList) stem;
+
+        switch (method.fieldName) {
+            case "push":
+                if (list instanceof IntList)
+                    ((IntList) list).push((Long) args[0]);
+                else if (list instanceof FloatList)
+                    ((FloatList) list).push(((Number) args[0]).doubleValue());
+                else
+                    ((StringList) list).push((String) args[0]);
+                return null;
+            case "pop":
+                try {
+                    if (list instanceof IntList)   return ((IntList) list).pop();
+                    if (list instanceof FloatList) return ((FloatList) list).pop();
+                    return ((StringList) list).pop();
+                } catch (IllegalStateException e) {
+                    throw new PassthroughException(e);
+                }
+            default: // toArray
+                if (list instanceof IntList)   return ((IntList) list).toArray();
+                if (list instanceof FloatList) return ((FloatList) list).toArray();
+                return ((StringList) list).toArray();
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -484,9 +1024,33 @@ public final class Interpreter
 
     private Object arrayAccess (ArrayAccessNode node)
     {
-        Object[] array = getNonNullArray(node.array);
+        Object array = getNonNullArray(node.array);
+        if (array instanceof BigArray)
+            return loadBig((BigArray) array, get(node.index));
+        if (array instanceof SighList)
+            return loadList((SighList) array, get(node.index));
+        if (array instanceof Range)
+            try {
+                return ((Range) array).get(get(node.index));
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new PassthroughException(e);
+            }
         try {
-            return array[getIndex(node.index)];
+            return load(array, getIndex(node.index));
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new PassthroughException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Slice slice (SliceNode node)
+    {
+        Object array = getNonNullArray(node.array);
+        long from = get(node.from);
+        long to = get(node.to);
+        try {
+            return Slice.slice(array, from, to);
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new PassthroughException(e);
         }
@@ -509,6 +1073,7 @@ public final class Interpreter
         //rootScope = reactor.get(node, "scope");
         storage = rootStorage = new ScopeStorage(rootScope, null);
         storage.initRoot(rootScope);
+        snapshot = null; // refers to the previous root storage
 
         try {
             node.statements.forEach(this::run);
@@ -553,87 +1118,124 @@ public final class Interpreter
         if (stem == Null.INSTANCE)
             throw new PassthroughException(
                 new NullPointerException("accessing field of null object"));
+        if (stem instanceof BigArray)
+            return ((BigArray) stem).length();
+        if (stem instanceof Range)
+            return ((Range) stem).length();
+        if (stem instanceof SighList)
+            return ((SighList) stem).length();
         return stem instanceof Map
                 ? Util.<Map<String, Object>>cast(stem).get(node.fieldName)
-                : (long) ((Object[]) stem).length; // only field on arrays
+                : (long) length(stem); // only field on arrays
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object funCall (FunCallNode node)
     {
+        if (node.function instanceof FieldAccessNode
+                && reactor.get(((FieldAccessNode) node.function).stem, "type") instanceof ListType)
+            return listCall((FieldAccessNode) node.function, node.arguments);
+
         Object decl = get(node.function);
-        node.arguments.forEach(this::run);
         Object[] args = map(node.arguments, new Object[0], visitor);
 
         if (decl == Null.INSTANCE)
             throw new PassthroughException(new NullPointerException("calling a null function"));
 
         if (decl instanceof SyntheticDeclarationNode)
-            return builtin(((SyntheticDeclarationNode) decl).name(), args);
+            return ((SyntheticDeclarationNode) decl).builtin().handler.call(args);
+
+        if (decl instanceof ExternFunDeclarationNode)
+            return reactor.<Builtin>get(decl, "builtin").handler.call(args);
 
         if (decl instanceof Constructor)
             return buildStruct(((Constructor) decl).declaration, args);
 
+        return invoke((Closure) decl, args, node.template_arguments);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the body of the closure's function with the given arguments (and template arguments,
+     * which may be null), in a new storage whose parent is the closure's environment.
+     */
+    private Object invoke (Closure closure, Object[] args, List<TypeNode> templateArguments)
+    {
+        FunDeclarationNode funDecl = closure.declaration;
         ScopeStorage oldStorage = storage;
         //Scope scope = reactor.get(decl, "scope");
-        Scope scope = (Scope) getAttr(decl, "scope", Scope.class);
+        Scope scope = (Scope) getAttr(funDecl, "scope", Scope.class);
 
-        // Inferring types for template types here
-        storage = new ScopeStorage(scope, storage);
-
-        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
-        coIterate(args, funDecl.parameters,
-                (arg, param) -> storage.set(scope, param.name, arg));
+        try {
+            // Each self tail call restarts the body with a fresh storage for the new arguments.
+            while (true) {
+                // Inferring types for template types here
+                storage = new ScopeStorage(scope, closure.environment);
 
-        if (node.template_arguments != null) {
-            coIterate(node.template_arguments, funDecl.templateParameters,
-                (arg, param) -> storage.set(scope, param.name, arg));
-        }
+                coIterate(args, funDecl.parameters,
+                        (arg, param) -> storage.set(scope, param.name, arg));
 
+                if (templateArguments != null) {
+                    coIterate(templateArguments, funDecl.templateParameters,
+                        (arg, param) -> storage.set(scope, param.name, arg));
+                }
 
-        try {
-            get(funDecl.block);
+                try {
+                    get(funDecl.block);
+                    return null;
+                } catch (TailCall call) {
+                    args = call.arguments;
+                }
+            }
         } catch (Return r) {
             return r.value;
         } finally {
             storage = oldStorage;
         }
-        return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin (String name, Object[] args)
+    /**
+     * Returns the innermost active storage for the given scope, which must be the scope declaring a
+     * function being referenced. This is the environment in which the function body will run.
+     */
+    private ScopeStorage environment (Scope scope)
     {
-        switch (name) {
-            case "print": {
-                String out = convertToString(args[0]);
-                System.out.println(out);
-
-                return out;
-            }
-            case "hello": {
-                System.out.println("Hello world !");
-
-                return convertToString(Null.INSTANCE);
-            }
-            default: {
-                return convertToString(Null.INSTANCE);
-            }
-        }
+        if (scope == rootScope)
+            return rootStorage;
+        for (ScopeStorage it = storage; it != null; it = it.parent)
+            if (it.scope == scope)
+                return it;
+        throw new Error("[implementation bug] no active storage for scope: " + scope);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private String convertToString (Object arg)
+    /**
+     * Returns the string representation of a value, as used in string concatenation and by
+     * {@code print}.
+     */
+    public static String convertToString (Object arg)
     {
         if (arg == Null.INSTANCE)
             return "null";
         else if (arg instanceof Object[])
             return Arrays.deepToString((Object[]) arg);
-        else if (arg instanceof FunDeclarationNode)
-            return ((FunDeclarationNode) arg).name;
+        else if (arg instanceof long[])
+            return Arrays.toString((long[]) arg);
+        else if (arg instanceof double[])
+            return Arrays.toString((double[]) arg);
+        else if (arg instanceof boolean[])
+            return Arrays.toString((boolean[]) arg);
+        else if (arg instanceof Closure)
+            return ((Closure) arg).declaration.name;
+        else if (arg instanceof SyntheticDeclarationNode)
+            return ((SyntheticDeclarationNode) arg).name();
+        else if (arg instanceof ExternFunDeclarationNode)
+            return ((ExternFunDeclarationNode) arg).name;
         else if (arg instanceof StructDeclarationNode)
             return ((StructDeclarationNode) arg).name;
         else if (arg instanceof Constructor)
@@ -687,12 +1289,19 @@ public final class Interpreter
                 ? rootStorage.get(scope, node.name)
                 : storage.get(scope, node.name);
 
-        return decl; // structure or function
+        if (decl instanceof FunDeclarationNode)
+            return new Closure((FunDeclarationNode) decl, environment(scope));
+
+        return decl; // structure, builtin or extern function
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Void returnStmt (ReturnNode node) {
+    private Void returnStmt (ReturnNode node)
+    {
+        if (Boolean.TRUE.equals(reactor.get(node, "tailCall")))
+            throw new TailCall(map(((FunCallNode) node.expression).arguments, new Object[0], visitor));
+
         throw new Return(node.expression == null ? null : get(node.expression));
     }
 
@@ -0,0 +1,89 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.ast.ArrayLiteralNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.builtins.BuiltinRegistry;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * A parsed and analyzed program, which can be executed any number of times, including
+ * concurrently from multiple threads, by creating an {@link ExecutionContext} for each execution.
+ *
+ * <p>A program is immutable: neither its tree nor the results of its semantic analysis are
+ * modified after analysis (which is where the template arguments of calls are resolved, see
+ * {@link norswap.sigh.ast.FunCallNode#setTemplateTypeReferences}). All the state of an execution
+ * lives in its context.
+ */
+public final class Program
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final RootNode root;
+
+    /** Holds the results of the semantic analysis of {@link #root}. */
+    public final Reactor reactor;
+
+    /** The values of the constant array literals of the program, see {@link
+     * Interpreter#isConstantArray}. Read-only. */
+    final Map<ArrayLiteralNode, Object[]> arrayTemplates;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a program from its tree and the reactor that holds the results of its semantic
+     * analysis (which must have run without errors, or an {@link IllegalArgumentException} is
+     * thrown). Neither should be modified afterwards.
+     */
+    public Program (RootNode root, Reactor reactor)
+    {
+        if (!reactor.errors().isEmpty())
+            throw new IllegalArgumentException(
+                "program has semantic errors: " + reactor.reportErrors(Object::toString));
+
+        this.root = root;
+        this.reactor = reactor;
+
+        IdentityHashMap<ArrayLiteralNode, Object[]> templates = new IdentityHashMap<>();
+        ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT);
+        walker.register(ArrayLiteralNode.class, PRE_VISIT, node -> {
+            if (Interpreter.isConstantArray(node))
+                templates.put(node, Interpreter.constantArray(node));
+        });
+        walker.registerFallback(PRE_VISIT, node -> {});
+        walker.walk(root);
+        this.arrayTemplates = Collections.unmodifiableMap(templates);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the semantic analysis of the given tree, with the given built-in functions, and returns
+     * the analyzed program. Throws an {@link IllegalArgumentException} in case of semantic errors.
+     */
+    public static Program analyze (RootNode root, BuiltinRegistry builtins)
+    {
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor, builtins).walk(root);
+        reactor.run();
+        return new Program(root, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new context for an execution of this program.
+     */
+    public ExecutionContext newContext () {
+        return new ExecutionContext(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
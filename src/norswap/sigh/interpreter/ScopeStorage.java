@@ -20,7 +20,11 @@ public final class ScopeStorage
 
     // ---------------------------------------------------------------------------------------------
 
-    private final HashMap<String, Object> values = new HashMap<>();
+    private HashMap<String, Object> values = new HashMap<>();
+
+    /** Whether {@link #values} is shared with a snapshot, and must be copied before being
+     * modified (see {@link #restore}). */
+    private boolean shared = false;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -53,10 +57,35 @@ public final class ScopeStorage
      */
     void set (Scope scope, String name, Object value)
     {
-        if (scope == this.scope)
-            values.put(name, value);
-        else
+        if (scope != this.scope)
             parent.set(scope, name, value);
+        else {
+            if (shared) {
+                values = new HashMap<>(values);
+                shared = false;
+            }
+            values.put(name, value);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the values of this storage, indexed by name. The map must not be modified.
+     */
+    HashMap<String, Object> values () {
+        return values;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces the values of this storage by the given map. If {@code shared} is true, the map is
+     * not modified: it is copied the first time a value is set (copy-on-write).
+     */
+    void restore (HashMap<String, Object> values, boolean shared) {
+        this.values = values;
+        this.shared = shared;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,6 +1,8 @@
 package norswap.sigh.scopes;
 
 import norswap.sigh.ast.RootNode;
+import norswap.sigh.builtins.Builtin;
+import norswap.sigh.builtins.BuiltinRegistry;
 import norswap.sigh.types.*;
 import norswap.uranium.Reactor;
 
@@ -30,18 +32,31 @@ public final class RootScope extends Scope
     public final SyntheticDeclarationNode Void   = decl("Void",   TYPE);
     public final SyntheticDeclarationNode Type   = decl("Type",   TYPE);
 
+    public final SyntheticDeclarationNode BigInts   = decl("BigInts",   TYPE);
+    public final SyntheticDeclarationNode BigFloats = decl("BigFloats", TYPE);
+    public final SyntheticDeclarationNode Range     = decl("Range",     TYPE);
+
     // root scope variables
     public final SyntheticDeclarationNode _true  = decl("true",  VARIABLE);
     public final SyntheticDeclarationNode _false = decl("false", VARIABLE);
     public final SyntheticDeclarationNode _null  = decl("null",  VARIABLE);
 
-    // root scope functions
-    public final SyntheticDeclarationNode print = decl("print", FUNCTION);
-    public final SyntheticDeclarationNode hello = decl("hello", FUNCTION);
-
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Creates the root scope for {@code node}, declaring the standard built-in functions (see
+     * {@link BuiltinRegistry#standard()}).
+     */
     public RootScope (RootNode node, Reactor reactor) {
+        this(node, reactor, BuiltinRegistry.standard());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the root scope for {@code node}, declaring the functions from {@code builtins}.
+     */
+    public RootScope (RootNode node, Reactor reactor, BuiltinRegistry builtins) {
         super(node, null);
 
         reactor.set(Bool,   "type",       TypeType.INSTANCE);
@@ -51,6 +66,10 @@ public final class RootScope extends Scope
         reactor.set(Void,   "type",       TypeType.INSTANCE);
         reactor.set(Type,   "type",       TypeType.INSTANCE);
 
+        reactor.set(BigInts,   "type", TypeType.INSTANCE);
+        reactor.set(BigFloats, "type", TypeType.INSTANCE);
+        reactor.set(Range,     "type", TypeType.INSTANCE);
+
         reactor.set(Bool,   "declared",   BoolType.INSTANCE);
         reactor.set(Int,    "declared",    IntType.INSTANCE);
         reactor.set(Float,  "declared",  FloatType.INSTANCE);
@@ -58,12 +77,19 @@ public final class RootScope extends Scope
         reactor.set(Void,   "declared",   VoidType.INSTANCE);
         reactor.set(Type,   "declared",   TypeType.INSTANCE);
 
+        reactor.set(BigInts,   "declared", BigArrayType.INTS);
+        reactor.set(BigFloats, "declared", BigArrayType.FLOATS);
+        reactor.set(Range,     "declared", RangeType.INSTANCE);
+
         reactor.set(_true,  "type",       BoolType.INSTANCE);
         reactor.set(_false, "type",       BoolType.INSTANCE);
         reactor.set(_null,  "type",       NullType.INSTANCE);
 
-        reactor.set(print,  "type", new FunType(StringType.INSTANCE, StringType.INSTANCE));
-        reactor.set(hello,  "type", new FunType(VoidType.INSTANCE));
+        for (Builtin builtin: builtins.all()) {
+            SyntheticDeclarationNode decl = new SyntheticDeclarationNode(builtin);
+            declare(builtin.name, decl);
+            reactor.set(decl, "type", builtin.type);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
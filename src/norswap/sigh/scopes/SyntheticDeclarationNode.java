@@ -1,6 +1,7 @@
 package norswap.sigh.scopes;
 
 import norswap.sigh.ast.DeclarationNode;
+import norswap.sigh.builtins.Builtin;
 import java.util.Locale;
 
 /**
@@ -14,11 +15,20 @@ public final class SyntheticDeclarationNode extends DeclarationNode
 {
     private final String name;
     private final DeclarationKind kind;
+    private final Builtin builtin;
 
     public SyntheticDeclarationNode(String name, DeclarationKind kind) {
         super(null);
         this.name = name;
         this.kind = kind;
+        this.builtin = null;
+    }
+
+    public SyntheticDeclarationNode(Builtin builtin) {
+        super(null);
+        this.name = builtin.name;
+        this.kind = DeclarationKind.FUNCTION;
+        this.builtin = builtin;
     }
 
     @Override public String name () {
@@ -29,6 +39,14 @@ public final class SyntheticDeclarationNode extends DeclarationNode
         return kind;
     }
 
+    /**
+     * Returns the implementation of the built-in function declared by this node, or null if it
+     * does not declare a function.
+     */
+    public Builtin builtin() {
+        return builtin;
+    }
+
     @Override public String contents () {
         return name;
     }
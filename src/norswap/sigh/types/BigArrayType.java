@@ -0,0 +1,21 @@
+package norswap.sigh.types;
+
+/**
+ * The type of the off-heap arrays indexed by {@code Int} values (see {@link
+ * norswap.sigh.BigArray}): {@code BigInts} and {@code BigFloats}.
+ */
+public final class BigArrayType extends Type
+{
+    public static final BigArrayType INTS   = new BigArrayType(IntType.INSTANCE);
+    public static final BigArrayType FLOATS = new BigArrayType(FloatType.INSTANCE);
+
+    public final Type componentType;
+
+    private BigArrayType (Type componentType) {
+        this.componentType = componentType;
+    }
+
+    @Override public String name() {
+        return componentType instanceof IntType ? "BigInts" : "BigFloats";
+    }
+}
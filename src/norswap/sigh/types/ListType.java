@@ -0,0 +1,26 @@
+package norswap.sigh.types;
+
+/**
+ * The type of the growable lists ({@code List<Int>}, {@code List<Float>} or {@code List<String>},
+ * see {@link norswap.sigh.SighList}).
+ */
+public final class ListType extends Type
+{
+    public final Type componentType;
+
+    public ListType (Type componentType) {
+        this.componentType = componentType;
+    }
+
+    @Override public String name() {
+        return "List<" + componentType.toString() + ">";
+    }
+
+    @Override public boolean equals (Object o) {
+        return this == o || o instanceof ListType && componentType.equals(((ListType) o).componentType);
+    }
+
+    @Override public int hashCode () {
+        return componentType.hashCode() + 2;
+    }
+}
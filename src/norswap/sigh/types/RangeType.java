@@ -0,0 +1,15 @@
+package norswap.sigh.types;
+
+/**
+ * The type of the lazy integer ranges returned by {@code range} (see {@link norswap.sigh.Range}),
+ * which are read like {@code Int[]} values.
+ */
+public final class RangeType extends Type
+{
+    public static final RangeType INSTANCE = new RangeType();
+    private RangeType() {}
+
+    @Override public String name() {
+        return "Range";
+    }
+}
@@ -0,0 +1,26 @@
+package norswap.sigh.types;
+
+/**
+ * The type of the array slices ({@code a[from:to]}, see {@link norswap.sigh.Slice}), written
+ * {@code Int[:]} or {@code Float[:]}.
+ */
+public final class SliceType extends Type
+{
+    public final Type componentType;
+
+    public SliceType (Type componentType) {
+        this.componentType = componentType;
+    }
+
+    @Override public String name() {
+        return componentType.toString() + "[:]";
+    }
+
+    @Override public boolean equals (Object o) {
+        return this == o || o instanceof SliceType && componentType.equals(((SliceType) o).componentType);
+    }
+
+    @Override public int hashCode () {
+        return componentType.hashCode() + 1;
+    }
+}
@@ -1,32 +1,93 @@
 import norswap.autumn.Autumn;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.sigh.BatchExecutor;
+import norswap.sigh.BigArray;
+import norswap.sigh.BigFloats;
+import norswap.sigh.FloatList;
+import norswap.sigh.Inliner;
+import norswap.sigh.IntList;
+import norswap.sigh.Range;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.Slice;
+import norswap.sigh.StringList;
+import norswap.sigh.ast.RootNode;
 import norswap.sigh.ast.SighNode;
+import norswap.sigh.builtins.Builtin;
+import norswap.sigh.builtins.BuiltinRegistry;
 import norswap.sigh.bytecode.ByteArrayClassLoader;
 import norswap.sigh.bytecode.BytecodeCompiler;
 import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.PeepholeOptimizer;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
 import norswap.uranium.Reactor;
 import norswap.utils.IO;
 import norswap.utils.visitors.Walker;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.testng.annotations.Test;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static norswap.utils.Util.cast;
 import static org.testng.Assert.assertEquals;
+import static org.objectweb.asm.Opcodes.*;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class BytecodeTests
 {
-    // TODO test multi dimensional arrays
-
-    // ---------------------------------------------------------------------------------------------
-
     /**
      * Checks that the input program can be compiled, run and prints the {@code expected} string if
-     * non-null (to which a newline is appended if not empty).
+     * non-null (to which a newline is appended if not empty). This is checked with and without
+     * the peephole optimizer, as well as with lazy compilation of functions.
      */
-    public void check (String input, String expected)
+    public void check (String input, String expected) {
+        check(input, expected, false, false);
+        check(input, expected, true, false);
+        check(input, expected, false, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Built-in functions available to the checked programs. */
+    private BuiltinRegistry builtins = BuiltinRegistry.standard();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompilationResult compile (String input, boolean optimize) {
+        return compile(input, optimize, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompilationResult compile (String input, boolean optimize, boolean lazy) {
+        return compile(input, optimize, lazy, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompilationResult compile (
+            String input, boolean optimize, boolean lazy, ExecutorService pool)
     {
         SighGrammar grammar = new SighGrammar();
         ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
@@ -35,7 +96,7 @@ public class BytecodeTests
 
         SighNode tree = cast(parseResult.topValue());
         Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, builtins);
         walker.walk(tree);
         reactor.run();
 
@@ -43,9 +104,20 @@ public class BytecodeTests
             throw new AssertionError(reactor.reportErrors(Object::toString));
 
         String className = "BytecodeTestsRun";
-        BytecodeCompiler compiler = new BytecodeCompiler(reactor);
-        CompilationResult result = compiler.compile(className, tree);
+        BytecodeCompiler compiler = new BytecodeCompiler(reactor, optimize, lazy, pool);
+        return compiler.compile(className, tree);
+    }
 
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (String input, String expected, boolean optimize, boolean lazy) {
+        check(compile(input, optimize, lazy), expected);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (CompilationResult result, String expected)
+    {
         // using a new loader each time allows to overwrite the class every time.
         Class<?> mainClass = result.load(new ByteArrayClassLoader());
 
@@ -227,6 +299,80 @@ public class BytecodeTests
     private final String printx = "print(\"\" + (x))";
     private final String printy = "print(\"\" + (y))";
 
+    @Test public void testNestedArrays() {
+        check("var m: Int[][] = [[1, 2], [3, 4, 5]] ; print(\"\" + (m[1][2] + m[0][1]))", "7");
+        check("var m: Float[][] = [[1, 2.5], [0]] ; m[1] = [3] ; print(\"\" + m)", "[[1.0, 2.5], [3.0]]");
+        check("var m: String[][][] = [[[\"a\"]]] ; m[0][0][0] = \"b\" ; print(m[0][0][0])", "b");
+
+        // exact nested types in function signatures
+        check(
+            "fun trace(m: Float[][]): Float {" +
+            "  var s: Float = 0; var i: Int = 0" +
+            "  while i < m.length { s = s + m[i][i]; i = i + 1 }" +
+            "  return s" +
+            "}" +
+            "fun id(m: Int[][]): Int[][] { return m }" +
+            "print(\"\" + trace([[1, 0], [0, 2]]) + id([[3]])[0][0])", "3.03");
+
+        // implicit conversion of components and return values
+        check("var a: Float[] = [1.5, 2, 3] ; print(\"\" + a)", "[1.5, 2.0, 3.0]");
+        check("fun f(): Float { return 1 } print(\"\" + f())", "1.0");
+
+        MethodNode method = method(compile("fun f(m: Int[][]): Int { return m[0][0] }", false), "f");
+        assertEquals(method.desc, "([[J)J");
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+            assertTrue(insn.getOpcode() != CHECKCAST);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testArrayLiteralData()
+    {
+        // large literals are packed into string constants (too large for element-wise stores)
+        StringBuilder ints = new StringBuilder("[");
+        StringBuilder floats = new StringBuilder("[");
+        long intSum = 0;
+        double floatSum = 0;
+        for (int i = 0; i < 10000; ++i) {
+            long value = (i % 2 == 0 ? 1 : -1) * ((long) i * i * 1_000_003L);
+            ints.append(i == 0 ? "" : ", ").append(value);
+            intSum += value;
+            floats.append(i == 0 ? "" : ", ").append(i % 3 == 0 ? "" + i : i + ".25");
+            floatSum += i % 3 == 0 ? i : i + 0.25;
+        }
+        ints.append("]");
+        floats.append("]");
+        String sum =
+            "fun sum(a: Int[]): Int { var s: Int = 0; var i: Int = 0;" +
+            "  while i < a.length { s = s + a[i]; i = i + 1 } return s }" +
+            "fun fsum(a: Float[]): Float { var s: Float = 0; var i: Int = 0;" +
+            "  while i < a.length { s = s + a[i]; i = i + 1 } return s }";
+        check(sum + "print(\"\" + sum(" + ints + "))", "" + intSum);
+        check(sum + "var a: Float[] = " + floats + " print(\"\" + fsum(a))", "" + floatSum);
+        check("var a: Int[] = [0, -1, 9223372036854775807, -9223372036854775808, " +
+            "5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, " +
+            "25, 26, 27, 28, 29, 30, 31, 32, 33] ; print(\"\" + a[1] + a[2] + a[3] + a[32])",
+            "-19223372036854775807-922337203685477580833");
+
+        // literals evaluated repeatedly are copied from a template
+        String fill =
+            "fun f(): Float[] { return [1, 2, 3, 4, 5, 6, 7, 8.5] }" +
+            "var a: Float[] = f() ; a[0] = 42 ; var b: Float[] = f() ;";
+        check(fill + "print(\"\" + a[0] + b[0] + b[7])", "42.01.08.5");
+        check(
+            "var i: Int = 0 ; var a: Int[] = [] ;" +
+            "while i < 3 { var b: Int[] = [1, 2, 3, 4, 5, 6, 7, 8] ; b[i] = 0 ;" +
+            "  print(\"\" + b[0] + b[1] + b[2]) ; i = i + 1 }",
+            "023\n103\n120");
+
+        MethodNode method = method(compile(fill, false), "f");
+        AbstractInsnNode first = method.instructions.getFirst();
+        while (first.getOpcode() < 0) first = first.getNext();
+        assertEquals(first.getOpcode(), GETSTATIC);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void testVariables() {
         check("var x: Int = 1;" + printx, "1");
         check("var x: String = \"a\";" + printx, "a");
@@ -250,6 +396,21 @@ public class BytecodeTests
 
         check("var x: Int = 1 ; while x == 3 { " + printx + "}", "");
         check("var x: Int = 1 ; while x <= 3 { " + printx + " ; x = x + 1 }", "1\n2\n3");
+
+        // conditions compiled to jumps
+        check("if !(1 == 0) " + printa + "else " + printb, "a");
+        check("if 1 < 2 && (2.0 > 1 || 1 / 0 == 0) " + printa + "else " + printb, "a");
+        check("if !(1 > 2 || false) && !false " + printa + "else " + printb, "a");
+        check("if true && \"a\" != null " + printa, "a");
+        check("var x: Bool = false ; if x == false " + printa + "else " + printb, "a");
+        check("fun t(s: String): Bool { print(s) return true } " +
+            "if t(\"a\") || t(\"b\") {} if !t(\"c\") && t(\"d\") {}", "a\nc");
+        check("var x: Int = 0 ; while true { x = x + 1 ; if x == 3 { " + printx + " return } }", "3");
+
+        // NaN compares false, including under negation
+        check("var n: Float = 0.0 / 0.0 ;" +
+            "if n < 1.0 || n >= 1.0 || n == n " + printa + "else " + printb +
+            "if !(n <= 1.0) && n != n " + printa + "else " + printb, "b\na");
     }
 
     @Test public void testMethod() {
@@ -258,6 +419,602 @@ public class BytecodeTests
         check("fun test () { fun foo() { print(\"a\") } foo() foo() } test()", "a\na");
     }
 
+    @Test public void testGlobals() {
+        check("var x: Int = 1; fun f(): Int { return x } print(\"\" + f())", "1");
+        check("var x: Int = 1; fun f() { x = x + 1 } f() f() " + printx, "3");
+        check("var x: Float = 1; fun f() { x = 2 } f() " + printx, "2.0");
+        check("var x: String = \"a\"; fun f(): String { return x + x } print(f())", "aa");
+        check("var x: Int[] = [1, 2]; fun f() { x[0] = 3 } f() " + printx, "[3, 2]");
+        check("fun f(): Int { var x: Int = 2; return x } var x: Int = 1; print(\"\" + f() + x)", "21");
+    }
+
+    @Test public void testClosures() {
+        check("fun f(x: Int): Int { fun g(): Int { return x + 1 } return g() } print(\"\" + f(1))", "2");
+        check("fun f(): Float { var x: Float = 1; fun g() { x = x + 1 } g(); g(); return x } "
+            + "print(\"\" + f())", "3.0");
+        check("fun f(s: String): String { fun g(): String { return s + s } return g() } print(f(\"a\"))", "aa");
+
+        // captures forwarded through sibling and nested functions
+        check(
+            "fun f(n: Int): Int {" +
+            "  var acc: Int = 0" +
+            "  fun add(k: Int) { acc = acc + k + h(); fun h(): Int { return n - n } }" +
+            "  fun loop(i: Int) { if (i > 0) { add(i); loop(i - 1) } }" +
+            "  loop(n)" +
+            "  return acc" +
+            "} print(\"\" + f(4))",
+            "10");
+
+        // captured top-level block variable
+        check("{ var x: Int = 1; fun g() { x = x * 2 } g(); g(); " + printx + " }", "4");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFunctionValues() {
+        check("fun inc(x: Int): Int { return x + 1 } var f: (Int) -> Int = inc; print(\"\" + f(1))", "2");
+        check("fun twice(f: (Float) -> Float, x: Float): Float { return f(f(x)) } " +
+            "fun half(x: Float): Float { return x / 2 } print(\"\" + twice(half, 3))", "0.75");
+        check("struct P { var x: Int } var mk: (Int) -> P = $P; print(\"\" + mk(4).x)", "4");
+        check("var p: (String) -> String = print; p(\"hi\")", "hi");
+        check("fun id(x: Int): Int { return x } var fs: ((Int) -> Int)[] = [id]; print(\"\" + fs[0](5))", "5");
+
+        // the same call site, with different callees
+        check("fun a(): String { return \"a\" } fun b(): String { return \"b\" } " +
+            "fun call(f: () -> String): String { return f() } print(call(a) + call(b) + call(a))", "aba");
+
+        // closures outliving the declaring call
+        check(
+            "fun counter(): () -> Int {" +
+            "  var n: Int = 0" +
+            "  fun next(): Int { n = n + 1; return n }" +
+            "  return next" +
+            "}" +
+            "var c: () -> Int = counter(); c(); c()" +
+            "var d: () -> Int = counter()" +
+            "print(\"\" + (c() * 10 + d()))",
+            "31");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLazyCompilation()
+    {
+        String input =
+            "var count: Int = 0" +
+            "fun unused(): Int { return 1 }" +
+            "fun fact(n: Int): Int { count = count + 1; if n <= 1 return 1 else return n * fact(n - 1) }" +
+            "fun twice(f: (Int) -> Int, x: Int): Int { return f(f(x)) }" +
+            "fun inc(x: Int): Int { fun add(y: Int): Int { return x + y } return add(1) }" +
+            "print(\"\" + fact(5) + twice(inc, 1) + count)";
+
+        CompilationResult result = compile(input, false, true);
+        assertTrue(result.lazyUnit.compiledFunctions().isEmpty());
+        check(result, "12035");
+        assertEquals(result.lazyUnit.compiledFunctions(),
+            new HashSet<>(Arrays.asList("fact", "twice", "inc")));
+
+        // the unit class only contains the top-level code
+        ClassNode unit = new ClassNode();
+        new ClassReader(result.mainClass.bytes()).accept(unit, 0);
+        assertEquals(unit.methods.size(), 2); // run, main
+
+        // classes are compiled once, and can be loaded again in another loader
+        check(result, "12035");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testParallelCompilation() throws InterruptedException
+    {
+        StringBuilder b = new StringBuilder("var total: Int = 0\n");
+        for (int i = 0; i < 40; ++i) {
+            b.append("struct S").append(i).append(" { var x: Int }\n");
+            b.append("fun f").append(i).append("(n: Int): Int {\n")
+             .append("  var k: Int = ").append(i).append("\n")
+             .append("  fun g").append(i).append("(): Int { return k + n }\n")
+             .append("  var a: Int[] = [1, 2, 3, 4, 5, 6, 7, 8, ").append(i).append("]\n")
+             .append("  total = total + a[8]\n")
+             .append("  return $S").append(i).append("(g").append(i).append("()).x\n")
+             .append("}\n");
+        }
+        b.append("var i: Int = 0\n");
+        b.append("while i < 3 { var t: Int[] = [9, 8, 7, 6, 5, 4, 3, 2] ; total = total + t[i] ; i = i + 1 }\n");
+        b.append("print(\"\" + (f0(1) + f17(2) + f39(3)) + \" \" + total)\n");
+        String input = b.toString();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (boolean optimize: new boolean[] { false, true }) {
+                CompilationResult sequential = compile(input, optimize, false);
+                CompilationResult parallel = compile(input, optimize, false, pool);
+                assertEquals(parallel.mainClass.bytes(), sequential.mainClass.bytes());
+                assertEquals(parallel.structures.size(), sequential.structures.size());
+                for (int i = 0; i < sequential.structures.size(); ++i)
+                    assertEquals(parallel.structures.get(i).bytes(),
+                        sequential.structures.get(i).bytes());
+                assertEquals(parallel.optimizations.size(), sequential.optimizations.size());
+                check(parallel, "62 80");
+            }
+            check(compile(input, false, true, pool), "62 80");
+        }
+        finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testInlining()
+    {
+        String input =
+            "fun sq(x: Float): Float { return x * x }" +
+            "fun norm2(x: Float, y: Float): Float { return sq(x) + sq(y) }" +
+            "var a: Float = 3 ; var b: Float = 4" +
+            "print(\"\" + norm2(a, b))";
+
+        SighGrammar grammar = new SighGrammar();
+        RootNode tree = cast(Autumn.parse(grammar.root, input, ParseOptions.get()).topValue());
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(tree);
+        reactor.run();
+
+        Inliner.Result inlined = Inliner.inline(tree, reactor);
+        assertEquals(inlined.decisions.stream().filter(it -> it.inlined).count(), 3);
+
+        reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(inlined.root);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty(), reactor.errors().toString());
+
+        CompilationResult result = new BytecodeCompiler(reactor).compile("BytecodeTestsRun", inlined.root);
+        check(result, "25.0");
+
+        for (String name: Arrays.asList("run", "norm2")) {
+            MethodNode method = method(result, name);
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+                assertTrue(insn.getOpcode() != INVOKESTATIC
+                    || !((MethodInsnNode) insn).owner.equals("BytecodeTestsRun"), name);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testPeephole()
+    {
+        CompilationResult result = compile(
+            "fun max(a: Int, b: Int): Int { if (a < b) return b else return a }" +
+            "fun sum(xs: Int[]): Int {" +
+            "  var s: Int = 0; var i: Int = 0" +
+            "  while (i < xs.length) { s = s + xs[i]; i = i + 1 }" +
+            "  return s" +
+            "}" +
+            "var xs: Float[] = [1, 2]; xs[0] = 3" +
+            "print(\"\" + max(sum([1, 2, 3]), 4) + xs[1])", true);
+
+        assertEquals(result.optimizations.size(), 4); // max, sum, run, main
+        for (PeepholeOptimizer.Report report: result.optimizations) {
+            assertTrue(report.after <= report.before, report.toString());
+            // load, load, compare, branch, load, return, load, return
+            if (report.method.startsWith("max("))
+                assertEquals(report.after, 8, report.toString());
+            else if (!report.method.startsWith("main("))
+                assertTrue(report.after < report.before, report.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testIntInduction()
+    {
+        String sum =
+            "fun sum(xs: Float[]): Float {" +
+            "  var s: Float = 0; var i: Int = 0" +
+            "  while i < xs.length { s = s + xs[i]; i = i + 1 }" +
+            "  return s" +
+            "}";
+        check(sum + "print(\"\" + sum([1.5, 2.0, 3.0]))", "6.5");
+
+        // the induction variable is also used as an Int value, and in a conjunction
+        check(
+            "fun f(xs: Int[]): Int {" +
+            "  var i: Int = 0" +
+            "  while i < xs.length && xs[i] != 3 { xs[i] = xs[i] * i; i = 1 + i }" +
+            "  return i" +
+            "}" +
+            "var a: Int[] = [1, 2, 3, 4]; print(\"\" + f(a) + a[1])", "22");
+
+        // not induction variables: incremented twice, or not directly in the loop body
+        check("fun f(xs: Int[]): Int { var i: Int = 0; while i < xs.length { i = i + 1; i = i + 1 } " +
+            "return i } print(\"\" + f([1, 2, 3]))", "4");
+        check("fun f(xs: Int[]): Int { var i: Int = 0; while i < xs.length { if true { i = i + 1 } } " +
+            "return i } print(\"\" + f([1, 2, 3]))", "3");
+
+        MethodNode method = method(compile(sum, false), "sum");
+        boolean hasIinc = false;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            assertTrue(insn.getOpcode() != L2I && insn.getOpcode() != LCMP);
+            hasIinc |= insn.getOpcode() == IINC;
+        }
+        assertTrue(hasIinc);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMathBuiltins()
+    {
+        checkExpr("sqrt(16.0)", "4.0");
+        checkExpr("sqrt(16)", "4.0");
+        checkExpr("pow(2, 10)", "1024.0");
+        checkExpr("exp(0)", "1.0");
+        checkExpr("floor(-1.5)", "-2.0");
+        checkExpr("abs(-3)", "3.0");
+        checkExpr("min(1, 2.5)", "1.0");
+        checkExpr("max(1, 2.5)", "2.5");
+        checkExpr("fma(2, 3, 1)", "7.0");
+        checkExpr("fma(0.1, 10, -1)", "5.551115123125783E-17"); // 0.0 without fusion
+        check("var f: (Float, Float) -> Float = max ; print(\"\" + f(1.0, 2.0))", "2.0");
+        check("fun max(a: Int, b: Int): Int { return a } print(\"\" + max(1, 2))", "1");
+
+        MethodNode method = method(compile("print(\"\" + sqrt(abs(-4)))", false), "run");
+        int calls = 0;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+            if (insn.getOpcode() == INVOKESTATIC && ((MethodInsnNode) insn).owner.equals("java/lang/Math"))
+                ++calls;
+        assertEquals(calls, 2);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class HostFunctions {
+        public static long twice (long x) { return 2 * x; }
+        public static double total (double[] xs) { return Arrays.stream(xs).sum(); }
+    }
+
+    @Test public void testHostBuiltins()
+    {
+        builtins = BuiltinRegistry.standard()
+            .register(new Builtin("twice", new FunType(IntType.INSTANCE, IntType.INSTANCE),
+                Builtin.method(HostFunctions.class, "twice")))
+            .register(new Builtin("total",
+                new FunType(FloatType.INSTANCE, new ArrayType(FloatType.INSTANCE)),
+                Builtin.method(HostFunctions.class, "total"),
+                args -> { throw new UnsupportedOperationException(); }));
+        try {
+            checkExpr("twice(21)", "42");
+            checkExpr("total([1, 2.5])", "3.5");
+            check("var f: (Int) -> Int = twice ; print(\"\" + f(2))", "4");
+
+            MethodNode method = method(compile("print(\"\" + twice(1))", false), "run");
+            boolean direct = false;
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+                direct |= insn.getOpcode() == INVOKESTATIC
+                    && ((MethodInsnNode) insn).owner.equals("BytecodeTests$HostFunctions")
+                    && ((MethodInsnNode) insn).name.equals("twice");
+            assertTrue(direct);
+        } finally {
+            builtins = BuiltinRegistry.standard();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testHostArrays() throws Throwable
+    {
+        String input =
+            "var calls: Int = 0\n" +
+            "fun scale (xs: Float[], k: Float) { calls = calls + 1 ; var i: Int = 0\n" +
+            "  while i < xs.length { xs[i] = xs[i] * k ; i = i + 1 } }\n" +
+            "fun sum (xs: Int[]): Int { var s: Int = 0 ; var i: Int = 0\n" +
+            "  while i < xs.length { s = s + xs[i] ; i = i + 1 } ; return s }\n" +
+            "fun same (xs: Int[]): Int[] { return xs }\n" +
+            "fun negate (xs: Bool[]) { xs[0] = !xs[0] }\n" +
+            "fun getCalls (): Int { return calls }";
+
+        for (boolean lazy: new boolean[] { false, true }) {
+            CompilationResult result = compile(input, false, lazy);
+            Class<?> mainClass = result.load(new ByteArrayClassLoader());
+            CompilationResult.callRun(mainClass);
+
+            // arrays are passed by reference, and modified in place
+            double[] xs = { 1, 2.5 };
+            result.call(mainClass, "scale", xs, 2.0);
+            assertEquals(xs, new double[] { 2, 5 });
+
+            // exact invocation, without boxing
+            MethodHandle scale = result.function(mainClass, "scale");
+            scale.invokeExact(xs, 2.0);
+            assertEquals(xs, new double[] { 4, 10 });
+            assertEquals(result.call(mainClass, "getCalls"), 2L);
+
+            long[] ints = { 1, 2, 3 };
+            MethodHandle sum = result.function(mainClass, "sum");
+            assertEquals((long) sum.invokeExact(ints), 6L);
+            assertTrue(result.call(mainClass, "same", (Object) ints) == ints);
+
+            boolean[] bools = { false, true };
+            result.call(mainClass, "negate", (Object) bools);
+            assertEquals(bools, new boolean[] { true, true });
+
+            assertThrows(IllegalArgumentException.class, () -> result.function(mainClass, "calls"));
+            assertThrows(IllegalArgumentException.class, () -> result.function(mainClass, "run"));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBatchExecutor()
+    {
+        CompilationResult result = compile(
+            "fun score (x: Int, w: Float): Float { return w * (1000 / (x - 13)) }", false);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+
+        List<Object[]> inputs = new ArrayList<>();
+        List<Object> expected = new ArrayList<>();
+        for (long x = 0; x < 1000; ++x) {
+            inputs.add(new Object[] { x, 0.5 });
+            if (x != 13) expected.add(0.5 * (1000 / (x - 13)));
+        }
+
+        try (BatchExecutor executor = BatchExecutor.compiled(result, mainClass, "score", 8)) {
+            List<Object> outputs = new ArrayList<>();
+            BatchExecutor.Report report = executor.run(inputs, true, outputs::add);
+            assertEquals(outputs, expected);
+            assertEquals(report.failures.size(), 1);
+            assertEquals(report.failures.get(0).index, 13L);
+            assertTrue(report.failures.get(0).error instanceof ArithmeticException);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLoadStore() throws IOException
+    {
+        Path floats = Files.createTempFile("sigh", ".f64");
+        Path ints = Files.createTempFile("sigh", ".i64");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putDouble(1.5).putDouble(-2).putDouble(1e300);
+            Files.write(floats, buffer.array());
+
+            String f = floats.toString().replace("\\", "\\\\");
+            String i = ints.toString().replace("\\", "\\\\");
+
+            check("var a: Float[] = loadFloats(\"" + f + "\") ; print(\"\" + a.length + \" \" + a[2])",
+                "3 1.0E300");
+
+            check("var a: Float[] = loadFloats(\"" + f + "\") ; a[2] = a[0] + a[1]\n" +
+                "storeFloats(\"" + f + "\", a)\n" +
+                "storeInts(\"" + i + "\", [1, -1, 9223372036854775807])\n" +
+                "var b: Int[] = loadInts(\"" + i + "\") ; var c: Float[] = loadFloats(\"" + f + "\")\n" +
+                "print(\"\" + b[1] + \" \" + b[2] + \" \" + c[2])",
+                "-1 9223372036854775807 -0.5");
+        } finally {
+            Files.delete(floats);
+            Files.delete(ints);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBigArrays()
+    {
+        check("var a: BigInts = bigInts(3) ; a[1] = 5 ; a[2] = a[1] * 2\n" +
+            "var r: Int = a[2] + a.length ; releaseInts(a) ; print(\"\" + r)", "13");
+        check("var a: BigFloats = bigFloats(3) ; var x: Float = a[0] = 1 ; a[1] = 2.5\n" +
+            "print(\"\" + a + x)", "[1.0, 2.5, 0.0]1.0");
+        check("var a: BigInts = bigInts(2) ; a[0] = 3 ; a[1] = 4\n" +
+            "var b: BigInts = 2 * a ; var c: BigFloats = 1 / a\n" +
+            "print(\"\" + (a @ b) + \" \" + c + \" \" + (c @ a) + \" \" + (a / 2) + (1.5 * a))",
+            "50 [0.3333333333333333, 0.25] 2.0 [1.5, 2.0][4.5, 6.0]");
+
+        CompilationResult result = compile(
+            "fun fill (a: BigFloats, x: Float) { var i: Int = 0\n" +
+            "  while i < a.length { a[i] = x ; i = i + 1 } }", false, false);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        BigFloats array = new BigFloats(4);
+        try (BigFloats it = array) {
+            result.call(mainClass, "fill", it, 0.5);
+            assertEquals(BigArray.dot(it, it), 1.0);
+            assertThrows(ArrayIndexOutOfBoundsException.class, () -> it.get(4));
+        }
+        assertThrows(IllegalStateException.class, () -> result.call(mainClass, "fill", array, 1.0));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testRanges()
+    {
+        check("var r: Range = range(0, 10, 3) ; print(\"\" + r + r.length + r[3])", "[0, 3, 6, 9]49");
+        check("print(\"\" + range(5, 0, -2) + range(3, 0, 1))", "[5, 3, 1][]");
+        check("print(\"\" + range(0, 1000000000000, 7)[100000000000])", "700000000000");
+        check("var r: Range = range(1, 4, 1)\n" +
+            "print(\"\" + (r @ [1, 2, 3]) + \" \" + ([0.5, 0.5, 1] @ r) + \" \" + (r @ r))",
+            "14 4.5 14");
+        check("var r: Range = range(0, 5, 1) ; var s: Int = 0 ; var i: Int = 0\n" +
+            "while i < r.length { s = s + r[i] ; i = i + 1 } ; print(\"\" + s)", "10");
+
+        CompilationResult result = compile(
+            "fun weigh (a: Float[]): Float { return range(0, a.length, 1) @ a }\n" +
+            "fun index (r: Range, i: Int): Int { return r[i] }", false, false);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        assertEquals(result.call(mainClass, "weigh", (Object) new double[] { 1, 2.5 }), 2.5);
+        assertEquals(result.call(mainClass, "index", new Range(10, 0, -5), 1L), 5L);
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "index", new Range(0, 2, 1), 2L));
+        assertThrows(IllegalArgumentException.class,
+            () -> result.call(mainClass, "index", new Range(0, 1, 0), 0L));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSlices()
+    {
+        check("var a: Int[] = [1, 2, 3, 4, 5] ; var s: Int[:] = a[1:4]\n" +
+            "print(\"\" + s + s.length + s[0] + a[1:4][1:3] + a[2:2])", "[2, 3, 4]32[3, 4][]");
+        check("var a: Int[] = [1, 2, 3, 4] ; var f: Float[] = [0.5, 1.5, 2.5]\n" +
+            "print(\"\" + (a[0:2] @ a[2:4]) + \" \" + (a[1:3] @ [10, 100]) + \" \" + ([2, 4] @ f[1:3]))",
+            "11 320 13.0");
+        check("var a: Int[] = [1, 2, 3] ; var f: Float[] = [1.5, 3.0]\n" +
+            "print(\"\" + a[1:3] * 2 + 2.5 * a[0:2] + a[0:2] / 2 + f[0:2] * 2 + 3 / f[1:2])",
+            "[4, 6][2.5, 5.0][0.5, 1.0][3.0, 6.0][1.0]");
+        check("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[0:3] ; var t: Int = 0 ; var i: Int = 0\n" +
+            "while i < s.length { t = t + s[i] ; i = i + 1 } ; print(\"\" + t)", "6");
+
+        // the view reads the array, but writing to the view does not modify it
+        check("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[1:3] ; a[1] = 20 ; print(\"\" + s[0])",
+            "20");
+        check("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[1:3] ; var x: Int = s[0] = 20\n" +
+            "print(\"\" + a + s + x)", "[1, 2, 3][20, 3]20");
+        check("var a: Float[] = [1.0, 2.0] ; var s: Float[:] = a[0:2] ; s[1] = 3\n" +
+            "print(\"\" + a + s)", "[1.0, 2.0][1.0, 3.0]");
+
+        CompilationResult result = compile(
+            "fun tail (a: Int[]): Int[:] { return a[1:a.length] }\n" +
+            "fun norm (s: Float[:]): Float { return s @ s }\n" +
+            "fun cut (a: Int[], from: Int, to: Int): Int[:] { return a[from:to] }", false, false);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        long[] array = { 4, 5, 6 };
+        Slice tail = (Slice) result.call(mainClass, "tail", (Object) array);
+        assertTrue(tail.storage() == array); // not copied
+        assertEquals(tail.toString(), "[5, 6]");
+        assertEquals(result.call(mainClass, "norm", Slice.slice(new double[] { 1, 2, 3 }, 1, 3)),
+            13.0);
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "cut", array, 2L, 4L));
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "cut", array, -1L, 1L));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLists()
+    {
+        check("var l: List<Int> = List<Int>() ; var i: Int = 0\n" +
+            "while i < 20 { l.push(i * i) ; i = i + 1 }\n" +
+            "print(\"\" + l.length + \" \" + l[19] + \" \" + l.pop() + \" \" + l.length)",
+            "20 361 361 19");
+        check("var l: List<Float> = List<Float>() ; l.push(1) ; l.push(2.5) ; l[0] = 3\n" +
+            "print(\"\" + l + l.toArray() + l.toArray()[1])", "[3.0, 2.5][3.0, 2.5]2.5");
+        check("var l: List<String> = List<String>() ; l.push(\"a\") ; l.push(\"b\")\n" +
+            "var s: String = l.pop() + l.pop() ; print(s + l.length + l)", "ba0[]");
+        check("var l: List<Int> = List<Int>() ; l.push(1) ; l.push(l.pop() + 1) ; print(\"\" + l)",
+            "[2]");
+        check("var l: List<Int> = List<Int>() ; l.push(3) ; var x: Int = l[0] = 4 ; l.pop()\n" +
+            "print(\"\" + x + l)", "4[]");
+
+        CompilationResult result = compile(
+            "fun fill (l: List<Int>, n: Int): List<Int> {\n" +
+            "    var i: Int = 0 ; while i < n { l.push(i) ; i = i + 1 } ; return l }\n" +
+            "fun get (l: List<String>, i: Int): String { return l[i] }\n" +
+            "fun set (l: List<Float>, i: Int, x: Float): Float { return l[i] = x }\n" +
+            "fun pop (l: List<String>): String { return l.pop() }", false, false);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        IntList ints = new IntList();
+        assertTrue(result.call(mainClass, "fill", ints, 100L) == ints);
+        assertEquals(ints.length(), 100L);
+        assertEquals(ints.get(99), 99L);
+
+        StringList strings = new StringList();
+        strings.push("a");
+        assertEquals(result.call(mainClass, "get", strings, 0L), "a");
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "get", strings, 1L));
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "get", strings, -1L));
+        // checked before narrowing to an int, which would wrap around to 0
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "get", strings, 4294967296L));
+        assertEquals(result.call(mainClass, "pop", strings), "a");
+        assertTrue(strings.data[0] == null); // cleared for the garbage collector
+        assertThrows(IllegalStateException.class, () -> result.call(mainClass, "pop", strings));
+
+        FloatList floats = new FloatList();
+        floats.push(1);
+        assertEquals(result.call(mainClass, "set", floats, 0L, 2.5), 2.5);
+        assertEquals(floats.get(0), 2.5);
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "set", floats, 1L, 2.5));
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+            () -> result.call(mainClass, "set", floats, 4294967296L, 2.5));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testExternFunctions()
+    {
+        builtins = BuiltinRegistry.standard().allowExtern(Math.class, Long.class, Arrays.class);
+        try {
+            String mod = "extern fun mod (x: Int, y: Int): Int = \"java.lang.Math.floorMod\"";
+            check(mod + "print(\"\" + mod(-7, 3))", "2");
+            check(mod + "var f: (Int, Int) -> Int = mod ; print(\"\" + f(7, -3))", "-2");
+            check("extern fun hex (x: Int): String = \"java.lang.Long.toHexString\"" +
+                "print(hex(255))", "ff");
+            check("extern fun sort (a: Float[]): Void = \"java.util.Arrays.sort\"" +
+                "var a: Float[] = [3, 1.5, 2] ; sort(a) ; print(\"\" + a[0] + a[1] + a[2])",
+                "1.52.03.0");
+
+            MethodNode method = method(compile(mod + "print(\"\" + mod(-7, 3))", false), "run");
+            boolean direct = false;
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null;
+                    insn = insn.getNext())
+                direct |= insn.getOpcode() == INVOKESTATIC
+                    && ((MethodInsnNode) insn).owner.equals("java/lang/Math")
+                    && ((MethodInsnNode) insn).name.equals("floorMod");
+            assertTrue(direct);
+        } finally {
+            builtins = BuiltinRegistry.standard();
+        }
+
+        // classes must be allowed by the registry
+        assertThrows(AssertionError.class, () -> compile(
+            "extern fun hex (x: Int): String = \"java.lang.Long.toHexString\"", false));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testTailCalls()
+    {
+        String sum =
+            "fun sum(n: Int, acc: Int): Int { if (n == 0) return acc; return sum(n - 1, acc + n) }";
+
+        // deep enough to overflow the stack if each call used a JVM frame
+        check(sum + "print(\"\" + sum(1000000, 0))", "500000500000");
+        check("fun gcd(a: Int, b: Int): Int { if (b == 0) return a; return gcd(b, a % b) }" +
+            "print(\"\" + gcd(1071, 462))", "21");
+        check("fun count(n: Int, acc: Int): Int {" +
+            "  fun get(): Int { return n }" +
+            "  while (n > 0) { return count(n - 1, acc + get()) }" +
+            "  return acc" +
+            "}" +
+            "print(\"\" + count(100000, 0))", "5000050000");
+        // the Int argument is converted to the Float parameter
+        check("fun half(x: Float, n: Int): Float { if (n == 0) return x; return half(n / 2, 0) }" +
+            "print(\"\" + half(1.5, 3))", "1.0");
+
+        for (boolean optimize: new boolean[] { false, true }) {
+            MethodNode method = method(compile(sum + "print(\"\" + sum(3, 0))", optimize), "sum");
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+                assertTrue(insn.getOpcode() != INVOKESTATIC);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static MethodNode method (CompilationResult result, String name)
+    {
+        ClassNode klass = new ClassNode();
+        new ClassReader(result.mainClass.bytes()).accept(klass, 0);
+        for (MethodNode method: (List<MethodNode>) klass.methods)
+            if (method.name.equals(name))
+                return method;
+        throw new AssertionError("no method: " + name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private final String makePair =
         "struct Pair { var x: Int ; var y: Float }" +
         "var x: Pair = $Pair(1, 2.0) ;";
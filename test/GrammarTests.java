@@ -88,6 +88,9 @@ public class GrammarTests extends AutumnTestFixture {
         successExpect("[1].length", new FieldAccessNode(null,
             new ArrayLiteralNode(null, asList(intlit(1))), "length"));
         successExpect("p.x", new FieldAccessNode(null, new ReferenceNode(null, "p"), "x"));
+        successExpect("a[1:n][0]", new ArrayAccessNode(null,
+            new SliceNode(null, new ReferenceNode(null, "a"), intlit(1), new ReferenceNode(null, "n")),
+            intlit(0)));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -110,6 +113,32 @@ public class GrammarTests extends AutumnTestFixture {
                 asList(new ParameterNode(null, "x", new SimpleTypeNode(null, "Int"))),
                 new SimpleTypeNode(null, "Int"),
                 new BlockNode(null, asList(new ReturnNode(null, intlit(1))))));
+
+        successExpect("var f: (Int, Float) -> Int[] = g", new VarDeclarationNode(null, "f",
+            new FunTypeNode(null,
+                asList(new SimpleTypeNode(null, "Int"), new SimpleTypeNode(null, "Float")),
+                new ArrayTypeNode(null, new SimpleTypeNode(null, "Int"))),
+            new ReferenceNode(null, "g")));
+
+        successExpect("var s: Float[:] = a[0:1]", new VarDeclarationNode(null, "s",
+            new SliceTypeNode(null, new SimpleTypeNode(null, "Float")),
+            new SliceNode(null, new ReferenceNode(null, "a"), intlit(0), intlit(1))));
+
+        successExpect("var l: List<Int> = List<Int>()", new VarDeclarationNode(null, "l",
+            new ListTypeNode(null, new SimpleTypeNode(null, "Int")),
+            new ListConstructorNode(null, new SimpleTypeNode(null, "Int"))));
+
+        successExpect("var f: (() -> Void)[] = []", new VarDeclarationNode(null, "f",
+            new ArrayTypeNode(null,
+                new FunTypeNode(null, asList(), new SimpleTypeNode(null, "Void"))),
+            new ArrayLiteralNode(null, asList())));
+
+        successExpect("extern fun mod (x: Int, y: Int): Int = \"java.lang.Math.floorMod\"",
+            new ExternFunDeclarationNode(null, "mod",
+                asList(new ParameterNode(null, "x", new SimpleTypeNode(null, "Int")),
+                       new ParameterNode(null, "y", new SimpleTypeNode(null, "Int"))),
+                new SimpleTypeNode(null, "Int"),
+                "java.lang.Math.floorMod"));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -3,11 +3,30 @@ import norswap.autumn.Grammar;
 import norswap.autumn.Grammar.rule;
 import norswap.autumn.ParseResult;
 import norswap.autumn.positions.LineMapString;
+import norswap.sigh.BatchExecutor;
+import norswap.sigh.BigArray;
+import norswap.sigh.BigInts;
+import norswap.sigh.Inliner;
+import norswap.sigh.IntList;
+import norswap.sigh.Range;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner;
+import norswap.sigh.Slice;
+import norswap.sigh.ast.RootNode;
 import norswap.sigh.ast.SighNode;
+import norswap.sigh.builtins.Builtin;
+import norswap.sigh.builtins.BuiltinRegistry;
+import norswap.sigh.interpreter.ContextPool;
+import norswap.sigh.interpreter.ExecutionContext;
 import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterException;
 import norswap.sigh.interpreter.Null;
+import norswap.sigh.interpreter.Program;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
 import norswap.utils.IO;
@@ -15,11 +34,35 @@ import norswap.utils.TestFixture;
 import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.expectThrows;
+import static org.testng.Assert.assertTrue;
 
 public final class InterpreterTests extends TestFixture {
 
@@ -39,6 +82,9 @@ public final class InterpreterTests extends TestFixture {
 
     private Grammar.rule rule;
 
+    /** Built-in functions available to the checked programs. */
+    private BuiltinRegistry builtins = BuiltinRegistry.standard();
+
     // ---------------------------------------------------------------------------------------------
 
     private void check (String input, Object expectedReturn) {
@@ -65,7 +111,7 @@ public final class InterpreterTests extends TestFixture {
         SighNode root = parseResult.topValue();
 
         Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, builtins);
         Interpreter interpreter = new Interpreter(reactor);
         walker.walk(root);
         reactor.run();
@@ -88,6 +134,23 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Analyzes and runs the program, and returns the interpreter, to call its functions. */
+    private Interpreter interpret (String input)
+    {
+        autumnFixture.rule = grammar.root;
+        SighNode root = autumnFixture.success(input).topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor, builtins).walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        Interpreter interpreter = new Interpreter(reactor);
+        interpreter.interpret(root);
+        return interpreter;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private void checkExpr (String input, Object expectedReturn, String expectedOutput) {
         rule = grammar.root;
         check("return " + input, expectedReturn, expectedOutput);
@@ -284,6 +347,10 @@ public final class InterpreterTests extends TestFixture {
         checkThrows("var array: Int[] = null; return array.length", NullPointerException.class);
 
         check("var x: Int[] = [0, 1]; x[0] = 3; return x[0]", 3L);
+
+        // constant literals are cached, but each evaluation yields a fresh array
+        check("fun f(): Int[] { return [0, 1] }" +
+            "var x: Int[] = f(); x[0] = 3; return f()[0]", 0L);
         checkThrows("var x: Int[] = []; x[0] = 3; return x[0]",
             ArrayIndexOutOfBoundsException.class);
         checkThrows("var x: Int[] = null; x[0] = 3",
@@ -352,6 +419,63 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void testClosures()
+    {
+        rule = grammar.root;
+
+        check("fun f(x: Int): Int { fun g(): Int { return x + 1 } return g() } return f(1)", 2L);
+        check("fun f(): Int { var x: Int = 1; fun g() { x = x + 1 } g(); g(); return x } return f()", 3L);
+
+        // captures forwarded through sibling and nested functions
+        check(
+            "fun f(n: Int): Int {" +
+            "  var acc: Int = 0" +
+            "  fun add(k: Int) { acc = acc + k + h(); fun h(): Int { return n - n } }" +
+            "  fun loop(i: Int) { if (i > 0) { add(i); loop(i - 1) } }" +
+            "  loop(n)" +
+            "  return acc" +
+            "} return f(4)",
+            10L);
+
+        // the environment is the declaring function's frame, not the caller's
+        check(
+            "fun f(n: Int): Int {" +
+            "  fun g(): Int { if (n == 0) return 0 else return n + f(n - 1) }" +
+            "  return g()" +
+            "} return f(3)",
+            6L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFunctionValues()
+    {
+        rule = grammar.root;
+
+        check("fun inc(x: Int): Int { return x + 1 } var f: (Int) -> Int = inc; return f(1)", 2L);
+        check("fun twice(f: (Int) -> Int, x: Int): Int { return f(f(x)) } " +
+            "fun dbl(x: Int): Int { return 2 * x } return twice(dbl, 3)", 12L);
+        check("struct P { var x: Int } var mk: (Int) -> P = $P; return mk(4).x", 4L);
+        check("var p: (String) -> String = print; return p(\"hi\")", "hi", "hi\n");
+        check("fun id(x: Int): Int { return x } var fs: ((Int) -> Int)[] = [id]; return fs[0](5)", 5L);
+
+        // closures outliving the declaring call
+        check(
+            "fun counter(): () -> Int {" +
+            "  var n: Int = 0" +
+            "  fun next(): Int { n = n + 1; return n }" +
+            "  return next" +
+            "}" +
+            "var c: () -> Int = counter(); c(); c()" +
+            "var d: () -> Int = counter()" +
+            "return c() * 10 + d()",
+            31L);
+
+        checkThrows("var f: () -> Int = null; return f()", NullPointerException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void testHelloBuiltIn() {
         rule = grammar.root;
 
@@ -989,5 +1113,713 @@ public final class InterpreterTests extends TestFixture {
 
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Interprets the program after inlining, checks that it returns and prints the same thing as
+     * without inlining, and returns the inlining decisions.
+     */
+    private List<Inliner.Decision> checkInlined (String input, Object expectedReturn)
+    {
+        check(grammar.root, input, expectedReturn, null);
+
+        autumnFixture.rule = grammar.root;
+        RootNode root = autumnFixture.success(input).topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        Inliner.Result inlined = Inliner.inline(root, reactor);
+
+        Reactor reactor2 = new Reactor();
+        SemanticAnalysis.createWalker(reactor2).walk(inlined.root);
+        reactor2.run();
+        assertTrue(reactor2.errors().isEmpty(), reactor2.errors().toString());
+
+        Interpreter interpreter = new Interpreter(reactor2);
+        Pair<String, Object> result = IO.captureStdout(() -> interpreter.interpret(inlined.root));
+        assertEquals(result.b, expectedReturn);
+        return inlined.decisions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String decisions (List<Inliner.Decision> decisions) {
+        return decisions.stream()
+            .map(it -> it.caller + "->" + it.callee + ":" + (it.inlined ? "inlined" : it.reason))
+            .collect(Collectors.joining(", "));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testInlining ()
+    {
+        // nested helpers are inlined bottom-up, then into the caller
+        assertEquals(decisions(checkInlined(
+            "fun array_add (a: Int[]): Int {" +
+            "  fun add (a: Int, b: Int): Int {" +
+            "    return add2(a, b)" +
+            "    fun add2 (a: Int, b: Int): Int { return a + b }" +
+            "  }" +
+            "  var i: Int = 1; var result: Int = a[0]" +
+            "  while i < a.length { result = add(result, a[i]); i = i + 1 }" +
+            "  return result" +
+            "}" +
+            "return array_add([1, 2, 3])", 6L)),
+            "add->add2:inlined, array_add->add:inlined, <top-level>->array_add:body is not a single return");
+
+        // recursion, unused results, implicit conversions
+        assertEquals(decisions(checkInlined(
+            "fun fact (n: Int): Int { if n <= 1 return 1 else return n * fact(n - 1) }" +
+            "fun even (n: Int): Bool { return n == 0 || odd(n - 1) }" +
+            "fun odd (n: Int): Bool { return n != 0 && even(n - 1) }" +
+            "fun half (x: Float): Float { return x / 2 }" +
+            "fun conv (x: Int): Float { return x }" +
+            "half(1.0)" +
+            "return \"\" + fact(4) + even(3) + half(3) + conv(1)", "24false1.51")),
+            "fact->fact:recursive, odd->even:recursive, even->odd:recursive, " +
+            "<top-level>->half:result unused, <top-level>->fact:recursive, " +
+            "<top-level>->even:recursive, <top-level>->half:implicit argument conversion, " +
+            "<top-level>->conv:implicit return conversion");
+
+        // argument evaluation order
+        assertEquals(decisions(checkInlined(
+            "var log: String = \"\"" +
+            "fun trace (s: String): Int { log = log + s; return 1 }" +
+            "fun sub (a: Int, b: Int): Int { return a - b }" +
+            "fun swap (a: Int, b: Int): Int { return b - a }" +
+            "fun first (a: Int[], b: Int[]): Int { return a[0] + b[0] }" +
+            "var x: Int[] = [5]" +
+            "var r: Int = sub(x[0], 2) + swap(x[0], x[0]) + sub(trace(\"a\"), trace(\"b\"))" +
+            "  + first(x, [1]) + swap(x[0], 1)" +
+            "return log + r", "ab5")),
+            "<top-level>->sub:inlined, <top-level>->swap:argument evaluation order, " +
+            "<top-level>->trace:body is not a single return, " +
+            "<top-level>->trace:body is not a single return, " +
+            "<top-level>->sub:impure argument, <top-level>->first:impure argument, " +
+            "<top-level>->swap:inlined");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testTailCalls () {
+        rule = grammar.root;
+
+        // deep enough to overflow the stack if each call used Java frames
+        check(
+            "fun sum (n: Int, acc: Int): Int { if (n == 0) return acc; return sum(n - 1, acc + n) }" +
+            "return sum(100000, 0)",
+            5000050000L);
+
+        // all arguments are evaluated before the parameters are rebound
+        check(
+            "fun gcd (a: Int, b: Int): Int { if (b == 0) return a; return gcd(b, a % b) }" +
+            "return gcd(1071, 462)",
+            21L);
+
+        // tail call from a loop, with a parameter captured by a nested function
+        check(
+            "fun count (n: Int, acc: Int): Int {" +
+            "  fun get (): Int { return n }" +
+            "  while (n > 0) { return count(n - 1, acc + get()) }" +
+            "  return acc" +
+            "}" +
+            "return count(50000, 0)",
+            1250025000L);
+
+        // not in tail position: still a regular recursive call
+        check(
+            "fun fact (n: Int): Int { if (n <= 1) return 1; return n * fact(n - 1) }" +
+            "return fact(10)",
+            3628800L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testMathBuiltins () {
+        checkExpr("sqrt(16.0)", 4d);
+        checkExpr("sqrt(16)", 4d);
+        checkExpr("pow(2, 10)", 1024d);
+        checkExpr("exp(0)", 1d);
+        checkExpr("floor(-1.5)", -2d);
+        checkExpr("abs(-3)", 3d);
+        checkExpr("min(1, 2.5)", 1d);
+        checkExpr("max(1, 2.5)", 2.5d);
+        checkExpr("fma(2, 3, 1)", 7d);
+        checkExpr("fma(0.1, 10, -1)", 5.551115123125783E-17); // 0.0 without fusion
+
+        rule = grammar.root;
+        check("var f: (Float, Float) -> Float = max ; return f(1.0, 2.0)", 2d);
+        check("fun max (a: Int, b: Int): Int { return a } ; return max(1, 2)", 1L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class HostFunctions {
+        public static long twice (long x) { return 2 * x; }
+        public static double total (double[] xs) { return Arrays.stream(xs).sum(); }
+    }
+
+    @Test
+    public void testHostBuiltins () {
+        FunType twiceType = new FunType(IntType.INSTANCE, IntType.INSTANCE);
+        FunType totalType = new FunType(FloatType.INSTANCE, new ArrayType(FloatType.INSTANCE));
+
+        builtins = BuiltinRegistry.standard()
+            .register(new Builtin("twice", twiceType, Builtin.method(HostFunctions.class, "twice")))
+            .register(new Builtin("total", totalType, Builtin.method(HostFunctions.class, "total"),
+                args -> Arrays.stream((Object[]) args[0])
+                    .mapToDouble(it -> ((Number) it).doubleValue()).sum()));
+        try {
+            checkExpr("twice(21)", 42L);
+            checkExpr("total([1, 2.5])", 3.5d);
+            checkExpr("sqrt(twice(8))", 4d);
+            check("var f: (Int) -> Int = twice ; return f(2)", 4L);
+        } finally {
+            builtins = BuiltinRegistry.standard();
+        }
+
+        // signature mismatch, and no handler for functions
+        assertThrows(IllegalArgumentException.class, () -> new Builtin("twice", totalType,
+            Builtin.method(HostFunctions.class, "twice")));
+        assertThrows(IllegalArgumentException.class, () -> new Builtin("twice",
+            new FunType(IntType.INSTANCE, twiceType), Builtin.method(HostFunctions.class, "twice")));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testHostArrays ()
+    {
+        Interpreter interpreter = interpret(
+            "var calls: Int = 0\n" +
+            "fun scale (xs: Float[], k: Float) { calls = calls + 1 ; var i: Int = 0\n" +
+            "  while i < xs.length { xs[i] = xs[i] * k ; i = i + 1 } }\n" +
+            "fun sum (xs: Int[]): Int { var s: Int = 0 ; var i: Int = 0\n" +
+            "  while i < xs.length { s = s + xs[i] ; i = i + 1 } ; return s }\n" +
+            "fun same (xs: Int[]): Int[] { return xs }\n" +
+            "fun squares (n: Int): Int[] { var r: Int[] = [0, 0, 0] ; var i: Int = 0\n" +
+            "  while i < n { r[i] = i * i ; i = i + 1 } ; return r }\n" +
+            "fun negate (xs: Bool[]): String { xs[0] = !xs[0] ; return \"\" + xs + [xs] }\n" +
+            "fun dot (a: Float[], b: Float[]): Float { return a @ b }\n" +
+            "fun twice (a: Float[]): Float[] { return a * 2.0 }\n" +
+            "fun getCalls (): Int { return calls }");
+
+        // arrays are passed by reference, and modified in place
+        double[] xs = { 1, 2.5 };
+        interpreter.call("scale", xs, 2L);
+        interpreter.call("scale", xs, 2.0);
+        assertEquals(xs, new double[] { 4, 10 });
+        assertEquals(interpreter.call("getCalls"), 2L);
+
+        long[] ints = { 1, 2, 3 };
+        assertEquals(interpreter.call("sum", (Object) ints), 6L);
+        assertTrue(interpreter.call("same", (Object) ints) == ints);
+        assertEquals(interpreter.call("squares", 3L), new long[] { 0, 1, 4 });
+        assertEquals(interpreter.call("twice", (Object) xs), new double[] { 8, 20 });
+        assertEquals(interpreter.call("dot", xs, new double[] { 1, 1 }), 14.0);
+
+        boolean[] bools = { false, true };
+        assertEquals(interpreter.call("negate", (Object) bools), "[true, true][[true, true]]");
+        assertEquals(bools, new boolean[] { true, true });
+
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("sum"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("calls"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("print", "x"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("sum", "x"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("sum", (Object) xs));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("squares", 3.0));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("scale", xs, "2"));
+        assertThrows(IllegalArgumentException.class, () -> interpreter.call("squares", (Object) null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testConcurrentExecutions () throws Exception
+    {
+        // one analysis per example, whose output is computed by a single execution
+        String[] files = { "fizzbuzz.si", "kitchensink.si", "template_integration.si" };
+        Program[] programs = new Program[files.length];
+        String[] outputs = new String[files.length];
+        for (int i = 0; i < files.length; ++i) {
+            autumnFixture.rule = grammar.root;
+            RootNode root = autumnFixture.success(IO.slurp("examples/" + files[i])).topValue();
+            programs[i] = Program.analyze(root, builtins);
+            Program program = programs[i];
+            outputs[i] = IO.captureStdout(() -> program.newContext().run()).a;
+            assertTrue(!outputs[i].isEmpty());
+        }
+
+        // top-level variables are private to each execution
+        autumnFixture.rule = grammar.root;
+        Program counter = Program.analyze(autumnFixture.success(
+            "var count: Int = 0\n" +
+            "fun bump (n: Int): Int { var i: Int = 0\n" +
+            "  while i < n { count = count + 1 ; i = i + 1 } ; return count }\n" +
+            "return [1, 2, 3]").<RootNode>topValue(), builtins);
+
+        int threads = 64;
+        ThreadLocal<ByteArrayOutputStream> buffers = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override public void write (int b) { buffers.get().write(b); }
+            @Override public void write (byte[] b, int off, int len) { buffers.get().write(b, off, len); }
+        }, true));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                int offset = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < 10; ++round) {
+                        int i = (offset + round) % programs.length;
+                        buffers.get().reset();
+                        programs[i].newContext().run();
+                        assertEquals(buffers.get().toString(), outputs[i]);
+
+                        ExecutionContext context = counter.newContext();
+                        Object[] array = (Object[]) context.run();
+                        array[0] = 42L; // must not affect other executions
+                        assertEquals(context.call("bump", 1000L + offset), 1000L + offset);
+                        assertEquals(context.call("bump", 1L), 1001L + offset);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future: futures)
+                future.get();
+        } finally {
+            pool.shutdownNow();
+            System.setOut(stdout);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testContextPool ()
+    {
+        autumnFixture.rule = grammar.root;
+        Program program = Program.analyze(autumnFixture.success(
+            "struct Box { var value: Int }\n" +
+            "var box: Box = $Box(1)\n" +
+            "var counts: Int[] = [0, 0]\n" +
+            "var calls: Int = 0\n" +
+            "fun counter (): () -> Int { var n: Int = 0\n" +
+            "  fun next (): Int { n = n + 1 ; return n } ; return next }\n" +
+            "var next: () -> Int = counter()\n" +
+            "print(\"init\")\n" +
+            "fun handle (x: Int): String {\n" +
+            "  calls = calls + 1 ; counts[0] = counts[0] + x ; box.value = box.value + x\n" +
+            "  return \"\" + calls + \" \" + counts[0] + \" \" + box.value + \" \" + next() }\n" +
+            "fun pure (x: Int): Int { return x * 2 }").<RootNode>topValue(), builtins);
+
+        ContextPool pool = new ContextPool(program, 2);
+
+        // top-level code runs once per created context, and calls never see each other's effects
+        Pair<String, Object> first = IO.captureStdout(() -> pool.call("handle", 5L));
+        assertEquals(first.a, "init\n");
+        assertEquals(first.b, "1 5 6 1");
+        Pair<String, Object> second = IO.captureStdout(() -> pool.call("handle", 7L));
+        assertEquals(second.a, "");
+        assertEquals(second.b, "1 7 8 1");
+        assertEquals(pool.hits(), 1L);
+        assertEquals(pool.misses(), 1L);
+        assertEquals(pool.hitRate(), 0.5);
+
+        // at most two idle contexts are kept
+        ExecutionContext a = pool.acquire(), b = pool.acquire(), c = pool.acquire();
+        assertEquals(pool.idleCount(), 0);
+        assertEquals(c.call("pure", 2L), 4L);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(pool.idleCount(), 2);
+        assertEquals(pool.call("handle", 1L), "1 1 2 1");
+        assertThrows(IllegalStateException.class, () -> pool.release(program.newContext()));
+        Program other = Program.analyze(autumnFixture.success("return 1").<RootNode>topValue(), builtins);
+        assertThrows(IllegalArgumentException.class, () -> pool.release(other.newContext()));
+
+        // idle contexts are evicted after the timeout
+        ContextPool evicting = new ContextPool(program, 4, 0, TimeUnit.NANOSECONDS);
+        IO.captureStdout(() -> evicting.call("pure", 1L));
+        assertEquals(IO.captureStdout(() -> evicting.call("pure", 1L)).a, "init\n");
+        assertEquals(evicting.hits(), 0L);
+        assertEquals(evicting.evictions(), 1L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBatchExecutor ()
+    {
+        autumnFixture.rule = grammar.root;
+        Program program = Program.analyze(autumnFixture.success(
+            "fun score (x: Int, w: Float): Float { return w * (1000 / (x - 13)) }")
+            .<RootNode>topValue(), builtins);
+
+        List<Object[]> inputs = new ArrayList<>();
+        List<Object> expected = new ArrayList<>();
+        for (long x = 0; x < 1000; ++x) {
+            inputs.add(new Object[] { x, 0.5 });
+            if (x != 13) expected.add(0.5 * (1000 / (x - 13)));
+        }
+
+        try (BatchExecutor executor = BatchExecutor.interpreted(program, "score", 8)) {
+            List<Object> outputs = new ArrayList<>();
+            BatchExecutor.Report report = executor.run(inputs, true, outputs::add);
+            assertEquals(outputs, expected);
+            assertEquals(report.count, 1000L);
+            assertEquals(report.failures.size(), 1);
+            assertEquals(report.failures.get(0).index, 13L);
+            assertTrue(report.latencyPercentile(50) <= report.latencyPercentile(99));
+            assertTrue(report.throughput() > 0);
+
+            // unordered, and with a spliterator
+            List<Object> unordered = new ArrayList<>();
+            report = executor.run(inputs.spliterator(), false, unordered::add);
+            assertEquals(report.failures.size(), 1);
+            assertEquals(new HashSet<>(unordered), new HashSet<>(expected));
+            assertEquals(unordered.size(), expected.size());
+        }
+
+        // every input sees the top-level variables as left by the top-level code
+        Program counting = Program.analyze(autumnFixture.success(
+            "var calls: Int[] = [0]\n" +
+            "fun count (x: Int): Int { calls[0] = calls[0] + x ; return calls[0] }")
+            .<RootNode>topValue(), builtins);
+
+        try (BatchExecutor executor = BatchExecutor.interpreted(counting, "count", 4)) {
+            List<Object> outputs = new ArrayList<>();
+            BatchExecutor.Report report = executor.run(inputs.subList(0, 100).stream()
+                .map(it -> new Object[] { it[0] })::iterator, true, outputs::add);
+            assertEquals(report.failures.size(), 0);
+            for (int i = 0; i < 100; ++i)
+                assertEquals(outputs.get(i), (long) i);
+        }
+
+        // only the first failures are kept
+        Program failing = Program.analyze(autumnFixture.success(
+            "fun check (x: Int): Int { return 1 / (x % 2) }")
+            .<RootNode>topValue(), builtins);
+
+        try (BatchExecutor executor = BatchExecutor.interpreted(failing, "check", 4)) {
+            for (boolean ordered: new boolean[] { true, false }) {
+                BatchExecutor.Report report =
+                    executor.run(inputs.stream().map(it -> new Object[] { it[0] })::iterator,
+                        ordered, it -> {});
+                assertEquals(report.failureCount, 500L);
+                assertEquals(report.failures.size(), BatchExecutor.KEPT_FAILURES);
+                for (int i = 0; i < BatchExecutor.KEPT_FAILURES; ++i)
+                    assertEquals(report.failures.get(i).index, 2L * i);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStreaming () throws IOException
+    {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; ++i)
+            input.append("l\u00e9ne ").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+        input.append("last");
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        String perLine =
+            "var count: Int = 0\n" +
+            "fun process (line: String) { count = count + 1\n" +
+            "  if count % 2500 == 0 || count == 10001 { print(\"\" + count + \" \" + line) } }";
+
+        // small chunks, so that lines and multi-byte characters straddle chunk boundaries
+        for (int chunkSize: new int[] { 7, 4096, SighRunner.CHUNK_SIZE }) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            long count = new SighRunner().stream(perLine,
+                Channels.newChannel(new ByteArrayInputStream(bytes)), output, chunkSize);
+            assertEquals(count, 10001L);
+            assertEquals(output.toString("UTF-8"),
+                "2500 l\u00e9ne 2499\n5000 l\u00e9ne 4999\n7500 l\u00e9ne 7499\n" +
+                "10000 l\u00e9ne 9999\n10001 last\n");
+        }
+
+        String perBatch =
+            "var count: Int = 0\n" +
+            "fun processBatch (lines: String[]) { count = count + lines.length\n" +
+            "  print(\"\" + count) }";
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long count = new SighRunner().stream(perBatch,
+            Channels.newChannel(new ByteArrayInputStream(bytes)), output, 1024);
+        assertEquals(count, 10001L);
+        String[] counts = output.toString("UTF-8").split("\n");
+        assertTrue(counts.length > 100); // one call per chunk
+        assertEquals(counts[counts.length - 1], "10001");
+
+        assertThrows(IllegalArgumentException.class, () -> new SighRunner().stream("return 1",
+            Channels.newChannel(new ByteArrayInputStream(bytes)), new ByteArrayOutputStream()));
+
+        // wrong signatures are reported before reading the input
+        for (String wrong: new String[] {
+                "fun process (line: Int) {}",
+                "fun process (line: String, extra: Int) {}",
+                "fun processBatch (lines: String) {}",
+                "template<T> fun process (line: String) {}" }) {
+            IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () ->
+                new SighRunner().stream(wrong,
+                    Channels.newChannel(new ByteArrayInputStream(bytes)),
+                    new ByteArrayOutputStream()));
+            assertTrue(e.getMessage().startsWith("streaming function process"), e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLoadStore () throws IOException
+    {
+        rule = grammar.root;
+        Path floats = Files.createTempFile("sigh", ".f64");
+        Path ints = Files.createTempFile("sigh", ".i64");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putDouble(1.5).putDouble(-2).putDouble(1e300);
+            Files.write(floats, buffer.array());
+
+            String f = floats.toString().replace("\\", "\\\\");
+            String i = ints.toString().replace("\\", "\\\\");
+
+            check("var a: Float[] = loadFloats(\"" + f + "\") ; return \"\" + a.length + a",
+                "3[1.5, -2.0, 1.0E300]");
+
+            // store what the script computed, and read it back
+            check("var a: Float[] = loadFloats(\"" + f + "\") ; a[2] = a[0] + a[1]\n" +
+                "storeFloats(\"" + f + "\", a)\n" +
+                "storeInts(\"" + i + "\", [1, -1, 9223372036854775807])\n" +
+                "return \"\" + loadInts(\"" + i + "\") + loadFloats(\"" + f + "\")",
+                "[1, -1, 9223372036854775807][1.5, -2.0, -0.5]");
+
+            ByteBuffer stored = ByteBuffer.wrap(Files.readAllBytes(ints)).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(stored.getLong(8), -1L);
+
+            check("storeInts(\"" + i + "\", []) ; return loadInts(\"" + i + "\").length", 0L);
+        } finally {
+            Files.delete(floats);
+            Files.delete(ints);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBigArrays ()
+    {
+        rule = grammar.root;
+        check("var a: BigInts = bigInts(3) ; a[1] = 5 ; a[2] = a[1] * 2\n" +
+            "var r: Int = a[2] + a.length ; releaseInts(a) ; return r", 13L);
+        check("var a: BigFloats = bigFloats(3) ; a[0] = 1 ; a[1] = 2.5 ; return \"\" + a",
+            "[1.0, 2.5, 0.0]");
+        check("var a: BigInts = bigInts(2) ; a[0] = 3 ; a[1] = 4\n" +
+            "var b: BigInts = a * 2 ; var c: BigFloats = 1 / a\n" +
+            "return \"\" + (a @ b) + \" \" + c + \" \" + (c @ a)",
+            "50 [0.3333333333333333, 0.25] 2.0");
+        check("var a: BigFloats = bigFloats(2) ; a[1] = 3 ; return \"\" + (a * 2) + (a / 2)",
+            "[0.0, 6.0][0.0, 1.5]");
+        check("var a: BigInts = bigInts(1) ; var b: BigInts = a ; releaseInts(b) ; return a == b",
+            true);
+
+        checkThrows("var a: BigInts = bigInts(2) ; return a[2]",
+            ArrayIndexOutOfBoundsException.class);
+        checkThrows("var a: BigFloats = bigFloats(2) ; a[-1] = 1.0",
+            ArrayIndexOutOfBoundsException.class);
+        checkThrows("var a: BigInts = bigInts(2) ; releaseInts(a) ; return a[0]",
+            IllegalStateException.class);
+        checkThrows("return bigInts(2) @ bigInts(3)", IllegalArgumentException.class);
+
+        // the contents of big arrays can't be restored, so they can't be snapshotted
+        autumnFixture.rule = grammar.root;
+        ExecutionContext kept = Program.analyze(autumnFixture.success(
+            "var a: BigInts = bigInts(2) ; fun get (): Int { return a[0] }")
+            .<RootNode>topValue(), builtins).newContext();
+        kept.run();
+        assertThrows(IllegalStateException.class, kept::snapshot);
+
+        ExecutionContext released = Program.analyze(autumnFixture.success(
+            "var a: BigInts = bigInts(2) ; releaseInts(a)")
+            .<RootNode>topValue(), builtins).newContext();
+        released.run();
+        released.snapshot();
+
+        // owners release the arrays allocated while they are entered, except disowned ones
+        BigArray.Owner owner = new BigArray.Owner();
+        BigArray.Owner previous = owner.enter();
+        BigInts owned, disowned;
+        try {
+            owned = new BigInts(1);
+            disowned = (BigInts) owner.disown(new BigInts(1));
+        } finally {
+            BigArray.Owner.exit(previous);
+        }
+        BigInts unowned = new BigInts(1);
+        owner.releaseAll();
+        assertTrue(owned.released());
+        assertFalse(disowned.released());
+        assertFalse(unowned.released());
+        disowned.release();
+        unowned.release();
+
+        // arrays returned by a context are handed to the host, the others are released on reset
+        ExecutionContext context = Program.analyze(autumnFixture.success(
+            "fun make (): BigInts { var a: BigInts = bigInts(2) ; var b: BigInts = bigInts(2)\n" +
+            "  return a }").<RootNode>topValue(), builtins).newContext();
+        context.run();
+        context.snapshot();
+        BigInts made = (BigInts) context.call("make");
+        context.reset();
+        context.close();
+        assertFalse(made.released());
+        made.release();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRanges ()
+    {
+        rule = grammar.root;
+        check("var r: Range = range(0, 10, 3) ; return \"\" + r + r.length + r[3]", "[0, 3, 6, 9]49");
+        check("return \"\" + range(5, 0, -2) + range(0, 0, 1) + range(3, 0, 1)", "[5, 3, 1][][]");
+        check("return range(0, 1000000000000, 7).length", 142857142858L);
+        check("return range(0, 1000000000000, 7)[100000000000]", 700000000000L);
+        check("return range(1, 4, 1) @ [1, 2, 3]", 14L);
+        check("return [0.5, 0.5] @ range(1, 5, 2)", 2.0);
+        check("return range(1, 4, 1) @ range(3, 0, -1)", 10L);
+
+        // host (primitive) arrays and ranges
+        Interpreter interpreter = interpret(
+            "fun weigh (a: Int[]): Int { return range(0, a.length, 1) @ a }\n" +
+            "fun weighFloats (a: Float[]): Float { return a @ range(1, 3, 1) }\n" +
+            "fun index (r: Range, i: Int): Int { return r[i] }");
+        assertEquals(interpreter.call("weigh", (Object) new long[] { 4, 5, 6 }), 17L);
+        assertEquals(interpreter.call("weighFloats", (Object) new double[] { 0.5, 1.5 }), 3.5);
+        assertEquals(interpreter.call("index", new Range(10, 0, -5), 1L), 5L);
+
+        checkThrows("return range(0, 3, 1)[3]", ArrayIndexOutOfBoundsException.class);
+        Throwable e = expectThrows(InterpreterException.class,
+            () -> check("return range(0, 3, 0)", null));
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+        checkThrows("return range(0, 3, 1) @ [1, 2]", IllegalArgumentException.class);
+        e = expectThrows(IllegalArgumentException.class,
+            () -> check("return range(0, 3, 1) @ range(0, 2, 1)", null));
+        assertEquals(e.getMessage(),
+            "Trying to dot product a range of size [3] with a range of size [2]");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testSlices ()
+    {
+        rule = grammar.root;
+        check("var a: Int[] = [1, 2, 3, 4, 5] ; var s: Int[:] = a[1:4] ; return \"\" + s + s.length + s[0]",
+            "[2, 3, 4]32");
+        check("var a: Int[] = [1, 2, 3, 4, 5] ; return \"\" + a[1:4][1:3] + a[2:2] + a[0:5]",
+            "[3, 4][][1, 2, 3, 4, 5]");
+        check("var a: Int[] = [1, 2, 3, 4] ; return a[0:2] @ a[2:4]", 11L);
+        check("var a: Int[] = [1, 2, 3] ; return a[1:3] @ [10, 100]", 320L);
+        check("var a: Float[] = [0.5, 1.5, 2.5] ; return [2, 4] @ a[1:3]", 13.0);
+        check("var a: Int[] = [1, 2, 3] ; return \"\" + a[1:3] * 2 + 2.5 * a[0:2] + a[0:2] / 2",
+            "[4, 6][2.5, 5.0][0.5, 1.0]");
+        check("var a: Float[] = [1.5, 3.0] ; return \"\" + a[0:2] * 2 + 3 / a[1:2]",
+            "[3.0, 6.0][1.0]");
+
+        // the view reads the array, but writing to the view does not modify it
+        check("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[1:3] ; a[1] = 20 ; return s[0]", 20L);
+        check("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[1:3] ; s[0] = 20 ; " +
+            "return \"\" + a + s", "[1, 2, 3][20, 3]");
+        check("var a: Float[] = [1.0, 2.0] ; var s: Float[:] = a[0:2] ; s[1] = 3.0 ; " +
+            "return \"\" + a + s", "[1.0, 2.0][1.0, 3.0]");
+
+        // host (primitive) arrays and slices
+        Interpreter interpreter = interpret(
+            "fun sum (a: Int[], from: Int, to: Int): Int { " +
+            "    var s: Int[:] = a[from:to] ; var t: Int = 0 ; var i: Int = 0 ; " +
+            "    while i < s.length { t = t + s[i] ; i = i + 1 } ; return t }\n" +
+            "fun norm (s: Float[:]): Float { return s @ s }");
+        assertEquals(interpreter.call("sum", (Object) new long[] { 4, 5, 6, 7 }, 1L, 3L), 11L);
+        assertEquals(interpreter.call("norm", Slice.slice(new double[] { 1, 2, 3 }, 1, 3)), 13.0);
+
+        checkThrows("var a: Int[] = [1, 2, 3] ; return a[2:4]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var a: Int[] = [1, 2, 3] ; return a[2:1]", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var a: Int[] = [1, 2, 3] ; return a[1:3][2]", ArrayIndexOutOfBoundsException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLists ()
+    {
+        rule = grammar.root;
+        check("var l: List<Int> = List<Int>() ; var i: Int = 0\n" +
+            "while i < 20 { l.push(i * i) ; i = i + 1 }\n" +
+            "return \"\" + l.length + \" \" + l[19] + \" \" + l.pop() + \" \" + l.length", "20 361 361 19");
+        check("var l: List<Float> = List<Float>() ; l.push(1) ; l.push(2.5) ; l[0] = 3\n" +
+            "return \"\" + l + l.toArray() + (l.toArray() @ [2, 2])", "[3.0, 2.5][3.0, 2.5]11.0");
+        check("var l: List<String> = List<String>() ; l.push(\"a\") ; l.push(\"b\")\n" +
+            "var s: String = l.pop() + l.pop() ; return s + l.length + l", "ba0[]");
+        check("var l: List<Int> = List<Int>() ; l.push(1) ; l.push(l.pop() + 1) ; return \"\" + l", "[2]");
+
+        // host lists
+        Interpreter interpreter = interpret(
+            "fun fill (l: List<Int>, n: Int): List<Int> { " +
+            "    var i: Int = 0 ; while i < n { l.push(i) ; i = i + 1 } ; return l }");
+        IntList list = new IntList();
+        assertTrue(interpreter.call("fill", list, 100L) == list);
+        assertEquals(list.length(), 100L);
+        assertEquals(list.get(99), 99L);
+
+        checkThrows("var l: List<Int> = List<Int>() ; l.push(1) ; return l[1]",
+            ArrayIndexOutOfBoundsException.class);
+        checkThrows("var l: List<Float> = List<Float>() ; l[0] = 1.0",
+            ArrayIndexOutOfBoundsException.class);
+        checkThrows("var l: List<String> = List<String>() ; return l.pop()",
+            IllegalStateException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testExternFunctions () {
+        rule = grammar.root;
+        String mod = "extern fun mod (x: Int, y: Int): Int = \"java.lang.Math.floorMod\"";
+
+        builtins = BuiltinRegistry.standard().allowExtern(
+            Math.class, StrictMath.class, Long.class, Arrays.class, HostFunctions.class);
+        try {
+            check(mod + "return mod(-7, 3)", 2L);
+            check(mod + "var f: (Int, Int) -> Int = mod ; return f(7, -3)", -2L);
+            check("extern fun hex (x: Int): String = \"java.lang.Long.toHexString\"" +
+                "return hex(255)", "ff");
+            check("extern fun sqrt (x: Float): Float = \"java.lang.StrictMath.sqrt\"" +
+                "return sqrt(4)", 2d);
+
+            // arrays are converted, and modifications are visible after the call
+            check("extern fun sort (a: Float[]): Void = \"java.util.Arrays.sort\"" +
+                "var a: Float[] = [3, 1.5, 2] ; sort(a) ; return \"\" + a", "[1.5, 2.0, 3.0]");
+            check("extern fun total (a: Float[]): Float =" +
+                " \"InterpreterTests$HostFunctions.total\" return total([1, 2.5])", 3.5d);
+        } finally {
+            builtins = BuiltinRegistry.standard();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // NOTE(norswap): Not incredibly complete, but should cover the basics.
 }
@@ -3,10 +3,13 @@ import norswap.autumn.positions.LineMapString;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
 import norswap.sigh.ast.*;
+import norswap.sigh.builtins.BuiltinRegistry;
 import norswap.uranium.Reactor;
 import norswap.uranium.UraniumTestFixture;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.Objects;
 
 import static java.util.Arrays.asList;
 import static norswap.sigh.ast.BinaryOperator.DIVIDE;
@@ -30,6 +33,7 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
     }
 
     private String input;
+    private BuiltinRegistry builtins = BuiltinRegistry.standard();
 
     @Override protected Object parse (String input) {
         this.input = input;
@@ -44,7 +48,7 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
     // ---------------------------------------------------------------------------------------------
 
     @Override protected void configureSemanticAnalysis (Reactor reactor, Object ast) {
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, builtins);
         walker.walk(((SighNode) ast));
     }
 
@@ -206,6 +210,23 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
         successInput("var str: String = null; return print(str + 1)");
 
         failureInputWith("return print(1)", "argument 0: expected String but got Int");
+
+        // function values
+        successInput("fun f(x: Int): Int { return x } var g: (Int) -> Int = f; return g(1)");
+        successInput("fun app(f: (Int) -> Int): Int { return f(1) } fun f(x: Int): Int { return x } return app(f)");
+        failureInputWith("fun f(x: Int): Int { return x } var g: (Float) -> Int = f",
+            "expected (Float) -> Int but got (Int) -> Int");
+        failureInputWith("var g: (Int) -> Int = null; return g(true)", "argument 0: expected Int but got Bool");
+        // closures: a function can't be used before the variables it (transitively) captures
+        String inner = "fun g (): Int { return h() } ; var y: Int = g() ; var x: Int = 5\n" +
+            "fun h (): Int { return x }";
+        failureInputWith("fun outer (): Int { " + inner + " ; return y }",
+            "Variable used before declaration: x (captured by g)");
+        failureInputWith("fun outer (): Int { var f: () -> Int = h ; var x: Int = 5\n" +
+            "fun h (): Int { return x } ; return f() }",
+            "Variable used before declaration: x (captured by h)");
+        successInput("fun outer (): Int { fun g (): Int { return h() } ; var x: Int = 5\n" +
+            "fun h (): Int { return x } ; return g() }");
     }
 
     @Test public void testTemplateDefinitions() {
@@ -575,4 +596,150 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMathBuiltins()
+    {
+        successInput("var x: Float = sqrt(2.0) + pow(2, 10) + exp(1) + floor(1.5)");
+        successInput("var x: Float = abs(-1) + min(1, 2.0) + max(1.0, 2) + fma(1, 2, 3)");
+        successInput("var f: (Float, Float) -> Float = max ; return f(1.0, 2.0)");
+
+        failureInputWith("return sqrt(\"2\")",
+            "incompatible argument provided for argument 0: expected Float but got String");
+        failureInputWith("return min(1.0)", "wrong number of arguments, expected 2 but got 1");
+        failureInputWith("var x: Int = abs(1)", "expected Int but got Float");
+
+        // user declarations shadow the built-ins, even when declared after their use
+        successInput("fun f(): Int { return max(1, 2) } ; fun max(a: Int, b: Int): Int { return b }");
+        successInput("var abs: Int = 1 ; return abs + 1");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBigArrays()
+    {
+        successInput("var a: BigInts = bigInts(10) ; a[9] = 1 ; var x: Int = a[0] + a.length");
+        successInput("var a: BigFloats = bigFloats(10) ; a[0] = 1 ; var x: Float = a[0]");
+        successInput("var a: BigInts = bigInts(2) ; var b: BigInts = a * 2 ; var x: Int = a @ b");
+        successInput("var a: BigInts = bigInts(2) ; var b: BigFloats = a * 2.0 ; var c: BigFloats = a / 2");
+        successInput("var a: BigFloats = bigFloats(2) ; var x: Float = a @ bigInts(2)");
+        successInput("var a: BigFloats = null ; releaseFloats(bigFloats(1))");
+
+        failureInputWith("var a: BigInts = bigInts(2) ; a[0] = 1.5",
+            "Trying to assign a value to a non-compatible lvalue.");
+        failureInputWith("var a: BigInts = bigInts(2) ; var x: Int = a[true]",
+            "Indexing an array using a non-Int-valued expression");
+        failureInputWith("var a: BigInts = bigInts(2) ; var x: Int = a.size",
+            "Trying to access a non-length field on an array");
+        failureInputWith("var a: BigInts = bigInts(2) ; var b: BigInts = a * a",
+            "Trying to multiply BigInts with BigInts");
+        failureInputWith("var a: BigInts = bigInts(2) ; var x: Int = a @ [1, 2]",
+            "Trying to dot_product BigInts with Int[]");
+        failureInputWith("var a: Int[] = bigInts(2)",
+            "incompatible initializer type provided for variable `a`: expected Int[] but got BigInts");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testRanges()
+    {
+        successInput("var r: Range = range(0, 10, 2) ; var x: Int = r[0] + r.length");
+        successInput("var x: Int = range(0, 3, 1) @ [1, 2, 3] ; var y: Int = range(0, 3, 1) @ range(0, 3, 1)");
+        successInput("var x: Float = [1.5, 2] @ range(0, 2, 1)");
+
+        failureInputWith("var r: Range = range(0, 10, 2) ; r[0] = 1",
+            "Trying to assign to an element of a range");
+        failureInputWith("var a: Int[] = range(0, 10, 2)",
+            "incompatible initializer type provided for variable `a`: expected Int[] but got Range");
+        failureInputWith("var x: Int = range(0, 3, 1) @ [true, false, true]",
+            "Trying to dot_product Range with Bool[]");
+        failureInputWith("var r: Range = range(0, 3, 1) * 2",
+            "Trying to multiply Range with Int");
+        failureInputWith("var r: Range = range(0, 3.5, 1)",
+            "incompatible argument provided for argument 1: expected Int but got Float");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testSlices()
+    {
+        successInput("var a: Int[] = [1, 2, 3] ; var s: Int[:] = a[0:2] ; var x: Int = s[0] + s.length");
+        successInput("var a: Float[] = [1, 2, 3] ; var s: Float[:] = a[0:2][1:2] ; s[0] = 1");
+        successInput("var a: Int[] = [1, 2] ; var x: Int = a[0:2] @ a ; var y: Float = a[0:2] @ [1.5, 2]");
+        successInput("var a: Int[] = [1, 2] ; var b: Int[] = a[0:2] * 2 ; var c: Float[] = a[0:2] / 2");
+        successInput("fun f (s: Float[:]): Float { return s @ s }");
+
+        failureInputWith("var a: Bool[] = [true] ; return a[0:1]",
+            "Trying to slice an expression of type Bool[] (only Int[] and Float[] arrays can be sliced)");
+        failureInputWith("var a: Int[] = [1, 2] ; var s: Int[:] = a[0:1.5]",
+            "Slicing an array using a non-Int-valued end index");
+        failureInputWith("var a: Int[] = [1, 2] ; var s: Int[] = a[0:1]",
+            "incompatible initializer type provided for variable `s`: expected Int[] but got Int[:]");
+        failureInputWith("var a: Int[] = [1, 2] ; var s: Float[:] = a[0:1]",
+            "incompatible initializer type provided for variable `s`: expected Float[:] but got Int[:]");
+        failureInputWith("fun f (s: String[:]): Void {}",
+            "Only Int[:] and Float[:] slice types are allowed, not String[:]");
+        failureInputWith("var a: Int[] = [1, 2] ; var x: Int = a[0:1] @ 2",
+            "Trying to dot_product Int[:] with Int");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLists()
+    {
+        successInput("var l: List<Int> = List<Int>() ; l.push(1) ; var x: Int = l[0] + l.pop() + l.length");
+        successInput("var l: List<Float> = List<Float>() ; l.push(1) ; l[0] = 2 ; var a: Float[] = l.toArray()");
+        successInput("var l: List<String> = List<String>() ; l.push(\"a\") ; var s: String = l.pop()");
+        successInput("fun f (l: List<Int>): List<Int> { l.push(l.length) ; return l }");
+
+        failureInputWith("var l: List<Bool> = List<Bool>()",
+            "Only List<Int>, List<Float> and List<String> lists are allowed, not List<Bool>");
+        failureInputWith("var l: List<Int> = List<Int>() ; l.push(1.5)",
+            "incompatible argument provided for argument 0: expected Int but got Float");
+        failureInputWith("var l: List<Int> = List<Float>()",
+            "incompatible initializer type provided for variable `l`: expected List<Int> but got List<Float>");
+        failureInputWith("var l: List<Int> = List<Int>() ; var f: () -> Int = l.pop",
+            "List method pop can only be called directly");
+        failureInputWith("var l: List<Int> = List<Int>() ; l.clear()",
+            "Trying to access missing field clear on a list");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testExternFunctions()
+    {
+        failureInputWith("extern fun hex (x: Int): String = \"java.lang.Long.toHexString\"",
+            "Extern functions are not allowed to bind to class: java.lang.Long");
+
+        builtins = BuiltinRegistry.standard()
+            .allowExtern(Math.class, Long.class, Arrays.class, Objects.class);
+        try {
+            testAllowedExternFunctions();
+        } finally {
+            builtins = BuiltinRegistry.standard();
+        }
+    }
+
+    private void testAllowedExternFunctions ()
+    {
+        successInput("extern fun mod (x: Int, y: Int): Int = \"java.lang.Math.floorMod\"" +
+            "return mod(-7, 3)");
+        successInput("extern fun sort (a: Float[]): Void = \"java.util.Arrays.sort\"" +
+            "var a: Float[] = [2, 1] ; sort(a)");
+        successInput("extern fun hex (x: Int): String = \"java.lang.Long.toHexString\"" +
+            "var f: (Int) -> String = hex ; return f(255)");
+
+        failureInputWith("extern fun mod (x: Int, y: Int): Int = \"java.lang.Math.floorMod\"" +
+            "return mod(\"a\", 3)",
+            "incompatible argument provided for argument 0: expected Int but got String");
+        failureInputWith("extern fun bits (x: Int): Int = \"java.lang.Long.bitCount\"",
+            "No public static method bitCount with descriptor (J)J");
+        failureInputWith("extern fun f (x: Int): Int = \"no.such.Klass.f\"",
+            "Extern functions are not allowed to bind to class: no.such.Klass");
+        failureInputWith("extern fun f (x: Int): Int = \"f\"",
+            "Extern function target is not a qualified method name: f");
+        failureInputWith("struct P {} ; extern fun f (p: P): Int = \"java.util.Objects.hashCode\"",
+            "Unsupported type in extern function: P");
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }